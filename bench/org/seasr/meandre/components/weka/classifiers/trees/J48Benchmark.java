@@ -0,0 +1,224 @@
+/**
+ *
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ *
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ *
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ *
+ */
+
+package org.seasr.meandre.components.weka.classifiers.trees;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.J48;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Measures how fast a J48 tree classifies instances one at a time, as Weka
+ * builds it, flattened into a FlatJ48Classifier and compiled into a
+ * CompiledJ48Classifier. An unpruned tree is built on generated instances
+ * with numeric and nominal attributes, whose class depends on a few of them
+ * with some noise, so the tree is large. The scored instances are generated
+ * the same way, with a share of missing values.
+ * <p>
+ * Each classifier scores the instances several times and the fastest run is
+ * reported in instances per second, with the number of predictions that
+ * differ from the ones of the tree. An instance the tree cannot classify
+ * counts as a missing class.
+ * <p>
+ * Usage: J48Benchmark [name=value ...] with the names train, rows, numeric,
+ * nominal, values, classes, missing (percent), noise (percent) and runs.
+ */
+public class J48Benchmark {
+
+    /** Generates the instances */
+    private final Random random = new Random(42);
+
+    /** The numeric attributes */
+    private final int iNumeric;
+
+    /** The nominal attributes */
+    private final int iNominal;
+
+    /** The values of each nominal attribute */
+    private final int iValues;
+
+    /** The number of classes */
+    private final int iClasses;
+
+    /** The share of missing values, in percent */
+    private final int iMissing;
+
+    /** The share of random classes, in percent */
+    private final int iNoise;
+
+    public J48Benchmark(int iNumeric, int iNominal, int iValues, int iClasses, int iMissing, int iNoise) {
+        this.iNumeric = iNumeric;
+        this.iNominal = iNominal;
+        this.iValues = iValues;
+        this.iClasses = iClasses;
+        this.iMissing = iMissing;
+        this.iNoise = iNoise;
+    }
+
+    /**
+     * @return An empty data set, the class last
+     */
+    private Instances header() {
+        FastVector fvAtts = new FastVector();
+        for (int a = 0; a < iNumeric; a++)
+            fvAtts.addElement(new Attribute("x" + a));
+        for (int a = 0; a < iNominal; a++)
+            fvAtts.addElement(new Attribute("n" + a, values("v", iValues)));
+        fvAtts.addElement(new Attribute("class", values("c", iClasses)));
+        Instances data = new Instances("J48Benchmark", fvAtts, 0);
+        data.setClassIndex(iNumeric + iNominal);
+        return data;
+    }
+
+    private static FastVector values(String sPrefix, int iCount) {
+        FastVector fv = new FastVector(iCount);
+        for (int v = 0; v < iCount; v++)
+            fv.addElement(sPrefix + v);
+        return fv;
+    }
+
+    /**
+     * Generates instances whose class is a function of the first attributes,
+     * with some noise and missing values.
+     */
+    private Instances generate(int iRows, int iMissingShare) {
+        Instances data = header();
+        int iAtts = iNumeric + iNominal;
+        for (int r = 0; r < iRows; r++) {
+            double[] da = new double[iAtts + 1];
+            for (int a = 0; a < iNumeric; a++)
+                da[a] = random.nextDouble();
+            for (int a = iNumeric; a < iAtts; a++)
+                da[a] = random.nextInt(iValues);
+
+            double dScore = 0;
+            for (int a = 0; a < Math.min(3, iNumeric); a++)
+                dScore += Math.sin(7 * da[a] * (a + 1));
+            if (iNominal > 0)
+                dScore += da[iNumeric] / iValues;
+            int iClass = (int) Math.abs(Math.floor(dScore * iClasses)) % iClasses;
+            if (random.nextInt(100) < iNoise)
+                iClass = random.nextInt(iClasses);
+            da[iAtts] = iClass;
+
+            for (int a = 0; a < iAtts; a++)
+                if (random.nextInt(100) < iMissingShare)
+                    da[a] = Instance.missingValue();
+            data.add(new Instance(1, da));
+        }
+        return data;
+    }
+
+    /**
+     * Builds the tree and times the classifiers.
+     */
+    private void run(int iTrain, int iRows, int iRuns) throws Exception {
+        J48 tree = new J48();
+        tree.setUnpruned(true);
+        tree.setMinNumObj(1);
+        tree.buildClassifier(generate(iTrain, 0));
+        FlatJ48Classifier flat = new FlatJ48Classifier(tree);
+        CompiledJ48Classifier compiled = new CompiledJ48Classifier(tree);
+        System.out.println("Tree of " + flat.numNodes() + " nodes, " +
+                           (compiled.isCompiled() ? "compiled" : "not compiled: " + compiled.getFailure()));
+
+        Instances data = generate(iRows, iMissing);
+        double[] daExpected = classify(tree, data);
+
+        Classifier[] models = { tree, flat, compiled };
+        String[] saNames = { "J48", "FlatJ48Classifier", "CompiledJ48Classifier" };
+        System.out.println(String.format("%-24s %14s %10s", "classifier", "instances/s", "differ"));
+        for (int m = 0; m < models.length; m++) {
+            long lBest = Long.MAX_VALUE;
+            double[] daClasses = null;
+            for (int iRun = 0; iRun < iRuns; iRun++) {
+                long lStart = System.nanoTime();
+                daClasses = classify(models[m], data);
+                lBest = Math.min(lBest, System.nanoTime() - lStart);
+            }
+            int iDiffer = 0;
+            for (int i = 0; i < daClasses.length; i++)
+                if (Double.doubleToLongBits(daClasses[i]) != Double.doubleToLongBits(daExpected[i]))
+                    iDiffer++;
+            System.out.println(String.format("%-24s %14.0f %10d", saNames[m], iRows / (lBest / 1e9), iDiffer));
+        }
+    }
+
+    private static double[] classify(Classifier model, Instances data) {
+        double[] daClasses = new double[data.numInstances()];
+        for (int i = 0; i < daClasses.length; i++) {
+            try {
+                daClasses[i] = model.classifyInstance(data.instance(i));
+            }
+            catch (Exception e) {
+                daClasses[i] = Instance.missingValue();
+            }
+        }
+        return daClasses;
+    }
+
+    public static void main(String[] sa) throws Exception {
+        Map<String, String> mapArgs = new HashMap<String, String>();
+        for (String s : sa) {
+            int iEq = s.indexOf('=');
+            if (iEq > 0)
+                mapArgs.put(s.substring(0, iEq), s.substring(iEq + 1));
+        }
+
+        J48Benchmark jb = new J48Benchmark(intArg(mapArgs, "numeric", 8), intArg(mapArgs, "nominal", 4),
+                                           intArg(mapArgs, "values", 5), intArg(mapArgs, "classes", 4),
+                                           intArg(mapArgs, "missing", 2), intArg(mapArgs, "noise", 10));
+        jb.run(intArg(mapArgs, "train", 50000), intArg(mapArgs, "rows", 200000), intArg(mapArgs, "runs", 5));
+    }
+
+    private static int intArg(Map<String, String> mapArgs, String sName, int iDefault) {
+        String s = mapArgs.get(sName);
+        return (s == null) ? iDefault : Integer.parseInt(s.trim());
+    }
+}
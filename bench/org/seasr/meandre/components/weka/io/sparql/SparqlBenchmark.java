@@ -0,0 +1,527 @@
+/**
+ *
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ *
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ *
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ *
+ */
+package org.seasr.meandre.components.weka.io.sparql;
+
+import com.hp.hpl.jena.query.ResultSet;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import weka.core.Instances;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the throughput of the SPARQL ingestion paths against a local stub
+ * endpoint, so changes can be compared without a real server. The stub
+ * serves generated results in the XML, JSON or TSV format: a dense set of
+ * numeric variables and a label for ResultsToInstances, and document, word,
+ * count and label solutions for SparsePivot. It honors a trailing LIMIT and
+ * OFFSET, so paged retrieval can be measured too.
+ * <p>
+ * Each path is run several times and the fastest run is reported with its
+ * solutions per second, response megabytes per second and the peak heap
+ * used. The stub generates the responses in the same process, so the
+ * figures are for comparing paths and revisions, not absolute.
+ * <p>
+ * Usage: SparqlBenchmark [name=value ...] with the names rows, atts, labels,
+ * vocabulary, terms, runs, threads and pageSize.
+ */
+public class SparqlBenchmark {
+
+    /** The XML schema namespace */
+    private final static String XSD = "http://www.w3.org/2001/XMLSchema#";
+
+    /** The variables of the dense results */
+    private final static String DENSE_QUERY = "SELECT * WHERE { ?s ?p ?o } ORDER BY ?s";
+
+    /** The variables of the sparse results */
+    private final static String SPARSE_QUERY = "SELECT ?doc ?word ?count ?label WHERE { ?s ?p ?o } ORDER BY ?doc";
+
+    /** Matches a trailing LIMIT or OFFSET */
+    private final static Pattern MODIFIER = Pattern.compile("(?i)(LIMIT|OFFSET)\\s+(\\d+)");
+
+    /** The number of solutions of each result set */
+    private final int iRows;
+
+    /** The numeric variables of the dense results */
+    private final int iAtts;
+
+    /** The number of distinct labels */
+    private final int iLabels;
+
+    /** The number of distinct words of the sparse results */
+    private final int iVocabulary;
+
+    /** The solutions of each document of the sparse results */
+    private final int iTerms;
+
+    /** The bytes served by the stub */
+    private final AtomicLong alBytes = new AtomicLong();
+
+    /** The stub endpoint */
+    private HttpServer server;
+
+    /** The URL of the stub endpoint */
+    private String sEndpoint;
+
+    /**
+     * A measured ingestion path.
+     */
+    private abstract class Path {
+        final String sName;
+
+        Path(String sName) {
+            this.sName = sName;
+        }
+
+        /** Prepares the path before the measured run */
+        void prepare() throws Exception {
+        }
+
+        /** Runs the path once */
+        abstract void run() throws Exception;
+    }
+
+    /**
+     * Creates a benchmark.
+     *
+     * @param iRows The number of solutions of each result set
+     * @param iAtts The numeric variables of the dense results
+     * @param iLabels The number of distinct labels
+     * @param iVocabulary The number of distinct words of the sparse results
+     * @param iTerms The solutions of each document of the sparse results
+     */
+    public SparqlBenchmark(int iRows, int iAtts, int iLabels, int iVocabulary, int iTerms) {
+        this.iRows = iRows;
+        this.iAtts = iAtts;
+        this.iLabels = iLabels;
+        this.iVocabulary = iVocabulary;
+        this.iTerms = iTerms;
+    }
+
+    /**
+     * Starts the stub endpoint on a free local port.
+     *
+     * @return The endpoint URL
+     * @throws IOException The server cannot be started
+     */
+    public String start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/sparql", new HttpHandler() {
+            public void handle(HttpExchange he) throws IOException {
+                serve(he);
+            }
+        });
+        ExecutorService pool = Executors.newCachedThreadPool();
+        server.setExecutor(pool);
+        server.start();
+        sEndpoint = "http://127.0.0.1:" + server.getAddress().getPort() + "/sparql";
+        return sEndpoint;
+    }
+
+    /**
+     * Stops the stub endpoint.
+     */
+    public void stop() {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    /**
+     * Answers a query with generated results.
+     */
+    private void serve(HttpExchange he) throws IOException {
+        Map<String, String> mapParams = new HashMap<String, String>();
+        String sRaw = he.getRequestURI().getRawQuery();
+        if (sRaw != null)
+            for (String sParam : sRaw.split("&")) {
+                int iEq = sParam.indexOf('=');
+                if (iEq > 0)
+                    mapParams.put(sParam.substring(0, iEq), URLDecoder.decode(sParam.substring(iEq + 1), "UTF-8"));
+            }
+        String sQuery = mapParams.containsKey("query") ? mapParams.get("query") : "";
+        String sFormat = mapParams.containsKey("format") ? mapParams.get("format") : SparqlEndpoint.XML;
+
+        long lFrom = 0, lTo = iRows;
+        Matcher m = MODIFIER.matcher(sQuery);
+        long lLimit = -1;
+        while (m.find()) {
+            if (m.group(1).equalsIgnoreCase("LIMIT"))
+                lLimit = Long.parseLong(m.group(2));
+            else
+                lFrom = Long.parseLong(m.group(2));
+        }
+        if (lLimit >= 0)
+            lTo = Math.min(lTo, lFrom + lLimit);
+
+        he.getResponseHeaders().set("Content-Type", SparqlEndpoint.getMediaType(sFormat));
+        he.sendResponseHeaders(200, 0);
+        Writer w = new BufferedWriter(new OutputStreamWriter(new CountingStream(he.getResponseBody()), "UTF-8"),
+                                      64 * 1024);
+        try {
+            if (sQuery.indexOf("?doc") >= 0)
+                writeSparse(w, sFormat, lFrom, lTo);
+            else
+                writeDense(w, sFormat, lFrom, lTo);
+        }
+        finally {
+            w.close();
+        }
+    }
+
+    /**
+     * Writes numeric variables and a label.
+     */
+    private void writeDense(Writer w, String sFormat, long lFrom, long lTo) throws IOException {
+        String[] saVars = new String[iAtts + 1];
+        String[] saTypes = new String[iAtts + 1];
+        String[] saValues = new String[iAtts + 1];
+        for (int i = 0; i < iAtts; i++) {
+            saVars[i] = "a" + i;
+            saTypes[i] = XSD + "double";
+        }
+        saVars[iAtts] = "label";
+
+        ResultWriter rw = new ResultWriter(w, sFormat, saVars);
+        for (long l = lFrom; l < lTo; l++) {
+            for (int i = 0; i < iAtts; i++)
+                saValues[i] = Double.toString((mix(l * 131 + i) >>> 11) * 0x1.0p-53 * 100);
+            saValues[iAtts] = "class" + (mix(l) >>> 1) % iLabels;
+            rw.write(saValues, saTypes);
+        }
+        rw.end();
+    }
+
+    /**
+     * Writes document, word, count and label solutions ordered by document.
+     */
+    private void writeSparse(Writer w, String sFormat, long lFrom, long lTo) throws IOException {
+        String[] saVars = {"doc", "word", "count", "label"};
+        String[] saTypes = {null, null, XSD + "integer", null};
+        String[] saValues = new String[4];
+
+        ResultWriter rw = new ResultWriter(w, sFormat, saVars);
+        for (long l = lFrom; l < lTo; l++) {
+            long lDoc = l / iTerms;
+            saValues[0] = "doc" + lDoc;
+            saValues[1] = "w" + (mix(l) >>> 1) % iVocabulary;
+            saValues[2] = Long.toString(1 + (mix(l * 31 + 7) >>> 1) % 9);
+            saValues[3] = "class" + (mix(lDoc) >>> 1) % iLabels;
+            rw.write(saValues, saTypes);
+        }
+        rw.end();
+    }
+
+    /**
+     * Writes solutions in one of the result formats.
+     */
+    private static class ResultWriter {
+        private final Writer w;
+        private final String sFormat;
+        private final String[] saVars;
+        private boolean bFirst = true;
+
+        ResultWriter(Writer w, String sFormat, String[] saVars) throws IOException {
+            this.w = w;
+            this.sFormat = sFormat;
+            this.saVars = saVars;
+            if (sFormat.equals(SparqlEndpoint.JSON)) {
+                w.write("{\"head\":{\"vars\":[");
+                for (int i = 0; i < saVars.length; i++)
+                    w.write(((i > 0) ? ",\"" : "\"") + saVars[i] + "\"");
+                w.write("]},\"results\":{\"bindings\":[\n");
+            }
+            else if (sFormat.equals(SparqlEndpoint.TSV)) {
+                for (int i = 0; i < saVars.length; i++)
+                    w.write(((i > 0) ? "\t?" : "?") + saVars[i]);
+                w.write('\n');
+            }
+            else {
+                w.write("<?xml version=\"1.0\"?>\n<sparql xmlns=\"http://www.w3.org/2005/sparql-results#\">\n<head>\n");
+                for (String sVar : saVars)
+                    w.write("<variable name=\"" + sVar + "\"/>\n");
+                w.write("</head>\n<results>\n");
+            }
+        }
+
+        void write(String[] saValues, String[] saTypes) throws IOException {
+            if (sFormat.equals(SparqlEndpoint.JSON)) {
+                w.write(bFirst ? "{" : ",\n{");
+                for (int i = 0; i < saVars.length; i++) {
+                    w.write(((i > 0) ? ",\"" : "\"") + saVars[i] + "\":{\"type\":\"literal\",");
+                    if (saTypes[i] != null)
+                        w.write("\"datatype\":\"" + saTypes[i] + "\",");
+                    w.write("\"value\":\"" + saValues[i] + "\"}");
+                }
+                w.write('}');
+            }
+            else if (sFormat.equals(SparqlEndpoint.TSV)) {
+                for (int i = 0; i < saVars.length; i++) {
+                    if (i > 0)
+                        w.write('\t');
+                    w.write('"');
+                    w.write(saValues[i]);
+                    w.write('"');
+                    if (saTypes[i] != null)
+                        w.write("^^<" + saTypes[i] + ">");
+                }
+                w.write('\n');
+            }
+            else {
+                w.write("<result>");
+                for (int i = 0; i < saVars.length; i++) {
+                    w.write("<binding name=\"" + saVars[i] + "\"><literal");
+                    if (saTypes[i] != null)
+                        w.write(" datatype=\"" + saTypes[i] + "\"");
+                    w.write(">" + saValues[i] + "</literal></binding>");
+                }
+                w.write("</result>\n");
+            }
+            bFirst = false;
+        }
+
+        void end() throws IOException {
+            if (sFormat.equals(SparqlEndpoint.JSON))
+                w.write("\n]}}\n");
+            else if (!sFormat.equals(SparqlEndpoint.TSV))
+                w.write("</results>\n</sparql>\n");
+        }
+    }
+
+    /**
+     * Counts the bytes served.
+     */
+    private class CountingStream extends FilterOutputStream {
+        CountingStream(OutputStream os) {
+            super(os);
+        }
+
+        public void write(byte[] ba, int iOff, int iLen) throws IOException {
+            out.write(ba, iOff, iLen);
+            alBytes.addAndGet(iLen);
+        }
+
+        public void write(int b) throws IOException {
+            out.write(b);
+            alBytes.incrementAndGet();
+        }
+    }
+
+    /**
+     * Runs every path and prints its figures.
+     *
+     * @param iRuns The runs of each path, the fastest is reported
+     * @param iThreads The threads of the unordered pivot
+     * @param iPageSize The page size of the paged paths
+     * @throws IOException The cache directory cannot be created
+     */
+    public void run(int iRuns, final int iThreads, final int iPageSize) throws IOException {
+        final File fCache = new File(System.getProperty("java.io.tmpdir"), "sparql-benchmark-" + System.nanoTime());
+        final SparqlCache sc = new SparqlCache(fCache, Long.MAX_VALUE, 0);
+        final String sCacheKey = SparqlCache.key(sEndpoint, DENSE_QUERY);
+
+        Path[] paths = {
+                denseStream(SparqlEndpoint.XML),
+                denseStream(SparqlEndpoint.JSON),
+                denseStream(SparqlEndpoint.TSV),
+                new Path("xml jena -> ResultsToInstances") {
+                    void run() throws Exception {
+                        ResultsToInstances.toInstances(SparqlEndpoint.queryWithJena(sEndpoint, DENSE_QUERY));
+                    }
+                },
+                new Path("json paged -> ResultsToInstances") {
+                    void run() throws Exception {
+                        ResultsToInstances.toInstances(PagedQuery.query(sEndpoint, DENSE_QUERY, SparqlEndpoint.JSON,
+                                                                        iPageSize, 4, 0));
+                    }
+                },
+                new Path("cache replay -> ResultsToInstances") {
+                    void prepare() throws Exception {
+                        if (sc.get(sCacheKey) == null)
+                            ResultsToInstances.toInstances(sc.record(sCacheKey, SparqlEndpoint.query(sEndpoint, DENSE_QUERY)));
+                    }
+
+                    void run() throws Exception {
+                        ResultsToInstances.toInstances(sc.get(sCacheKey));
+                    }
+                },
+                sparse(SparqlEndpoint.XML, 0),
+                sparse(SparqlEndpoint.JSON, 0),
+                sparse(SparqlEndpoint.TSV, 0),
+                sparse(SparqlEndpoint.JSON, iThreads)
+        };
+
+        System.out.println(String.format("%-42s %14s %10s %10s", "path", "solutions/s", "MB/s", "peak MB"));
+        try {
+            for (Path path : paths) {
+                long lBest = Long.MAX_VALUE, lBytes = 0, lPeak = 0;
+                try {
+                    for (int iRun = 0; iRun < iRuns; iRun++) {
+                        path.prepare();
+                        resetPeakHeap();
+                        long lBytesBefore = alBytes.get();
+                        long lStart = System.nanoTime();
+                        path.run();
+                        long lTime = System.nanoTime() - lStart;
+                        lPeak = Math.max(lPeak, peakHeap());
+                        if (lTime < lBest) {
+                            lBest = lTime;
+                            lBytes = alBytes.get() - lBytesBefore;
+                        }
+                    }
+                }
+                catch (Exception e) {
+                    System.out.println(String.format("%-42s failed: %s", path.sName, e));
+                    continue;
+                }
+                double dSecs = lBest / 1e9;
+                System.out.println(String.format("%-42s %14.0f %10.1f %10.1f", path.sName, iRows / dSecs,
+                                                 lBytes / dSecs / (1024 * 1024), lPeak / (1024.0 * 1024)));
+            }
+        }
+        finally {
+            File[] fa = fCache.listFiles();
+            if (fa != null)
+                for (File f : fa)
+                    f.delete();
+            fCache.delete();
+        }
+    }
+
+    private Path denseStream(final String sFormat) {
+        return new Path(sFormat + " stream -> ResultsToInstances") {
+            void run() throws Exception {
+                ResultsToInstances.toInstances(SparqlEndpoint.query(sEndpoint, DENSE_QUERY, sFormat));
+            }
+        };
+    }
+
+    private Path sparse(final String sFormat, final int iThreads) {
+        String sName = sFormat + " stream -> SparsePivot " + ((iThreads > 0) ? "unordered x" + iThreads : "ordered");
+        return new Path(sName) {
+            void run() throws Exception {
+                ResultSet rs = SparqlEndpoint.query(sEndpoint, SPARSE_QUERY, sFormat);
+                SparsePivot sp = new SparsePivot("doc", "word", "count", "label");
+                Instances ins = (iThreads > 0) ? sp.pivotUnordered(rs, iThreads) : sp.pivot(rs);
+                if (ins.numInstances() == 0)
+                    throw new IllegalStateException("No instances");
+            }
+        };
+    }
+
+    /**
+     * Collects the garbage and resets the peak usage of the heap pools.
+     */
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                pool.resetPeakUsage();
+    }
+
+    /**
+     * @return The sum of the peak usage of the heap pools since the last
+     *         reset, an upper bound of the peak heap used
+     */
+    private static long peakHeap() {
+        long lPeak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                lPeak += pool.getPeakUsage().getUsed();
+        return lPeak;
+    }
+
+    /**
+     * Scrambles a number into a well distributed pseudo random one.
+     */
+    private static long mix(long l) {
+        l += 0x9E3779B97F4A7C15L;
+        l = (l ^ (l >>> 30)) * 0xBF58476D1CE4E5B9L;
+        l = (l ^ (l >>> 27)) * 0x94D049BB133111EBL;
+        return l ^ (l >>> 31);
+    }
+
+    public static void main(String[] sa) throws IOException {
+        Map<String, String> mapArgs = new HashMap<String, String>();
+        for (String s : sa) {
+            int iEq = s.indexOf('=');
+            if (iEq > 0)
+                mapArgs.put(s.substring(0, iEq), s.substring(iEq + 1));
+        }
+
+        SparqlBenchmark sb = new SparqlBenchmark(intArg(mapArgs, "rows", 200000), intArg(mapArgs, "atts", 8),
+                                                 intArg(mapArgs, "labels", 4), intArg(mapArgs, "vocabulary", 5000),
+                                                 intArg(mapArgs, "terms", 50));
+        String sEndpoint = sb.start();
+        System.out.println("Stub endpoint " + sEndpoint + ", " + sb.iRows + " solutions per query");
+        try {
+            sb.run(intArg(mapArgs, "runs", 3), intArg(mapArgs, "threads", Runtime.getRuntime().availableProcessors()),
+                   intArg(mapArgs, "pageSize", 20000));
+        }
+        finally {
+            sb.stop();
+        }
+    }
+
+    private static int intArg(Map<String, String> mapArgs, String sName, int iDefault) {
+        String s = mapArgs.get(sName);
+        return (s == null) ? iDefault : Integer.parseInt(s.trim());
+    }
+}
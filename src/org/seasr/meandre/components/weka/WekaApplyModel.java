@@ -42,10 +42,20 @@
 
 package org.seasr.meandre.components.weka;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
 import weka.core.Instances;
 import weka.core.Instance;
 import weka.core.Attribute;
 import weka.classifiers.Classifier;
+import weka.classifiers.trees.J48;
 
 import org.meandre.core.ComponentContext;
 import org.meandre.core.ComponentContextException;
@@ -57,6 +67,7 @@ import org.meandre.annotations.ComponentInput;
 import org.meandre.annotations.ComponentOutput;
 import org.meandre.annotations.ComponentProperty;
 import org.meandre.core.ComponentContextProperties;
+import org.seasr.meandre.components.weka.classifiers.trees.FlatJ48Classifier;
 
 
 /**
@@ -94,6 +105,30 @@ public class WekaApplyModel implements ExecutableComponent {
 			name = "Labeled_Data")
 	final static String DATA_OUTPUT = "Labeled_Data";
 
+	@ComponentProperty(
+			description = "Number of threads scoring the instances, each " +
+					"on a contiguous part of the data set. 0 uses one " +
+					"per processor",
+			name = "threads",
+			defaultValue = "1")
+	final static String DATA_PROPERTY_THREADS = "threads";
+
+	@ComponentProperty(
+			description = "Can the threads share the model? (Y/N) If not," +
+					" each thread scores with its own copy of the model",
+			name = "shareModel",
+			defaultValue = "N")
+	final static String DATA_PROPERTY_SHARE_MODEL = "shareModel";
+
+	@ComponentProperty(
+			description = "Score J48 trees flattened into arrays? (Y/N) " +
+					"Faster on large batches; the classes are the ones " +
+					"the tree predicts. Off unless asked for, the tree " +
+					"itself scoring the instances",
+			name = "flattenTrees",
+			defaultValue = "N")
+	final static String DATA_PROPERTY_FLATTEN_TREES = "flattenTrees";
+
 	///////////////
 	//Component Logic
 	///////////////
@@ -107,9 +142,129 @@ public class WekaApplyModel implements ExecutableComponent {
 	public static Instances classifyData(Instances unlabeledData,
 			Classifier model){
 
-		int numInstances = unlabeledData.numInstances();
-		for(int i = 0; i < numInstances; i++){
-			Instance dat = unlabeledData.instance(i);
+		classifyRange(unlabeledData, model, 0, unlabeledData.numInstances());
+		return unlabeledData;
+	}
+
+	/** computes class values for each instance using the model, splitting
+	 * the instances in contiguous parts scored by several threads. Unless
+	 * the model is shared, the first thread uses the model and the others
+	 * a deserialized copy of it. The class values are the same the
+	 * single threaded version gives.
+	 * 
+	 * 	@param unlabeledData a set of weka instances with no class attribute.
+	 *  @param model the classifier
+	 *  @param numThreads the number of threads, 0 for one per processor
+	 *  @param shareModel whether the model can be used by several threads
+	 *  @return the input instances, modified in place.
+	 *  @throws Exception the model cannot be copied
+	 */
+	public static Instances classifyData(Instances unlabeledData,
+			final Classifier model, int numThreads, boolean shareModel)
+			throws Exception {
+
+		final int numInstances = unlabeledData.numInstances();
+		if (numThreads <= 0)
+			numThreads = Runtime.getRuntime().availableProcessors();
+		numThreads = Math.min(numThreads, numInstances);
+		if (numThreads <= 1)
+			return classifyData(unlabeledData, model);
+
+		Classifier[] models = copyModel(model, numThreads, shareModel);
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			return classifyData(unlabeledData, models, pool);
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/** computes class values for each instance, splitting the instances
+	 * in contiguous parts, one per model, scored by the threads of a pool.
+	 * 
+	 * 	@param unlabeledData a set of weka instances with no class attribute.
+	 *  @param models the classifiers, none of them used by two parts at once
+	 *  @param pool the threads scoring the parts
+	 *  @return the input instances, modified in place.
+	 *  @throws Exception a part could not be scored
+	 */
+	static Instances classifyData(Instances unlabeledData,
+			Classifier[] models, ExecutorService pool) throws Exception {
+
+		final int numInstances = unlabeledData.numInstances();
+		final int numParts = Math.min(models.length, numInstances);
+		if (numParts <= 1)
+			return classifyData(unlabeledData, models[0]);
+
+		try {
+			List<Future<Object>> futures = new ArrayList<Future<Object>>(numParts);
+			final Instances data = unlabeledData;
+			for (int t = 0; t < numParts; t++) {
+				final Classifier workerModel = models[t];
+				final int from = (int) ((long) numInstances * t / numParts);
+				final int to = (int) ((long) numInstances * (t + 1) / numParts);
+				futures.add(pool.submit(new Callable<Object>() {
+					public Object call() {
+						classifyRange(data, workerModel, from, to);
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> future : futures)
+				future.get();
+		}
+		catch (ExecutionException e) {
+			throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+		}
+		return unlabeledData;
+	}
+
+	/** gives one model per scoring thread. Unless the model is shared, the
+	 * first thread uses the model and the others a deserialized copy of it.
+	 * 
+	 *  @param model the classifier
+	 *  @param numThreads the number of threads
+	 *  @param shareModel whether the model can be used by several threads
+	 *  @return the models of the threads
+	 *  @throws Exception the model cannot be copied
+	 */
+	static Classifier[] copyModel(Classifier model, int numThreads,
+			boolean shareModel) throws Exception {
+
+		Classifier[] models = new Classifier[Math.max(1, numThreads)];
+		models[0] = model;
+		if (shareModel) {
+			for (int t = 1; t < models.length; t++)
+				models[t] = model;
+		}
+		else if (models.length > 1) {
+			Classifier[] copies = Classifier.makeCopies(model, models.length - 1);
+			System.arraycopy(copies, 0, models, 1, models.length - 1);
+		}
+		return models;
+	}
+
+	/** computes class values for a range of instances.
+	 * 
+	 *  @param data the instances
+	 *  @param model the classifier
+	 *  @param from the first instance
+	 *  @param to the instance after the last one
+	 */
+	private static void classifyRange(Instances data, Classifier model,
+			int from, int to){
+
+		if (model instanceof FlatJ48Classifier) {
+			double[] preds = ((FlatJ48Classifier) model).classifyInstances(
+					data, from, to);
+			for(int i = from; i < to; i++)
+				data.instance(i).setClassValue(preds[i - from]);
+			return;
+		}
+
+		for(int i = from; i < to; i++){
+			Instance dat = data.instance(i);
 			try{
 				double pred = model.classifyInstance(dat);
 				dat.setClassValue(pred);
@@ -117,7 +272,42 @@ public class WekaApplyModel implements ExecutableComponent {
 				dat.setClassValue(Instance.missingValue());
 			}
 		}
-		return unlabeledData;
+	}
+
+	/** flattens a J48 tree into arrays, which score batches of instances
+	 * faster. other models, or trees that cannot be flattened, are
+	 * returned as they are.
+	 * 
+	 *  @param model the classifier
+	 *  @return the flattened tree, or the model
+	 */
+	public static Classifier flattenModel(Classifier model){
+		if (!(model instanceof J48))
+			return model;
+		try {
+			return new FlatJ48Classifier((J48) model);
+		}
+		catch (Exception e) {
+			return model;
+		}
+	}
+
+	/** names the scoring threads of a component and keeps them from
+	 * holding the virtual machine.
+	 */
+	static class ScorerThreadFactory implements ThreadFactory {
+
+		private final String name;
+
+		ScorerThreadFactory(String name) {
+			this.name = name;
+		}
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, name);
+			t.setDaemon(true);
+			return t;
+		}
 	}
 
 
@@ -139,8 +329,17 @@ public class WekaApplyModel implements ExecutableComponent {
 					DATA_INPUT);
 			Classifier model = (Classifier)cc.getDataComponentFromInput(
 					MODEL_INPUT);
+			if (cc.getProperty(DATA_PROPERTY_FLATTEN_TREES).trim()
+					.equalsIgnoreCase("Y"))
+				model = flattenModel(model);
+
+			int numThreads = Integer.parseInt(
+					cc.getProperty(DATA_PROPERTY_THREADS).trim());
+			boolean shareModel = cc.getProperty(
+					DATA_PROPERTY_SHARE_MODEL).trim().equalsIgnoreCase("Y");
 
-			Instances labeledData = classifyData(targetData, model);
+			Instances labeledData = classifyData(targetData, model,
+					numThreads, shareModel);
 			cc.pushDataComponentToOutput(DATA_OUTPUT, labeledData);
 
 		}
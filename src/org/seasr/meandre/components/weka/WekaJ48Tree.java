@@ -47,10 +47,15 @@ import org.meandre.annotations.Component;
 import org.meandre.annotations.ComponentInput;
 import org.meandre.annotations.ComponentOutput;
 import org.meandre.annotations.ComponentProperty;
+import org.seasr.meandre.components.weka.classifiers.ModelRegistry;
+import org.seasr.meandre.components.weka.classifiers.trees.CompiledJ48Classifier;
 import weka.classifiers.Evaluation;
 import weka.classifiers.trees.J48;
 import weka.core.Instances;
 
+import java.io.File;
+import java.io.IOException;
+
 /**
  * This component takes a data set as a Weka instance object as input and builds a Decision Tree model
  * based on weka's J48 implementation.
@@ -78,6 +83,12 @@ public class WekaJ48Tree implements ExecutableComponent {
     @ComponentOutput(description = "classifiedGraph", name = "classifiedGraph")
     final static String DATA_OUTPUT_3 = "classifiedGraph";
 
+    @ComponentOutput(description = "Weka model that classifies with the tree compiled into a class " +
+                                   "the first time it is used, or with the tree itself if no Java " +
+                                   "compiler is available",
+                     name = "compiledModel")
+    final static String DATA_OUTPUT_4 = "compiledModel";
+
 
     @ComponentProperty(description = "Indicates whether the decision tree should be pruned or not, indicate Y or N.",
                        name = "prune", defaultValue = "Y")
@@ -87,6 +98,20 @@ public class WekaJ48Tree implements ExecutableComponent {
                        name = "minPerLeaf", defaultValue = "2")
     final static String PROPERTY_MINPERLEAF = "minPerLeaf";
 
+    @ComponentProperty(description = "Directory keeping the trees built before. A tree built with the same " +
+                                     "options on the same data is loaded instead of built again. Leave empty " +
+                                     "to build every tree.",
+                       name = "modelRegistry", defaultValue = "")
+    final static String PROPERTY_MODEL_REGISTRY = "modelRegistry";
+
+    @ComponentProperty(description = "Maximum size of the model registry in megabytes. The least recently " +
+                                     "used models are evicted first.",
+                       name = "modelRegistrySize", defaultValue = "1024")
+    final static String PROPERTY_MODEL_REGISTRY_SIZE = "modelRegistrySize";
+
+    /** The trees built before, or null if the registry is disabled */
+    private ModelRegistry registry = null;
+
     /*
      @ComponentProperty(description="Indicates the confidence threshold for pruning.",
             name="confidence", defaultValue = ".25" )
@@ -125,8 +150,16 @@ public class WekaJ48Tree implements ExecutableComponent {
      * This method is called when the Menadre Flow execution is completed.
      */
     public void initialize(ComponentContextProperties ccp) {
-        // TODO Auto-generated method stub
-
+        String sRegistry = ccp.getProperty(PROPERTY_MODEL_REGISTRY);
+        if (sRegistry != null && sRegistry.trim().length() > 0) {
+            long lSize = Long.parseLong(ccp.getProperty(PROPERTY_MODEL_REGISTRY_SIZE).trim());
+            try {
+                registry = new ModelRegistry(new File(sRegistry.trim()), lSize * 1024 * 1024);
+            }
+            catch (IOException e) {
+                System.out.println("WekaJ48Tree: Model registry disabled. " + e.getMessage());
+            }
+        }
     }
 
     /**
@@ -184,7 +217,10 @@ public class WekaJ48Tree implements ExecutableComponent {
                    else
                        classifier.setUseLaplace(false);
                    */
-            classifier.buildClassifier(instances);
+            if (registry != null)
+                classifier = registry.build(classifier, instances, System.out);
+            else
+                classifier.buildClassifier(instances);
             System.out.println("\nDecision Tree Model built on complete dataset\n" + classifier.graph());
             
             // evaluate classifier and print some statistics
@@ -199,6 +235,8 @@ public class WekaJ48Tree implements ExecutableComponent {
             System.out.println("s is: " + classifier.toString());
             cc.pushDataComponentToOutput(DATA_OUTPUT_2, s);
             cc.pushDataComponentToOutput(DATA_OUTPUT_3, classifier.graph());
+
+            cc.pushDataComponentToOutput(DATA_OUTPUT_4, new CompiledJ48Classifier(classifier));
             System.out.flush();
         }
         catch (Exception e) {
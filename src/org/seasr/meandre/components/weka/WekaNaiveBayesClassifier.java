@@ -42,6 +42,8 @@
 
 package org.seasr.meandre.components.weka;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -53,6 +55,8 @@ import org.meandre.core.ExecutableComponent;
 import org.meandre.annotations.Component;
 import org.meandre.annotations.ComponentInput;
 import org.meandre.annotations.ComponentOutput;
+import org.meandre.annotations.ComponentProperty;
+import org.seasr.meandre.components.weka.classifiers.ModelRegistry;
 
 import weka.core.Instances;
 import weka.classifiers.bayes.NaiveBayes;
@@ -70,12 +74,30 @@ import org.meandre.core.ComponentContextProperties;
 		tags="weka naive_bayes model", name="WekaNaiveBayesClassifier")
 public class WekaNaiveBayesClassifier implements ExecutableComponent{
 
+	@ComponentProperty(description="Directory keeping the models built before. A model built on"+
+			" the same training set is loaded instead of built again. Leave empty to build"+
+			" every model.", name="modelRegistry", defaultValue="")
+	private static final String PROPERTY_MODEL_REGISTRY="modelRegistry";
+	@ComponentProperty(description="Maximum size of the model registry in megabytes. The least"+
+			" recently used models are evicted first.", name="modelRegistrySize", defaultValue="1024")
+	private static final String PROPERTY_MODEL_REGISTRY_SIZE="modelRegistrySize";
+
+	/** The models built before, or null if the registry is disabled */
+	private ModelRegistry registry = null;
+
     /** This method is called when the Menadre Flow execution is completed.
     *
     */
 	public void initialize(ComponentContextProperties ccp) {
-		// TODO Auto-generated method stub
-
+		String registryDirectory = ccp.getProperty(PROPERTY_MODEL_REGISTRY);
+		if (registryDirectory != null && registryDirectory.trim().length() > 0) {
+			long registrySize = Long.parseLong(ccp.getProperty(PROPERTY_MODEL_REGISTRY_SIZE).trim());
+			try {
+				registry = new ModelRegistry(new File(registryDirectory.trim()), registrySize * 1024 * 1024);
+			} catch (IOException e) {
+				System.out.println("WekaNaiveBayesClassifier: Model registry disabled. " + e.getMessage());
+			}
+		}
 	}
 
     /** This component takes a data set as a Weka instance object as input and builds a Naive Bayes model.
@@ -145,7 +167,10 @@ public class WekaNaiveBayesClassifier implements ExecutableComponent{
 
 
 		try {
-			classifier.buildClassifier(instances);
+			if (registry != null)
+				classifier = registry.build(classifier, instances, System.out);
+			else
+				classifier.buildClassifier(instances);
 			System.out.println("9");
 
 			Evaluation eval = new Evaluation(instances);
@@ -0,0 +1,240 @@
+/**
+ * University of Illinois/NCSA
+ * Open Source License
+ * 
+ * Copyright (c) 2008, Board of Trustees-University of Illinois.  
+ * All rights reserved.
+ * 
+ * Developed by: 
+ * 
+ * Automated Learning Group
+ * National Center for Supercomputing Applications
+ * http://www.seasr.org
+ * 
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal with the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions: 
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimers. 
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimers in the 
+ *    documentation and/or other materials provided with the distribution. 
+ * 
+ *  * Neither the names of Automated Learning Group, The National Center for
+ *    Supercomputing Applications, or University of Illinois, nor the names of
+ *    its contributors may be used to endorse or promote products derived from
+ *    this Software without specific prior written permission. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * WITH THE SOFTWARE.
+ */ 
+
+package org.seasr.meandre.components.weka;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import weka.core.Instances;
+import weka.classifiers.Classifier;
+
+import org.meandre.core.ComponentContext;
+import org.meandre.core.ComponentContextException;
+import org.meandre.core.ComponentExecutionException;
+import org.meandre.core.ExecutableComponent;
+
+import org.meandre.annotations.Component;
+import org.meandre.annotations.ComponentInput;
+import org.meandre.annotations.ComponentOutput;
+import org.meandre.annotations.ComponentProperty;
+import org.meandre.core.ComponentContextProperties;
+
+
+/**
+ * A component that applies an existing weka model to a stream of batches
+ * of unlabeled Instances. The last model received is kept and applied to
+ * every batch that arrives after it, so the model is sent once for the
+ * whole stream. Each batch is labeled in a copy and pushed before the
+ * component returns, in the order the batches arrived. At most
+ * maxWaitingBatches batches wait for the first model.
+ */
+
+@Component(
+		creator = "Peter Groves",
+		description = "Applies a prediction or classification model "+
+				"to a stream of batches of unlabeled instances. The last " +
+				"model received is applied to every batch that follows " +
+				"it. Each batch is labeled in a copy with a new attribute " +
+				"for the predictions filled in, and pushed in the order " +
+				"it arrived.",
+		name = "WekaStreamApplyModel",
+		tags = "weka",
+		firingPolicy = Component.FiringPolicy.any)
+
+public class WekaStreamApplyModel implements ExecutableComponent {
+
+	//////////////////////////////////
+	//Component Meta-data definitions
+	/////////////////////////////////
+
+	@ComponentInput(
+			description = "A batch of unlabeled instances to be classified",
+			name = "Unlabeled_Data")
+	final static String DATA_INPUT = "Unlabeled_Data";
+
+	@ComponentInput(
+			description = "The model applied to the batches that follow it",
+			name = "Classifier")
+	final static String MODEL_INPUT = "Classifier";
+
+	@ComponentOutput(
+			description = "A copy of each batch with classes determined by " +
+					"the model",
+			name = "Labeled_Data")
+	final static String DATA_OUTPUT = "Labeled_Data";
+
+	@ComponentProperty(
+			description = "Number of threads scoring each batch, each " +
+					"on a contiguous part of it. 0 uses one per processor",
+			name = "threads",
+			defaultValue = "1")
+	final static String DATA_PROPERTY_THREADS = "threads";
+
+	@ComponentProperty(
+			description = "Can the threads share the model? (Y/N) If not," +
+					" each thread scores with its own copy of the model",
+			name = "shareModel",
+			defaultValue = "N")
+	final static String DATA_PROPERTY_SHARE_MODEL = "shareModel";
+
+	@ComponentProperty(
+			description = "Score J48 trees flattened into arrays? (Y/N) " +
+					"Faster on large batches; the classes are the ones " +
+					"the tree predicts. Off unless asked for, the tree " +
+					"itself scoring the instances",
+			name = "flattenTrees",
+			defaultValue = "N")
+	final static String DATA_PROPERTY_FLATTEN_TREES = "flattenTrees";
+
+	@ComponentProperty(
+			description = "The most batches kept while waiting for the " +
+					"first model. A batch beyond them fails the component; " +
+					"0 requires the model to arrive before any batch",
+			name = "maxWaitingBatches",
+			defaultValue = "16")
+	final static String DATA_PROPERTY_MAX_WAITING_BATCHES = "maxWaitingBatches";
+
+	/////////////////
+	//Component State
+	/////////////////
+
+	/** the models of the scoring threads, copied from the last model
+	 * received, or null */
+	private Classifier[] models = null;
+
+	/** the threads scoring the parts of a batch, kept across batches */
+	private ExecutorService scorers = null;
+
+	/** the batches received before the first model, at most
+	 * maxWaitingBatches of them */
+	private List<Instances> waitingData = new ArrayList<Instances>();
+
+	/////////////////////
+	//Meandre Interfaces
+	//////////////////////
+
+	/** When ready for execution.
+	 *
+	 * @param cc The component context
+	 * @throws ComponentExecutionException An exeception occurred during execution
+	 * @throws ComponentContextException Illigal access to context
+	 */
+	public void execute(ComponentContext cc)
+			throws ComponentExecutionException, ComponentContextException {
+		try {
+
+			if (cc.isInputAvailable(MODEL_INPUT)) {
+				Classifier model = (Classifier)cc.getDataComponentFromInput(
+						MODEL_INPUT);
+				if (cc.getProperty(DATA_PROPERTY_FLATTEN_TREES).trim()
+						.equalsIgnoreCase("Y"))
+					model = WekaApplyModel.flattenModel(model);
+
+				int numThreads = Integer.parseInt(
+						cc.getProperty(DATA_PROPERTY_THREADS).trim());
+				if (numThreads <= 0)
+					numThreads = Runtime.getRuntime().availableProcessors();
+				boolean shareModel = cc.getProperty(
+						DATA_PROPERTY_SHARE_MODEL).trim().equalsIgnoreCase("Y");
+				models = WekaApplyModel.copyModel(model, numThreads,
+						shareModel);
+				if (scorers == null && numThreads > 1)
+					scorers = Executors.newFixedThreadPool(numThreads,
+							new WekaApplyModel.ScorerThreadFactory(
+									"WekaStreamApplyModel scorer"));
+			}
+			if (cc.isInputAvailable(DATA_INPUT)) {
+				Instances batch = (Instances)cc.getDataComponentFromInput(
+						DATA_INPUT);
+				int maxWaiting = Integer.parseInt(cc.getProperty(
+						DATA_PROPERTY_MAX_WAITING_BATCHES).trim());
+				if (models == null && waitingData.size() >= maxWaiting)
+					throw new ComponentExecutionException("More than " +
+							maxWaiting + " batches arrived before the " +
+							"first model; send the model first or raise " +
+							DATA_PROPERTY_MAX_WAITING_BATCHES);
+				waitingData.add(batch);
+			}
+			if (models == null)
+				return;
+
+			while (!waitingData.isEmpty()) {
+				// the copy shares the values of the batch until a class
+				// value is set, so the batch itself is left unchanged
+				Instances labeledData = new Instances(waitingData.remove(0));
+				if (scorers == null)
+					WekaApplyModel.classifyData(labeledData, models[0]);
+				else
+					WekaApplyModel.classifyData(labeledData, models, scorers);
+				cc.pushDataComponentToOutput(DATA_OUTPUT, labeledData);
+			}
+
+		}
+		catch ( ComponentExecutionException e ) {
+			throw e;
+		}
+		catch ( Exception e ) {
+			throw new ComponentExecutionException(e);
+		}
+
+	}
+
+	/** Called when a flow is started.
+	 */
+	public void initialize(ComponentContextProperties ccp) {	}
+
+
+	/** Call at the end of an execution flow. Every batch received after a
+	 * model was already pushed, so the scoring threads are idle.
+	 */
+	public void dispose(ComponentContextProperties ccp) {
+		if (scorers != null)
+			scorers.shutdownNow();
+		scorers = null;
+		models = null;
+		waitingData.clear();
+	}
+
+}
@@ -0,0 +1,301 @@
+/**
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ * 
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ * 
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ */
+
+package org.seasr.meandre.components.weka.classifiers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.seasr.meandre.components.weka.io.DiskCache;
+
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+
+/**
+ * <p>
+ * Title: Model Registry
+ * </p>
+ *
+ * <p>
+ * Description: A directory of trained models, so a learner given the same
+ * options and training data as in a previous run loads the model it built
+ * then instead of training again. A model is stored under a fingerprint of
+ * the learner class, its options and the training data: the header, the
+ * class index and the weight and values of every instance. The models are
+ * kept serialized in a disk cache bounded in size, and the least recently
+ * used ones are evicted first.
+ * </p>
+ *
+ * <p>
+ * Copyright: Copyright (c) 2008
+ * </p>
+ *
+ * <p>
+ * Company: Automated Learning Group, NCSA
+ * </p>
+ *
+ * @version 1.0
+ */
+public class ModelRegistry {
+
+    /** The age in milliseconds of the abandoned temporary files to delete */
+    private static final long TEMP_FILE_AGE = 24L * 60 * 60 * 1000;
+
+    /** The serialized models */
+    private final DiskCache cache;
+
+    /**
+     * Opens a registry directory, creating it if needed.
+     *
+     * @param directory The registry directory
+     * @param maxBytes The maximum number of bytes held by the models
+     * @throws IOException The directory cannot be created
+     */
+    public ModelRegistry(File directory, long maxBytes) throws IOException {
+        this.cache = new DiskCache(directory, maxBytes);
+        cache.purgeTempFiles(TEMP_FILE_AGE);
+    }
+
+    /**
+     * Returns the model stored for a learner and its training data, or
+     * builds the learner on the data and stores it.
+     *
+     * @param learner The learner, with its options set
+     * @param data The training data
+     * @param log Where to say whether the model was loaded or built
+     * @return The stored model, or the learner once built
+     * @throws Exception The learner cannot be built
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Classifier> T build(T learner, Instances data, PrintStream log)
+            throws Exception {
+        String key = fingerprint(learner, data);
+        Classifier stored = get(key);
+        if (stored != null && stored.getClass() == learner.getClass()) {
+            log.println("Loaded the " + learner.getClass().getName() +
+                        " model from the registry (" + key + ")");
+            return (T) stored;
+        }
+
+        learner.buildClassifier(data);
+        try {
+            put(key, learner);
+            log.println("Stored the " + learner.getClass().getName() +
+                        " model in the registry (" + key + ")");
+        }
+        catch (IOException e) {
+            log.println("The model could not be stored in the registry: " + e.getMessage());
+        }
+        return learner;
+    }
+
+    /**
+     * Returns the model stored under a fingerprint. A model that cannot be
+     * read back, for instance one saved by another version of Weka, is
+     * removed.
+     *
+     * @param key The fingerprint
+     * @return The model, or null if there is none
+     */
+    public Classifier get(String key) {
+        File entry = cache.get(key);
+        if (entry == null)
+            return null;
+        try {
+            ObjectInputStream in = new ObjectInputStream(
+                    new BufferedInputStream(new FileInputStream(entry)));
+            try {
+                return (Classifier) in.readObject();
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (Exception e) {
+            cache.remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a model under a fingerprint.
+     *
+     * @param key The fingerprint
+     * @param model The trained model
+     * @throws IOException The model cannot be written
+     */
+    public void put(String key, Classifier model) throws IOException {
+        File temp = cache.createTempFile();
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeObject(model);
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        cache.put(key, temp);
+    }
+
+    /**
+     * Fingerprints a learner and its training data.
+     *
+     * @param learner The learner, with its options set
+     * @param data The training data
+     * @return The hexadecimal SHA-1 digest identifying the model
+     */
+    public static String fingerprint(Classifier learner, Instances data) {
+        return DiskCache.key(learner.getClass().getName(),
+                             Utils.joinOptions(learner.getOptions()),
+                             fingerprint(data));
+    }
+
+    /**
+     * Fingerprints a data set: its header, class index and the weight and
+     * values of its instances. String values are hashed as text, since the
+     * header does not list them. Sparse instances are hashed by the values
+     * they store, so the work grows with those and not with the number of
+     * attributes.
+     *
+     * @param data The data set
+     * @return The hexadecimal SHA-1 digest of the data set
+     */
+    public static String fingerprint(Instances data) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new DigestOutputStream(new NullOutputStream(), md)));
+        try {
+            writeString(out, new Instances(data, 0).toString());
+            out.writeInt(data.classIndex());
+
+            int iNumAtts = data.numAttributes();
+            boolean[] baString = new boolean[iNumAtts];
+            for (int i = 0; i < iNumAtts; i++) {
+                Attribute att = data.attribute(i);
+                baString[i] = att.isString();
+            }
+
+            int iNumIns = data.numInstances();
+            out.writeInt(iNumIns);
+            for (int j = 0; j < iNumIns; j++) {
+                Instance ins = data.instance(j);
+                out.writeDouble(ins.weight());
+                if (ins instanceof SparseInstance) {
+                    // Only the values stored, looking none up
+                    int iNumValues = ins.numValues();
+                    out.writeInt(iNumValues);
+                    for (int k = 0; k < iNumValues; k++) {
+                        int i = ins.index(k);
+                        out.writeInt(i);
+                        double d = ins.valueSparse(k);
+                        if (baString[i] && !Instance.isMissingValue(d))
+                            writeString(out, data.attribute(i).value((int) d));
+                        else
+                            out.writeLong(Double.doubleToLongBits(d));
+                    }
+                    continue;
+                }
+                for (int i = 0; i < iNumAtts; i++) {
+                    if (baString[i] && !ins.isMissing(i))
+                        writeString(out, ins.stringValue(i));
+                    else
+                        out.writeLong(Double.doubleToLongBits(ins.value(i)));
+                }
+            }
+            out.close();
+        }
+        catch (IOException e) {
+            // Nothing is written anywhere but the digest
+            throw new RuntimeException(e);
+        }
+        return String.format("%040x", new BigInteger(1, md.digest()));
+    }
+
+    /**
+     * Writes a string of any length as its UTF-8 bytes, after their count.
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] ba = s.getBytes("UTF-8");
+        out.writeInt(ba.length);
+        out.write(ba);
+    }
+
+    /**
+     * Discards what is written to it.
+     */
+    private static class NullOutputStream extends OutputStream {
+
+        public void write(int b) {
+        }
+
+        public void write(byte[] ba, int iOff, int iLen) {
+        }
+    }
+}
@@ -42,12 +42,15 @@
 
 package org.seasr.meandre.components.weka.classifiers.functions;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Random;
 
 import org.meandre.core.ComponentContext;
 import org.meandre.core.ComponentContextException;
 import org.meandre.core.ComponentExecutionException;
 import org.meandre.core.ExecutableComponent;
+import org.seasr.meandre.components.weka.classifiers.ModelRegistry;
 
 import weka.classifiers.Evaluation;
 import weka.classifiers.functions.SMO;
@@ -88,6 +91,18 @@ import org.meandre.core.ComponentContextProperties;
 	@ComponentProperty(description="Indicates the exponent for the polynomial kernel.",
 			name="minPerLeaf", defaultValue = "1" )
 			final static String PROPERTY_EXPONENT ="exponent";
+	@ComponentProperty(description="Directory keeping the models built before. A model built with the"+
+			" same options on the same data is loaded instead of built again. Leave empty to build"+
+			" every model.",
+			name="modelRegistry", defaultValue = "" )
+			final static String PROPERTY_MODEL_REGISTRY ="modelRegistry";
+	@ComponentProperty(description="Maximum size of the model registry in megabytes. The least"+
+			" recently used models are evicted first.",
+			name="modelRegistrySize", defaultValue = "1024" )
+			final static String PROPERTY_MODEL_REGISTRY_SIZE ="modelRegistrySize";
+
+	/** The models built before, or null if the registry is disabled */
+	private ModelRegistry registry = null;
 
 	//Valid options are:
 	// -C num	The complexity constant C. (default 1)
@@ -106,8 +121,15 @@ import org.meandre.core.ComponentContextProperties;
 	 *
 	 */
 	public void initialize(ComponentContextProperties ccp) {
-		// TODO Auto-generated method stub
-
+		String registryDirectory = ccp.getProperty(PROPERTY_MODEL_REGISTRY);
+		if (registryDirectory != null && registryDirectory.trim().length() > 0) {
+			long registrySize = Long.parseLong(ccp.getProperty(PROPERTY_MODEL_REGISTRY_SIZE).trim());
+			try {
+				registry = new ModelRegistry(new File(registryDirectory.trim()), registrySize * 1024 * 1024);
+			} catch (IOException e) {
+				System.out.println("WekaSMO: Model registry disabled. " + e.getMessage());
+			}
+		}
 	}
 
 	/** This component takes a data set a Weka instance object as input and builds a model
@@ -142,7 +164,10 @@ import org.meandre.core.ComponentContextProperties;
 			classifier.setMinNumObj(minPerLeaf);
 			 */
 
-			classifier.buildClassifier(instances);
+			if (registry != null)
+				classifier = registry.build(classifier, instances, System.out);
+			else
+				classifier.buildClassifier(instances);
 			System.out.println("\nModel built on complete dataset\n");
 			// evaluate classifier and print some statistics
 			System.out.println("\nApplying the Model built on complete dataset\n");
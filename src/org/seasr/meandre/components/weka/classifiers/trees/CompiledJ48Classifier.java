@@ -0,0 +1,531 @@
+/**
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ * 
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ * 
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ */
+
+package org.seasr.meandre.components.weka.classifiers.trees;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.J48;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * <p>
+ * Title: Compiled J48 Classifier
+ * </p>
+ *
+ * <p>
+ * Description: A J48 decision tree compiled into a class at runtime. The
+ * tree is flattened into a FlatJ48Classifier, and Java source testing the
+ * nodes as nested comparisons is written from its arrays and compiled in
+ * memory with the system Java compiler. The compiled class implements the
+ * Tree interface, so classifying an instance reads only the values on its
+ * path, as doubles, and calls the class directly. The tests are the ones
+ * of the tree: numeric values within the tolerance of weka.core.Utils of a
+ * threshold go left, and nominal values select their branch by index. The
+ * tests are split among methods so none approaches the size limit of the
+ * class file format. An instance missing a tested value is classified by
+ * the flattened tree from that node down, since the tree weighs every
+ * branch, and so are the class distributions. The tree is compiled the
+ * first time it classifies an instance. When no compiler is available, as
+ * on a plain runtime, or the source does not compile, the flattened tree
+ * classifies every instance itself.
+ * </p>
+ *
+ * <p>
+ * Copyright: Copyright (c) 2008
+ * </p>
+ *
+ * <p>
+ * Company: Automated Learning Group, NCSA
+ * </p>
+ *
+ * @version 1.0
+ */
+public class CompiledJ48Classifier extends Classifier {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The name of the compiled classes. Every tree is loaded by a class
+     * loader of its own, so the copies of a tree write the same source
+     */
+    private static final String CLASS_NAME = "CompiledJ48";
+
+    /**
+     * The branches written into one method of the compiled classes. A
+     * branch takes a few dozen bytes of bytecode, so a method stays far
+     * below the 64 KB it can hold, and below the 8000 bytes HotSpot
+     * compiles at most
+     */
+    private static final int BRANCHES_PER_METHOD = 32;
+
+    /** The deepest nesting of the tests written into one method */
+    private static final int MAX_DEPTH = 24;
+
+    /**
+     * The methods written into one class, keeping the constants of a class
+     * well below the 65535 its constant pool can hold
+     */
+    private static final int METHODS_PER_CLASS = 256;
+
+    /**
+     * The classes compiled in this virtual machine, by source, so the copies
+     * of a classifier do not compile the tree again. A class is dropped once
+     * the classifier it was compiled for is gone
+     */
+    private static final Map<String, Tree> compiledTrees =
+        Collections.synchronizedMap(new WeakHashMap<String, Tree>());
+
+    /**
+     * A tree compiled into a class.
+     */
+    public interface Tree {
+
+        /**
+         * Classifies an instance by the tests on its path.
+         *
+         * @param instance The instance
+         * @return The index of the predicted class, NaN if a value was not
+         *         seen in training, or -(n + 1) if the value node n tests is
+         *         missing
+         */
+        double classify(Instance instance);
+    }
+
+    /** The tree */
+    private J48 tree;
+
+    /** The flattened tree, or null if it cannot be flattened */
+    private transient FlatJ48Classifier flat;
+
+    /** The source of the compiled classes, keeping them registered */
+    private transient String source;
+
+    /** The compiled class, or null */
+    private transient Tree compiled;
+
+    /** Whether the tree was flattened and compiled since it was built */
+    private transient volatile boolean resolved;
+
+    /** The reason the tree was not compiled, or null */
+    private transient String failure;
+
+    /**
+     * Creates a classifier that builds a J48 tree with the default options.
+     */
+    public CompiledJ48Classifier() {
+        this(new J48());
+    }
+
+    /**
+     * Creates a classifier around a J48 tree, compiled the first time it
+     * classifies an instance.
+     *
+     * @param tree The tree
+     */
+    public CompiledJ48Classifier(J48 tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * Builds the tree, to be compiled the first time it classifies an
+     * instance.
+     *
+     * @param data The training instances
+     * @throws Exception The tree cannot be built
+     */
+    public synchronized void buildClassifier(Instances data) throws Exception {
+        tree.buildClassifier(data);
+        resolved = false;
+    }
+
+    /**
+     * Classifies an instance with the compiled tree. An instance missing a
+     * tested value is classified by the flattened tree from the node testing
+     * it.
+     *
+     * @param instance The instance
+     * @return The index of the predicted class
+     * @throws Exception The instance cannot be classified
+     */
+    public double classifyInstance(Instance instance) throws Exception {
+        if (!resolved)
+            resolve();
+        if (compiled == null)
+            return (flat != null) ? flat.classifyInstance(instance) : tree.classifyInstance(instance);
+
+        double dClass = compiled.classify(instance);
+        if (dClass < 0)
+            return flat.classifyWeighted(instance, (int) -dClass - 1);
+        return dClass;
+    }
+
+    /**
+     * @param instance The instance
+     * @return The class distribution the tree predicts
+     * @throws Exception The instance cannot be classified
+     */
+    public double[] distributionForInstance(Instance instance) throws Exception {
+        if (!resolved)
+            resolve();
+        return (flat != null) ? flat.distributionForInstance(instance) : tree.distributionForInstance(instance);
+    }
+
+    /**
+     * @return The tree
+     */
+    public J48 getTree() {
+        return tree;
+    }
+
+    /**
+     * @return Whether the instances are classified by the compiled class
+     */
+    public boolean isCompiled() {
+        if (!resolved)
+            resolve();
+        return compiled != null;
+    }
+
+    /**
+     * @return Why the tree classifies the instances itself, or null if it is
+     *         compiled
+     */
+    public String getFailure() {
+        if (!resolved)
+            resolve();
+        return failure;
+    }
+
+    public String toString() {
+        return tree.toString();
+    }
+
+    /**
+     * Flattens the tree and looks up its compiled class, writing its source
+     * and compiling it if this virtual machine has not compiled it yet.
+     */
+    private synchronized void resolve() {
+        if (resolved)
+            return;
+        flat = null;
+        compiled = null;
+        failure = null;
+        try {
+            flat = new FlatJ48Classifier(tree);
+            Map<String, String> mapSources = toSource(flat, CLASS_NAME);
+            StringBuilder sb = new StringBuilder();
+            for (String sSource : mapSources.values())
+                sb.append(sSource);
+            source = sb.toString();
+
+            // The copies of a tree made for several threads compile it once
+            synchronized (compiledTrees) {
+                compiled = compiledTrees.get(source);
+                if (compiled == null) {
+                    compiled = compileSource(CLASS_NAME, mapSources);
+                    compiledTrees.put(source, compiled);
+                }
+            }
+        }
+        catch (Exception e) {
+            failure = e.getMessage();
+        }
+        resolved = true;
+    }
+
+    /**
+     * Writes the source of the classes of a flattened tree, the first one
+     * implementing Tree. Each method tests a subtree and calls the methods
+     * of the subtrees below it once it holds enough branches or is nested
+     * deep enough, and the methods are spread over as many classes as they
+     * need.
+     *
+     * @param flat The flattened tree
+     * @param sName The name of the class implementing Tree
+     * @return The source of each class, by name
+     */
+    static Map<String, String> toSource(FlatJ48Classifier flat, String sName) {
+        Map<String, String> mapSources = new LinkedHashMap<String, String>();
+        List<Integer> lstMethods = new ArrayList<Integer>();
+        lstMethods.add(Integer.valueOf(0));
+        for (int m = 0; m < lstMethods.size(); m += METHODS_PER_CLASS) {
+            String sClass = className(sName, m);
+            StringBuilder sb = new StringBuilder();
+            sb.append("import weka.core.Instance;\n\n");
+            if (m == 0) {
+                sb.append("public class ").append(sClass).append(" implements ")
+                  .append(Tree.class.getName().replace('$', '.')).append(" {\n\n");
+                sb.append("    public double classify(Instance i) {\n");
+                sb.append("        return n0(i);\n");
+                sb.append("    }\n");
+            }
+            else
+                sb.append("class ").append(sClass).append(" {\n");
+
+            // The methods of the subtrees found meanwhile go to later classes
+            for (int k = m; k < m + METHODS_PER_CLASS && k < lstMethods.size(); k++) {
+                int n = lstMethods.get(k).intValue();
+                sb.append("\n    static double n").append(n).append("(Instance i) {\n");
+                sb.append("        double v;\n");
+                writeNode(sb, flat, n, 2, new int[1], sName, lstMethods);
+                sb.append("    }\n");
+            }
+            sb.append("}\n");
+            mapSources.put(sClass, sb.toString());
+        }
+        return mapSources;
+    }
+
+    /**
+     * @return The name of the class holding a method
+     */
+    private static String className(String sName, int iMethod) {
+        int iClass = iMethod / METHODS_PER_CLASS;
+        return (iClass == 0) ? sName : sName + "_" + iClass;
+    }
+
+    /**
+     * Writes the test of a node and of its children, or a call to the
+     * method of the node once the method is full.
+     */
+    private static void writeNode(StringBuilder sb, FlatJ48Classifier flat, int n, int iDepth,
+                                  int[] iaBranches, String sName, List<Integer> lstMethods) {
+        String sIndent = indent(iDepth);
+        if (flat.kind[n] == FlatJ48Classifier.LEAF) {
+            sb.append(sIndent).append("return ").append(flat.maxIndex(flat.probs, flat.child[n])).append(";\n");
+            return;
+        }
+        if (iaBranches[0] >= BRANCHES_PER_METHOD || iDepth > MAX_DEPTH) {
+            sb.append(sIndent).append("return ").append(className(sName, lstMethods.size()))
+              .append(".n").append(n).append("(i);\n");
+            lstMethods.add(Integer.valueOf(n));
+            return;
+        }
+        iaBranches[0] += flat.numChildren[n];
+
+        int iChild = flat.child[n];
+        sb.append(sIndent).append("v = i.value(").append(flat.attribute[n]).append(");\n");
+        sb.append(sIndent).append("if (Instance.isMissingValue(v))\n");
+        sb.append(sIndent).append("    return ").append(-(n + 1)).append(";\n");
+        switch (flat.kind[n]) {
+            case FlatJ48Classifier.NUMERIC:
+                sb.append(sIndent).append("if (v - ").append(literal(flat.threshold[n])).append(" < ")
+                  .append(FlatJ48Classifier.SMALL).append(") {\n");
+                writeNode(sb, flat, iChild, iDepth + 1, iaBranches, sName, lstMethods);
+                sb.append(sIndent).append("} else {\n");
+                writeNode(sb, flat, iChild + 1, iDepth + 1, iaBranches, sName, lstMethods);
+                sb.append(sIndent).append("}\n");
+                break;
+            case FlatJ48Classifier.BINARY_NOMINAL:
+                sb.append(sIndent).append("if (v == ").append(literal(flat.threshold[n])).append(") {\n");
+                writeNode(sb, flat, iChild, iDepth + 1, iaBranches, sName, lstMethods);
+                sb.append(sIndent).append("} else {\n");
+                writeNode(sb, flat, iChild + 1, iDepth + 1, iaBranches, sName, lstMethods);
+                sb.append(sIndent).append("}\n");
+                break;
+            default:
+                sb.append(sIndent).append("switch ((int) v) {\n");
+                for (int s = 0; s < flat.numChildren[n]; s++) {
+                    sb.append(sIndent).append("case ").append(s).append(":\n");
+                    writeNode(sb, flat, iChild + s, iDepth + 1, iaBranches, sName, lstMethods);
+                }
+                sb.append(sIndent).append("default:\n");
+                sb.append(sIndent).append("    return Double.NaN;\n");
+                sb.append(sIndent).append("}\n");
+        }
+    }
+
+    /**
+     * @return A double as a Java literal
+     */
+    private static String literal(double d) {
+        if (Double.isNaN(d))
+            return "Double.NaN";
+        if (Double.isInfinite(d))
+            return (d > 0) ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+        return Double.toString(d);
+    }
+
+    private static String indent(int iDepth) {
+        char[] ca = new char[4 * iDepth];
+        Arrays.fill(ca, ' ');
+        return new String(ca);
+    }
+
+    /**
+     * Compiles the source of some classes in memory and loads them.
+     *
+     * @param sName The name of the class implementing Tree
+     * @param mapSources The source of each class, by name
+     * @return An instance of the class implementing Tree
+     * @throws Exception No compiler is available or the source does not
+     *                   compile
+     */
+    private static Tree compileSource(String sName, Map<String, String> mapSources) throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            throw new Exception("No Java compiler is available");
+
+        final Map<String, ByteArrayOutputStream> classes = new HashMap<String, ByteArrayOutputStream>();
+        StandardJavaFileManager fm = compiler.getStandardFileManager(null, null, null);
+        ForwardingJavaFileManager<StandardJavaFileManager> memory =
+            new ForwardingJavaFileManager<StandardJavaFileManager>(fm) {
+                public JavaFileObject getJavaFileForOutput(Location location, String sClass,
+                                                           JavaFileObject.Kind kind, FileObject sibling) {
+                    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    classes.put(sClass, baos);
+                    return new SimpleJavaFileObject(URI.create("mem:///" + sClass.replace('.', '/') +
+                                                               kind.extension), kind) {
+                        public OutputStream openOutputStream() {
+                            return baos;
+                        }
+                    };
+                }
+            };
+
+        List<JavaFileObject> lstSources = new ArrayList<JavaFileObject>();
+        for (Map.Entry<String, String> e : mapSources.entrySet())
+            lstSources.add(new SourceFile(e.getKey(), e.getValue()));
+        StringWriter errors = new StringWriter();
+        boolean bOk;
+        try {
+            bOk = compiler.getTask(errors, memory, null,
+                                   Arrays.asList("-g:none", "-nowarn", "-classpath", classPath()),
+                                   null, lstSources).call().booleanValue();
+        }
+        finally {
+            try {
+                memory.close();
+            }
+            catch (IOException e) {
+                // Nothing was written to disk
+            }
+        }
+        if (!bOk)
+            throw new Exception("The tree source does not compile: " + errors);
+
+        final Map<String, byte[]> bytecode = new HashMap<String, byte[]>();
+        for (Map.Entry<String, ByteArrayOutputStream> e : classes.entrySet())
+            bytecode.put(e.getKey(), e.getValue().toByteArray());
+        ClassLoader loader = new ClassLoader(CompiledJ48Classifier.class.getClassLoader()) {
+            protected Class<?> findClass(String sClass) throws ClassNotFoundException {
+                byte[] ba = bytecode.get(sClass);
+                if (ba == null)
+                    throw new ClassNotFoundException(sClass);
+                return defineClass(sClass, ba, 0, ba.length);
+            }
+        };
+        return loader.loadClass(sName).asSubclass(Tree.class).getConstructor().newInstance();
+    }
+
+    /**
+     * @return The class path the compiled class needs, Weka and this class,
+     *         which may have been loaded from elsewhere than the class path
+     *         of the virtual machine
+     */
+    private static String classPath() {
+        Set<String> setPaths = new LinkedHashSet<String>();
+        for (Class<?> cls : new Class<?>[] { Instance.class, Tree.class }) {
+            CodeSource cs = cls.getProtectionDomain().getCodeSource();
+            URL url = (cs == null) ? null : cs.getLocation();
+            if (url == null)
+                continue;
+            try {
+                setPaths.add(new File(url.toURI()).getPath());
+            }
+            catch (Exception e) {
+                // Not a file, left to the class path of the virtual machine
+            }
+        }
+        setPaths.add(System.getProperty("java.class.path"));
+        StringBuilder sb = new StringBuilder();
+        for (String sPath : setPaths) {
+            if (sb.length() > 0)
+                sb.append(File.pathSeparatorChar);
+            sb.append(sPath);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The source of a class, held in memory.
+     */
+    private static class SourceFile extends SimpleJavaFileObject {
+
+        private final String sSource;
+
+        SourceFile(String sName, String sSource) {
+            super(URI.create("string:///" + sName + Kind.SOURCE.extension), Kind.SOURCE);
+            this.sSource = sSource;
+        }
+
+        public CharSequence getCharContent(boolean bIgnoreEncodingErrors) {
+            return sSource;
+        }
+    }
+}
@@ -0,0 +1,427 @@
+/**
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ * 
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ * 
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ */
+
+package org.seasr.meandre.components.weka.classifiers.trees;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.J48;
+import weka.classifiers.trees.j48.BinC45Split;
+import weka.classifiers.trees.j48.C45Split;
+import weka.classifiers.trees.j48.ClassifierSplitModel;
+import weka.classifiers.trees.j48.ClassifierTree;
+import weka.classifiers.trees.j48.Distribution;
+import weka.classifiers.trees.j48.NoSplit;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * <p>
+ * Title: Flat J48 Classifier
+ * </p>
+ *
+ * <p>
+ * Description: A J48 decision tree flattened into arrays. The nodes are
+ * numbered level by level, so the children of a node are contiguous, and
+ * each array holds one property of every node: the test, the attribute and
+ * threshold tested, the first child and the weight of the node within its
+ * parent, used when the tested value is missing. The class probabilities of
+ * the leaves are packed in one array. The predictions and distributions are
+ * the ones the tree gives, but scoring touches a few primitive arrays
+ * instead of a graph of tree, split and distribution objects, and a batch of
+ * instances is scored one level at a time.
+ * </p>
+ *
+ * <p>
+ * Copyright: Copyright (c) 2008
+ * </p>
+ *
+ * <p>
+ * Company: Automated Learning Group, NCSA
+ * </p>
+ *
+ * @version 1.0
+ */
+public class FlatJ48Classifier extends Classifier {
+
+    private static final long serialVersionUID = 1L;
+
+    /** A leaf, its first child is the offset of its class probabilities */
+    static final byte LEAF = 0;
+
+    /** A numeric test, the first child if the value is at most the threshold */
+    static final byte NUMERIC = 1;
+
+    /** A nominal test with one child per value */
+    static final byte NOMINAL = 2;
+
+    /** A nominal test, the first child if the value is the threshold */
+    static final byte BINARY_NOMINAL = 3;
+
+    /** The tolerance of the numeric comparisons, as in weka.core.Utils */
+    static final double SMALL = 1e-6;
+
+    /** The test of each node */
+    byte[] kind;
+
+    /** The attribute each node tests */
+    int[] attribute;
+
+    /** The threshold or value each node tests */
+    double[] threshold;
+
+    /** The first child of each node, or the probabilities of a leaf */
+    int[] child;
+
+    /** The number of children of each node */
+    int[] numChildren;
+
+    /** The weight of each node within its parent when a value is missing */
+    private double[] weight;
+
+    /** The class probabilities of the leaves */
+    double[] probs;
+
+    /** The Laplace class probabilities of the leaves, or null */
+    private double[] laplaceProbs;
+
+    /** The number of classes */
+    private int numClasses;
+
+    /**
+     * Creates a classifier that builds a J48 tree with the default options.
+     */
+    public FlatJ48Classifier() {
+    }
+
+    /**
+     * Flattens a built J48 tree.
+     *
+     * @param tree The tree
+     * @throws Exception The tree is not built or has a split this class
+     *                   does not know
+     */
+    public FlatJ48Classifier(J48 tree) throws Exception {
+        flatten(tree);
+    }
+
+    /**
+     * Builds a J48 tree with the default options and flattens it.
+     *
+     * @param data The training instances
+     * @throws Exception The tree cannot be built
+     */
+    public void buildClassifier(Instances data) throws Exception {
+        J48 tree = new J48();
+        tree.buildClassifier(data);
+        flatten(tree);
+    }
+
+    /**
+     * @param instance The instance
+     * @return The index of the predicted class
+     */
+    public double classifyInstance(Instance instance) {
+        int n = 0;
+        while (kind[n] != LEAF) {
+            double v = instance.value(attribute[n]);
+            if (Instance.isMissingValue(v))
+                return classifyWeighted(instance, n);
+            int iBranch = branch(n, v);
+            if (iBranch < 0)
+                return Instance.missingValue();
+            n = child[n] + iBranch;
+        }
+        return maxIndex(probs, child[n]);
+    }
+
+    /**
+     * Classifies a range of instances, moving all of them one level down
+     * the tree at a time. An instance that cannot be classified, such as one
+     * with a missing value above a value not seen in training, gets a missing
+     * class without stopping the others, as classifying them one at a time
+     * gives.
+     *
+     * @param data The instances
+     * @param from The first instance
+     * @param to The instance after the last one
+     * @return The index of the predicted class of each instance
+     */
+    public double[] classifyInstances(Instances data, int from, int to) {
+        int iCount = to - from;
+        double[] daClasses = new double[iCount];
+        int[] iaNode = new int[iCount];
+        int[] iaActive = new int[iCount];
+        for (int k = 0; k < iCount; k++)
+            iaActive[k] = k;
+
+        int iNumActive = iCount;
+        while (iNumActive > 0) {
+            int iNext = 0;
+            for (int a = 0; a < iNumActive; a++) {
+                int k = iaActive[a];
+                int n = iaNode[k];
+                if (kind[n] == LEAF) {
+                    daClasses[k] = maxIndex(probs, child[n]);
+                    continue;
+                }
+                int iBranch;
+                try {
+                    Instance instance = data.instance(from + k);
+                    double v = instance.value(attribute[n]);
+                    if (Instance.isMissingValue(v)) {
+                        daClasses[k] = classifyWeighted(instance, n);
+                        continue;
+                    }
+                    iBranch = branch(n, v);
+                }
+                catch (RuntimeException e) {
+                    daClasses[k] = Instance.missingValue();
+                    continue;
+                }
+                if (iBranch < 0) {
+                    daClasses[k] = Instance.missingValue();
+                    continue;
+                }
+                iaNode[k] = child[n] + iBranch;
+                iaActive[iNext++] = k;
+            }
+            iNumActive = iNext;
+        }
+        return daClasses;
+    }
+
+    /**
+     * @param instance The instance
+     * @return The class distribution of the instance
+     */
+    public double[] distributionForInstance(Instance instance) {
+        double[] daLeaf = (laplaceProbs == null) ? probs : laplaceProbs;
+        double[] daDist = new double[numClasses];
+        for (int c = 0; c < numClasses; c++)
+            daDist[c] = getProbs(c, instance, 0, 1, daLeaf);
+        return daDist;
+    }
+
+    /**
+     * @return The number of nodes of the tree
+     */
+    public int numNodes() {
+        return kind.length;
+    }
+
+    /**
+     * Classifies an instance from a node down, following every child of
+     * the nodes whose value is missing.
+     */
+    double classifyWeighted(Instance instance, int n) {
+        double[] daDist = new double[numClasses];
+        for (int c = 0; c < numClasses; c++)
+            daDist[c] = getProbs(c, instance, n, 1, probs);
+        return maxIndex(daDist, 0);
+    }
+
+    /**
+     * Computes the probability of a class for an instance from a node down,
+     * times a weight. The sums are done in the order the tree does them, so
+     * the results are the same to the last bit.
+     */
+    private double getProbs(int c, Instance instance, int n, double dWeight, double[] daLeaf) {
+        if (kind[n] == LEAF)
+            return dWeight * daLeaf[child[n] + c];
+        double v = instance.value(attribute[n]);
+        if (Instance.isMissingValue(v)) {
+            double dProb = 0;
+            for (int s = child[n]; s < child[n] + numChildren[n]; s++)
+                if (weight[s] > 0)
+                    dProb += getProbs(c, instance, s, weight[s] * dWeight, daLeaf);
+            return dProb;
+        }
+        int iBranch = branch(n, v);
+        if (iBranch < 0)
+            throw new IllegalArgumentException("Value " + v + " of attribute " + attribute[n] +
+                                               " was not seen in training");
+        return getProbs(c, instance, child[n] + iBranch, dWeight, daLeaf);
+    }
+
+    /**
+     * @return The child of a node a value goes to, or -1 if the node has no
+     *         child for it
+     */
+    private int branch(int n, double v) {
+        switch (kind[n]) {
+            case NUMERIC:
+                return (v - threshold[n] < SMALL) ? 0 : 1;
+            case BINARY_NOMINAL:
+                return (v == threshold[n]) ? 0 : 1;
+            default:
+                int iValue = (int) v;
+                return (iValue < numChildren[n]) ? iValue : -1;
+        }
+    }
+
+    /**
+     * @return The first class whose probability is the largest, as the tree
+     *         chooses it
+     */
+    double maxIndex(double[] da, int iOffset) {
+        double dMax = -1;
+        int iMax = 0;
+        for (int c = 0; c < numClasses; c++) {
+            if (da[iOffset + c] - dMax > SMALL) {
+                iMax = c;
+                dMax = da[iOffset + c];
+            }
+        }
+        return iMax;
+    }
+
+    /**
+     * Numbers the nodes of a tree level by level and copies them into the
+     * arrays. Empty children become leaves with the probabilities of their
+     * subset in the parent, and weigh nothing when a value is missing.
+     */
+    private void flatten(J48 tree) throws Exception {
+        ClassifierTree root = (ClassifierTree) field(J48.class, "m_root").get(tree);
+        if (root == null)
+            throw new Exception("The tree is not built");
+        Field fSons = field(ClassifierTree.class, "m_sons");
+        Field fIsLeaf = field(ClassifierTree.class, "m_isLeaf");
+        Field fIsEmpty = field(ClassifierTree.class, "m_isEmpty");
+        Field fModel = field(ClassifierTree.class, "m_localModel");
+        Field fTrain = field(ClassifierTree.class, "m_train");
+        Instances header = (Instances) fTrain.get(root);
+        numClasses = header.numClasses();
+        boolean bLaplace = tree.getUseLaplace();
+
+        List<ClassifierTree> lstNodes = new ArrayList<ClassifierTree>();
+        List<ClassifierSplitModel> lstParentModels = new ArrayList<ClassifierSplitModel>();
+        List<Integer> lstSubsets = new ArrayList<Integer>();
+        lstNodes.add(root);
+        lstParentModels.add(null);
+        lstSubsets.add(-1);
+        for (int n = 0; n < lstNodes.size(); n++) {
+            ClassifierTree node = lstNodes.get(n);
+            if (fIsLeaf.getBoolean(node))
+                continue;
+            ClassifierTree[] sons = (ClassifierTree[]) fSons.get(node);
+            ClassifierSplitModel model = (ClassifierSplitModel) fModel.get(node);
+            for (int s = 0; s < sons.length; s++) {
+                lstNodes.add(sons[s]);
+                lstParentModels.add(model);
+                lstSubsets.add(s);
+            }
+        }
+
+        int iNumNodes = lstNodes.size();
+        kind = new byte[iNumNodes];
+        attribute = new int[iNumNodes];
+        threshold = new double[iNumNodes];
+        child = new int[iNumNodes];
+        numChildren = new int[iNumNodes];
+        weight = new double[iNumNodes];
+        int iNumLeaves = 0;
+        for (ClassifierTree node : lstNodes)
+            if (fIsLeaf.getBoolean(node))
+                iNumLeaves++;
+        probs = new double[iNumLeaves * numClasses];
+        laplaceProbs = bLaplace ? new double[iNumLeaves * numClasses] : null;
+
+        int iNextChild = 1;
+        int iNextLeaf = 0;
+        for (int n = 0; n < iNumNodes; n++) {
+            ClassifierTree node = lstNodes.get(n);
+            ClassifierSplitModel parent = lstParentModels.get(n);
+            int iSubset = lstSubsets.get(n);
+            boolean bEmpty = parent != null && fIsEmpty.getBoolean(node);
+            if (parent != null && !bEmpty) {
+                Distribution dist = parent.distribution();
+                weight[n] = dist.perBag(iSubset) / dist.total();
+            }
+
+            if (fIsLeaf.getBoolean(node)) {
+                // The tree scores an empty leaf with its subset in the parent
+                ClassifierSplitModel model = bEmpty ? parent : (ClassifierSplitModel) fModel.get(node);
+                int iProbeSubset = bEmpty ? iSubset : -1;
+                if (!bEmpty && !(model instanceof NoSplit))
+                    throw new Exception("Unknown leaf model " + model.getClass().getName());
+                kind[n] = LEAF;
+                child[n] = iNextLeaf;
+                for (int c = 0; c < numClasses; c++) {
+                    probs[iNextLeaf + c] = model.classProb(c, null, iProbeSubset);
+                    if (bLaplace)
+                        laplaceProbs[iNextLeaf + c] = model.classProbLaplace(c, null, iProbeSubset);
+                }
+                iNextLeaf += numClasses;
+                continue;
+            }
+
+            ClassifierSplitModel model = (ClassifierSplitModel) fModel.get(node);
+            Class<?> cls = model.getClass();
+            if (cls != C45Split.class && cls != BinC45Split.class)
+                throw new Exception("Unknown split model " + cls.getName());
+            int iAtt = field(cls, "m_attIndex").getInt(model);
+            boolean bNominal = header.attribute(iAtt).isNominal();
+            if (!bNominal)
+                kind[n] = NUMERIC;
+            else if (cls == BinC45Split.class)
+                kind[n] = BINARY_NOMINAL;
+            else
+                kind[n] = NOMINAL;
+            attribute[n] = iAtt;
+            threshold[n] = field(cls, "m_splitPoint").getDouble(model);
+            child[n] = iNextChild;
+            numChildren[n] = ((ClassifierTree[]) fSons.get(node)).length;
+            iNextChild += numChildren[n];
+        }
+    }
+
+    /**
+     * @return A field of a class, made accessible
+     */
+    private static Field field(Class<?> cls, String sName) throws NoSuchFieldException {
+        Field f = cls.getDeclaredField(sName);
+        f.setAccessible(true);
+        return f;
+    }
+}
@@ -0,0 +1,569 @@
+/**
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ * 
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ * 
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ */
+
+package org.seasr.meandre.components.weka.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+/**
+ * <p>
+ * Title: Columnar Instances
+ * </p>
+ *
+ * <p>
+ * Description: Reads and writes Instances in a binary columnar format that
+ * keeps all the type information of the header and stores the values of each
+ * attribute as one block of primitives.
+ * </p>
+ *
+ * <p>
+ * The file starts with the magic number, the format version and the length of
+ * the header. The header holds the relation name, the number of attributes
+ * and instances, the class index, the layout and the attribute definitions;
+ * nominal and string attributes carry their value dictionary, date attributes
+ * their format. The instance weights follow when any of them differs from 1.
+ * </p>
+ *
+ * <p>
+ * In the dense layout each attribute is a block of one value per instance:
+ * doubles for numeric and date attributes, int dictionary codes for nominal
+ * and string attributes, with NaN and -1 marking missing values. In the
+ * sparse layout, used when the instances are SparseInstances, each attribute
+ * block starts with the number of stored values, followed by their instance
+ * numbers and their values.
+ * </p>
+ *
+ * <p>
+ * Copyright: Copyright (c) 2008
+ * </p>
+ *
+ * <p>
+ * Company: Automated Learning Group, NCSA
+ * </p>
+ *
+ * @version 1.0
+ */
+public class ColumnarInstances {
+
+    /** The extension of columnar files */
+    public static final String FILE_EXTENSION = ".wkc";
+
+    /** The magic number opening every columnar file ("WKC1") */
+    private static final int MAGIC = 0x574B4331;
+
+    /** The format version */
+    private static final int VERSION = 1;
+
+    /** The dense layout */
+    private static final byte DENSE = 0;
+
+    /** The sparse layout */
+    private static final byte SPARSE = 1;
+
+    /** The largest region of the file mapped at once */
+    private static final int MAX_WINDOW = 1 << 30;
+
+    /** The size of the buffer used to write blocks */
+    private static final int WRITE_BUFFER = 1 << 20;
+
+    private ColumnarInstances() {
+    }
+
+    /**
+     * Tells whether a file name has the columnar extension.
+     *
+     * @param fileName The file name
+     * @return True for columnar files
+     */
+    public static boolean isColumnar(String fileName) {
+        return fileName.toLowerCase().endsWith(FILE_EXTENSION);
+    }
+
+    //
+    // Writing
+    //
+
+    /**
+     * Writes instances to a file.
+     *
+     * @param instances The instances to write
+     * @param file The destination file
+     * @throws IOException The file cannot be written or the instances hold
+     *                     relational attributes
+     */
+    public static void write(Instances instances, File file) throws IOException {
+        int iNumAtts = instances.numAttributes();
+        int iNumIns = instances.numInstances();
+        boolean bSparse = iNumIns > 0 && instances.instance(0) instanceof SparseInstance;
+
+        boolean bWeighted = false;
+        for (int j = 0; j < iNumIns && !bWeighted; j++)
+            bWeighted = instances.instance(j).weight() != 1.0;
+
+        // Header
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        writeString(dos, instances.relationName());
+        dos.writeInt(iNumAtts);
+        dos.writeInt(iNumIns);
+        dos.writeInt(instances.classIndex());
+        dos.writeByte(bSparse ? SPARSE : DENSE);
+        for (int i = 0; i < iNumAtts; i++) {
+            Attribute att = instances.attribute(i);
+            writeString(dos, att.name());
+            dos.writeByte(att.type());
+            switch (att.type()) {
+                case Attribute.NUMERIC:
+                    break;
+                case Attribute.DATE:
+                    writeString(dos, att.getDateFormat());
+                    break;
+                case Attribute.NOMINAL:
+                case Attribute.STRING:
+                    dos.writeInt(att.numValues());
+                    for (int v = 0; v < att.numValues(); v++)
+                        writeString(dos, att.value(v));
+                    break;
+                default:
+                    throw new IOException("Attribute " + att.name() + " cannot be stored in columnar form");
+            }
+        }
+        dos.writeBoolean(bWeighted);
+        dos.flush();
+
+        FileOutputStream fos = new FileOutputStream(file);
+        FileChannel channel = fos.getChannel();
+        try {
+            ByteBuffer buf = ByteBuffer.allocateDirect(WRITE_BUFFER);
+            buf.putInt(MAGIC);
+            buf.putInt(VERSION);
+            buf.putInt(baos.size());
+            flush(channel, buf);
+            channel.write(ByteBuffer.wrap(baos.toByteArray()));
+
+            if (bWeighted)
+                for (int j = 0; j < iNumIns; j++)
+                    putDouble(channel, buf, instances.instance(j).weight());
+
+            if (bSparse)
+                writeSparseBlocks(instances, channel, buf);
+            else
+                for (int i = 0; i < iNumAtts; i++)
+                    writeDenseBlock(instances, i, isCoded(instances.attribute(i)), channel, buf);
+            flush(channel, buf);
+        }
+        finally {
+            channel.close();
+            fos.close();
+        }
+    }
+
+    private static void writeDenseBlock(Instances instances, int iAtt, boolean bCoded,
+                                        FileChannel channel, ByteBuffer buf) throws IOException {
+        for (int j = 0, iMax = instances.numInstances(); j < iMax; j++) {
+            double d = instances.instance(j).value(iAtt);
+            if (bCoded)
+                putInt(channel, buf, Instance.isMissingValue(d) ? -1 : (int) d);
+            else
+                putDouble(channel, buf, d);
+        }
+    }
+
+    private static void writeSparseBlocks(Instances instances, FileChannel channel,
+                                          ByteBuffer buf) throws IOException {
+        int iNumAtts = instances.numAttributes();
+        int iNumIns = instances.numInstances();
+
+        // Transpose the stored values into one list per attribute
+        int[] counts = new int[iNumAtts];
+        for (int j = 0; j < iNumIns; j++) {
+            Instance inst = instances.instance(j);
+            for (int p = 0, pMax = inst.numValues(); p < pMax; p++)
+                counts[inst.index(p)]++;
+        }
+        int[][] rowIndices = new int[iNumAtts][];
+        double[][] values = new double[iNumAtts][];
+        for (int i = 0; i < iNumAtts; i++) {
+            rowIndices[i] = new int[counts[i]];
+            values[i] = new double[counts[i]];
+            counts[i] = 0;
+        }
+        for (int j = 0; j < iNumIns; j++) {
+            Instance inst = instances.instance(j);
+            for (int p = 0, pMax = inst.numValues(); p < pMax; p++) {
+                int i = inst.index(p);
+                rowIndices[i][counts[i]] = j;
+                values[i][counts[i]++] = inst.valueSparse(p);
+            }
+        }
+
+        for (int i = 0; i < iNumAtts; i++) {
+            boolean bCoded = isCoded(instances.attribute(i));
+            putInt(channel, buf, counts[i]);
+            for (int k = 0; k < counts[i]; k++)
+                putInt(channel, buf, rowIndices[i][k]);
+            for (int k = 0; k < counts[i]; k++) {
+                double d = values[i][k];
+                if (bCoded)
+                    putInt(channel, buf, Instance.isMissingValue(d) ? -1 : (int) d);
+                else
+                    putDouble(channel, buf, d);
+            }
+            rowIndices[i] = null;
+            values[i] = null;
+        }
+    }
+
+    private static void putInt(FileChannel channel, ByteBuffer buf, int i) throws IOException {
+        if (buf.remaining() < 4)
+            flush(channel, buf);
+        buf.putInt(i);
+    }
+
+    private static void putDouble(FileChannel channel, ByteBuffer buf, double d) throws IOException {
+        if (buf.remaining() < 8)
+            flush(channel, buf);
+        buf.putDouble(d);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining())
+            channel.write(buf);
+        buf.clear();
+    }
+
+    private static void writeString(DataOutputStream dos, String s) throws IOException {
+        byte[] ba = s.getBytes("UTF-8");
+        dos.writeInt(ba.length);
+        dos.write(ba);
+    }
+
+    //
+    // Reading
+    //
+
+    /**
+     * Reads instances from a file, memory mapping the value blocks.
+     *
+     * @param file The columnar file
+     * @return The instances held in the file
+     * @throws IOException The file cannot be read or is not a columnar file
+     */
+    public static Instances read(File file) throws IOException {
+        return read(file, null);
+    }
+
+    /**
+     * Reads instances from a file, memory mapping the value blocks and
+     * taking the relation name, attribute names and nominal and string
+     * values from a dictionary.
+     *
+     * @param file The columnar file
+     * @param dictionary The dictionary of shared strings, or null
+     * @return The instances held in the file
+     * @throws IOException The file cannot be read or is not a columnar file
+     */
+    public static Instances read(File file, StringDictionary dictionary) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        FileChannel channel = fis.getChannel();
+        try {
+            ByteBuffer prologue = ByteBuffer.allocate(12);
+            while (prologue.hasRemaining())
+                if (channel.read(prologue) < 0)
+                    throw new IOException(file + " is not a columnar file");
+            prologue.flip();
+            if (prologue.getInt() != MAGIC)
+                throw new IOException(file + " is not a columnar file");
+            int iVersion = prologue.getInt();
+            if (iVersion != VERSION)
+                throw new IOException("Unsupported columnar format version " + iVersion);
+
+            ByteBuffer header = ByteBuffer.allocate(prologue.getInt());
+            while (header.hasRemaining())
+                if (channel.read(header) < 0)
+                    throw new IOException("Truncated header in " + file);
+
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(header.array()));
+            String sRelation = StringDictionary.intern(dictionary, readString(dis));
+            int iNumAtts = dis.readInt();
+            int iNumIns = dis.readInt();
+            int iClassIndex = dis.readInt();
+            boolean bSparse = dis.readByte() == SPARSE;
+
+            FastVector fvAtts = new FastVector(iNumAtts);
+            boolean[] baCoded = new boolean[iNumAtts];
+            for (int i = 0; i < iNumAtts; i++) {
+                String sName = StringDictionary.intern(dictionary, readString(dis));
+                int iType = dis.readByte();
+                switch (iType) {
+                    case Attribute.NUMERIC:
+                        fvAtts.addElement(new Attribute(sName));
+                        break;
+                    case Attribute.DATE:
+                        fvAtts.addElement(new Attribute(sName, readString(dis)));
+                        break;
+                    case Attribute.NOMINAL: {
+                        int iNumValues = dis.readInt();
+                        FastVector fvValues = new FastVector(iNumValues);
+                        for (int v = 0; v < iNumValues; v++)
+                            fvValues.addElement(StringDictionary.intern(dictionary, readString(dis)));
+                        fvAtts.addElement(new Attribute(sName, fvValues));
+                        baCoded[i] = true;
+                        break;
+                    }
+                    case Attribute.STRING: {
+                        Attribute att = new Attribute(sName, (FastVector) null);
+                        int iNumValues = dis.readInt();
+                        for (int v = 0; v < iNumValues; v++)
+                            att.addStringValue(StringDictionary.intern(dictionary, readString(dis)));
+                        fvAtts.addElement(att);
+                        baCoded[i] = true;
+                        break;
+                    }
+                    default:
+                        throw new IOException("Unknown attribute type " + iType + " in " + file);
+                }
+            }
+            boolean bWeighted = dis.readBoolean();
+
+            long lPos = 12 + header.capacity();
+            MappedBlocks blocks = new MappedBlocks(channel, file);
+            double[] weights = null;
+            if (bWeighted) {
+                weights = new double[iNumIns];
+                blocks.readDoubles(lPos, weights, iNumIns);
+                lPos += 8L * iNumIns;
+            }
+
+            Instances instances = new Instances(sRelation, fvAtts, iNumIns);
+            if (bSparse)
+                readSparse(blocks, lPos, instances, iNumIns, baCoded, weights);
+            else
+                readDense(blocks, lPos, instances, iNumIns, baCoded, weights);
+            instances.setClassIndex(iClassIndex);
+            return instances;
+        }
+        finally {
+            channel.close();
+            fis.close();
+        }
+    }
+
+    private static void readDense(MappedBlocks blocks, long lPos, Instances instances, int iNumIns,
+                                  boolean[] baCoded, double[] weights) throws IOException {
+        int iNumAtts = baCoded.length;
+        double[][] rows = new double[iNumIns][iNumAtts];
+        double[] column = new double[iNumIns];
+        int[] codes = null;
+
+        // Scatter one column at a time into the rows
+        for (int i = 0; i < iNumAtts; i++) {
+            if (baCoded[i]) {
+                if (codes == null)
+                    codes = new int[iNumIns];
+                blocks.readInts(lPos, codes, iNumIns);
+                lPos += 4L * iNumIns;
+                for (int j = 0; j < iNumIns; j++)
+                    rows[j][i] = (codes[j] < 0) ? Instance.missingValue() : codes[j];
+            }
+            else {
+                blocks.readDoubles(lPos, column, iNumIns);
+                lPos += 8L * iNumIns;
+                for (int j = 0; j < iNumIns; j++)
+                    rows[j][i] = column[j];
+            }
+        }
+
+        for (int j = 0; j < iNumIns; j++) {
+            instances.add(new Instance((weights == null) ? 1.0 : weights[j], rows[j]));
+            rows[j] = null;
+        }
+    }
+
+    private static void readSparse(MappedBlocks blocks, long lPos, Instances instances, int iNumIns,
+                                   boolean[] baCoded, double[] weights) throws IOException {
+        int iNumAtts = baCoded.length;
+        int[][] rowIndices = new int[iNumAtts][];
+        double[][] values = new double[iNumAtts][];
+        int[] rowCounts = new int[iNumIns];
+
+        for (int i = 0; i < iNumAtts; i++) {
+            int iCount = blocks.readInt(lPos);
+            lPos += 4;
+
+            rowIndices[i] = new int[iCount];
+            blocks.readInts(lPos, rowIndices[i], iCount);
+            lPos += 4L * iCount;
+            for (int k = 0; k < iCount; k++)
+                rowCounts[rowIndices[i][k]]++;
+
+            values[i] = new double[iCount];
+            if (baCoded[i]) {
+                int[] codes = new int[iCount];
+                blocks.readInts(lPos, codes, iCount);
+                lPos += 4L * iCount;
+                for (int k = 0; k < iCount; k++)
+                    values[i][k] = (codes[k] < 0) ? Instance.missingValue() : codes[k];
+            }
+            else {
+                blocks.readDoubles(lPos, values[i], iCount);
+                lPos += 8L * iCount;
+            }
+        }
+
+        // Attributes are visited in order, so the indices of each row come out sorted
+        int[][] indices = new int[iNumIns][];
+        double[][] rowValues = new double[iNumIns][];
+        for (int j = 0; j < iNumIns; j++) {
+            indices[j] = new int[rowCounts[j]];
+            rowValues[j] = new double[rowCounts[j]];
+            rowCounts[j] = 0;
+        }
+        for (int i = 0; i < iNumAtts; i++) {
+            for (int k = 0; k < rowIndices[i].length; k++) {
+                int j = rowIndices[i][k];
+                indices[j][rowCounts[j]] = i;
+                rowValues[j][rowCounts[j]++] = values[i][k];
+            }
+            rowIndices[i] = null;
+            values[i] = null;
+        }
+
+        for (int j = 0; j < iNumIns; j++)
+            instances.add(new SparseInstance((weights == null) ? 1.0 : weights[j],
+                                             rowValues[j], indices[j], iNumAtts));
+    }
+
+    private static String readString(DataInputStream dis) throws IOException {
+        byte[] ba = new byte[dis.readInt()];
+        dis.readFully(ba);
+        return new String(ba, "UTF-8");
+    }
+
+    private static boolean isCoded(Attribute att) {
+        return att.isNominal() || att.isString();
+    }
+
+    /**
+     * The value blocks of a file, read by position through one mapping of
+     * the rest of the file, or through windows of MAX_WINDOW bytes when it
+     * is larger. A window is only mapped again when a read leaves it, so
+     * the blocks of a file that fits one window share a single mapping.
+     */
+    private static class MappedBlocks {
+
+        private final FileChannel channel;
+
+        private final File file;
+
+        private final long lSize;
+
+        /** The mapped window, or null */
+        private MappedByteBuffer mbWindow;
+
+        /** The position in the file of the start of the window */
+        private long lWindow;
+
+        MappedBlocks(FileChannel channel, File file) throws IOException {
+            this.channel = channel;
+            this.file = file;
+            this.lSize = channel.size();
+        }
+
+        int readInt(long lPos) throws IOException {
+            return window(lPos, 4).getInt((int) (lPos - lWindow));
+        }
+
+        void readInts(long lPos, int[] dest, int iCount) throws IOException {
+            int iDone = 0;
+            while (iDone < iCount) {
+                ByteBuffer bb = window(lPos, 4).duplicate();
+                bb.position((int) (lPos - lWindow));
+                int iChunk = Math.min(iCount - iDone, bb.remaining() / 4);
+                bb.asIntBuffer().get(dest, iDone, iChunk);
+                lPos += 4L * iChunk;
+                iDone += iChunk;
+            }
+        }
+
+        void readDoubles(long lPos, double[] dest, int iCount) throws IOException {
+            int iDone = 0;
+            while (iDone < iCount) {
+                ByteBuffer bb = window(lPos, 8).duplicate();
+                bb.position((int) (lPos - lWindow));
+                int iChunk = Math.min(iCount - iDone, bb.remaining() / 8);
+                bb.asDoubleBuffer().get(dest, iDone, iChunk);
+                lPos += 8L * iChunk;
+                iDone += iChunk;
+            }
+        }
+
+        /**
+         * Gives the window holding at least the iBytes bytes at lPos,
+         * mapping a new one from lPos when the current one does not.
+         */
+        private MappedByteBuffer window(long lPos, int iBytes) throws IOException {
+            if (mbWindow == null || lPos < lWindow || lPos + iBytes > lWindow + mbWindow.capacity()) {
+                if (lPos + iBytes > lSize)
+                    throw new IOException("Truncated value blocks in " + file);
+                mbWindow = channel.map(FileChannel.MapMode.READ_ONLY, lPos, Math.min(MAX_WINDOW, lSize - lPos));
+                lWindow = lPos;
+            }
+            return mbWindow;
+        }
+    }
+}
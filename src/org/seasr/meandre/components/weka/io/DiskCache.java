@@ -0,0 +1,271 @@
+/**
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ * 
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ * 
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ */
+
+package org.seasr.meandre.components.weka.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * <p>
+ * Title: Disk Cache
+ * </p>
+ *
+ * <p>
+ * Description: A directory of cache entries, one file per key, bounded by a
+ * total size in bytes. Reading an entry refreshes its modification time, and
+ * the least recently used entries are deleted when the directory grows over
+ * its budget. New entries are written to a temporary file first and renamed
+ * into place, so readers never see a partially written entry.
+ * </p>
+ *
+ * <p>
+ * Copyright: Copyright (c) 2008
+ * </p>
+ *
+ * <p>
+ * Company: Automated Learning Group, NCSA
+ * </p>
+ *
+ * @version 1.0
+ */
+public class DiskCache {
+
+    /** The extension of the cache entries */
+    private static final String ENTRY_SUFFIX = ".entry";
+
+    /** The extension of the entries being written */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** The cache directory */
+    private final File directory;
+
+    /** The maximum number of bytes held by the entries */
+    private final long maxBytes;
+
+    /**
+     * Opens a cache directory, creating it if needed.
+     *
+     * @param directory The cache directory
+     * @param maxBytes The maximum number of bytes held by the entries
+     * @throws IOException The directory cannot be created
+     */
+    public DiskCache(File directory, long maxBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create cache directory " + directory);
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the file holding the entry for a key and marks it as recently
+     * used.
+     *
+     * @param key The entry key
+     * @return The entry file, or null if there is no such entry
+     */
+    public synchronized File get(String key) {
+        File entry = new File(directory, key + ENTRY_SUFFIX);
+        if (!entry.isFile())
+            return null;
+        entry.setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    /**
+     * Creates a temporary file in the cache directory for a new entry.
+     *
+     * @return The temporary file
+     * @throws IOException The file cannot be created
+     */
+    public File createTempFile() throws IOException {
+        return File.createTempFile("cache", TEMP_SUFFIX, directory);
+    }
+
+    /**
+     * Moves a fully written temporary file into place as the entry for a key
+     * and evicts the least recently used entries if the cache is over budget.
+     *
+     * @param key The entry key
+     * @param temp The temporary file created with createTempFile
+     * @return The entry file
+     * @throws IOException The entry cannot be stored
+     */
+    public synchronized File put(String key, File temp) throws IOException {
+        File entry = new File(directory, key + ENTRY_SUFFIX);
+        if (entry.exists() && !entry.delete()) {
+            temp.delete();
+            throw new IOException("Cannot replace cache entry " + entry);
+        }
+        if (!temp.renameTo(entry)) {
+            temp.delete();
+            throw new IOException("Cannot store cache entry " + entry);
+        }
+        evict();
+        return entry;
+    }
+
+    /**
+     * Removes the entry for a key.
+     *
+     * @param key The entry key
+     */
+    public synchronized void remove(String key) {
+        new File(directory, key + ENTRY_SUFFIX).delete();
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits in its
+     * budget.
+     */
+    public synchronized void evict() {
+        File[] entries = directory.listFiles();
+        if (entries == null)
+            return;
+
+        long lTotal = 0;
+        for (File entry : entries)
+            if (entry.getName().endsWith(ENTRY_SUFFIX))
+                lTotal += entry.length();
+        if (lTotal <= maxBytes)
+            return;
+
+        Arrays.sort(entries, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long l1 = f1.lastModified(), l2 = f2.lastModified();
+                return (l1 < l2) ? -1 : (l1 == l2) ? 0 : 1;
+            }
+        });
+        for (int i = 0; i < entries.length && lTotal > maxBytes; i++) {
+            File entry = entries[i];
+            if (!entry.getName().endsWith(ENTRY_SUFFIX))
+                continue;
+            long lLength = entry.length();
+            if (entry.delete())
+                lTotal -= lLength;
+        }
+    }
+
+    /**
+     * Deletes the temporary files left behind by entries that were never
+     * stored.
+     *
+     * @param maxAge The age in milliseconds a temporary file must reach to be
+     *        deleted
+     */
+    public void purgeTempFiles(long maxAge) {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        long lOldest = System.currentTimeMillis() - maxAge;
+        for (File file : files)
+            if (file.getName().endsWith(TEMP_SUFFIX) && file.lastModified() < lOldest)
+                file.delete();
+    }
+
+    /**
+     * Builds a key out of a list of strings.
+     *
+     * @param parts The strings identifying the entry
+     * @return The hexadecimal SHA-1 digest of the strings
+     */
+    public static String key(String... parts) {
+        MessageDigest md = newDigest();
+        try {
+            for (String part : parts) {
+                md.update(part.getBytes("UTF-8"));
+                md.update((byte) 0);
+            }
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * Hashes the content of a file.
+     *
+     * @param file The file
+     * @return The hexadecimal SHA-1 digest of the file content
+     * @throws FileNotFoundException The file does not exist
+     * @throws IOException The file cannot be read
+     */
+    public static String hash(File file) throws IOException {
+        MessageDigest md = newDigest();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[65536];
+            int len;
+            while ((len = in.read(buffer)) > 0)
+                md.update(buffer, 0, len);
+        }
+        finally {
+            in.close();
+        }
+        return toHex(md.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toHex(byte[] ba) {
+        StringBuffer sb = new StringBuffer(ba.length * 2);
+        for (byte b : ba) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
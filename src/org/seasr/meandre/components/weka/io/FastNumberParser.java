@@ -0,0 +1,278 @@
+/**
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ * 
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ * 
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ */
+
+package org.seasr.meandre.components.weka.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Title: Fast Number Parser
+ * </p>
+ *
+ * <p>
+ * Description: Parses decimal numbers straight from bytes or characters
+ * without creating intermediate strings. Numbers whose significand fits in 53
+ * bits and whose decimal exponent is within the range of exactly representable
+ * powers of ten are converted with a single multiplication or division, which
+ * gives the same correctly rounded result as Double.parseDouble. Anything else
+ * is handed over to Double.parseDouble.
+ * </p>
+ *
+ * <p>
+ * Copyright: Copyright (c) 2008
+ * </p>
+ *
+ * <p>
+ * Company: Automated Learning Group, NCSA
+ * </p>
+ *
+ * @version 1.0
+ */
+public final class FastNumberParser {
+
+    /** The powers of ten that are exactly representable as doubles */
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** The largest significand that is exactly representable as a double */
+    private static final long MAX_EXACT = 1L << 53;
+
+    /** Significant digits kept before falling back to Double.parseDouble */
+    private static final int MAX_DIGITS = 18;
+
+    private FastNumberParser() {
+    }
+
+    /**
+     * Parses the number held in buf between start (inclusive) and end
+     * (exclusive) using absolute reads, so the buffer position is left alone.
+     *
+     * @param buf The buffer holding the number
+     * @param start The index of the first character
+     * @param end The index after the last character
+     * @return The parsed value
+     * @throws NumberFormatException The characters are not a number
+     */
+    public static double parse(ByteBuffer buf, int start, int end) {
+        double d = parseSimple(buf, null, start, end);
+        if (d == d)
+            return d;
+
+        // Slow path for the forms the simple parser does not handle
+        char[] ca = new char[end - start];
+        for (int i = start; i < end; i++)
+            ca[i - start] = (char) (buf.get(i) & 0xff);
+        return Double.parseDouble(new String(ca));
+    }
+
+    /**
+     * Parses the number held in cs between start (inclusive) and end
+     * (exclusive).
+     *
+     * @param cs The characters holding the number
+     * @param start The index of the first character
+     * @param end The index after the last character
+     * @return The parsed value
+     * @throws NumberFormatException The characters are not a number
+     */
+    public static double parse(CharSequence cs, int start, int end) {
+        double d = parseSimple(null, cs, start, end);
+        if (d == d)
+            return d;
+
+        // Slow path for the forms the simple parser does not handle
+        return Double.parseDouble(cs.subSequence(start, end).toString());
+    }
+
+    /**
+     * Parses a whole character sequence.
+     *
+     * @param cs The characters holding the number
+     * @return The parsed value
+     * @throws NumberFormatException The characters are not a number
+     */
+    public static double parse(CharSequence cs) {
+        return parse(cs, 0, cs.length());
+    }
+
+    /**
+     * Checks whether the bytes between start and end are a plain decimal
+     * number (optional sign, digits, optional fraction and exponent).
+     *
+     * @param buf The buffer holding the token
+     * @param start The index of the first character
+     * @param end The index after the last character
+     * @return True if the token is a decimal number
+     */
+    public static boolean isNumber(ByteBuffer buf, int start, int end) {
+        int i = start;
+        if (i < end && (buf.get(i) == '-' || buf.get(i) == '+'))
+            i++;
+
+        int iDigits = 0;
+        while (i < end && isDigit(buf.get(i))) {
+            i++;
+            iDigits++;
+        }
+        if (i < end && buf.get(i) == '.') {
+            i++;
+            while (i < end && isDigit(buf.get(i))) {
+                i++;
+                iDigits++;
+            }
+        }
+        if (iDigits == 0)
+            return false;
+
+        if (i < end && (buf.get(i) == 'e' || buf.get(i) == 'E')) {
+            i++;
+            if (i < end && (buf.get(i) == '-' || buf.get(i) == '+'))
+                i++;
+            int iExpDigits = 0;
+            while (i < end && isDigit(buf.get(i))) {
+                i++;
+                iExpDigits++;
+            }
+            if (iExpDigits == 0)
+                return false;
+        }
+        return i == end;
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * The allocation free parser. Reads from buf when it is not null, from cs
+     * otherwise.
+     *
+     * @return The parsed value, or NaN if the slow path needs to be taken
+     */
+    private static double parseSimple(ByteBuffer buf, CharSequence cs, int start, int end) {
+        int i = start;
+        if (i >= end)
+            throw new NumberFormatException("Empty number");
+
+        boolean bNegative = false;
+        int c = charAt(buf, cs, i);
+        if (c == '-' || c == '+') {
+            bNegative = c == '-';
+            i++;
+        }
+
+        long lSignificand = 0;
+        int iDigits = 0;
+        int iSignificant = 0;
+        int iExponent = 0;
+
+        // Integer part
+        while (i < end && isDigit(c = charAt(buf, cs, i))) {
+            if (iSignificant < MAX_DIGITS) {
+                lSignificand = lSignificand * 10 + (c - '0');
+                if (lSignificand != 0)
+                    iSignificant++;
+            }
+            else
+                iExponent++;
+            iDigits++;
+            i++;
+        }
+
+        // Fraction
+        if (i < end && charAt(buf, cs, i) == '.') {
+            i++;
+            while (i < end && isDigit(c = charAt(buf, cs, i))) {
+                if (iSignificant < MAX_DIGITS) {
+                    lSignificand = lSignificand * 10 + (c - '0');
+                    if (lSignificand != 0)
+                        iSignificant++;
+                    iExponent--;
+                }
+                iDigits++;
+                i++;
+            }
+        }
+
+        if (iDigits == 0)
+            return Double.NaN;
+
+        // Exponent
+        if (i < end && ((c = charAt(buf, cs, i)) == 'e' || c == 'E')) {
+            i++;
+            boolean bNegativeExp = false;
+            if (i < end && ((c = charAt(buf, cs, i)) == '-' || c == '+')) {
+                bNegativeExp = c == '-';
+                i++;
+            }
+            int iExpDigits = 0;
+            int iExp = 0;
+            while (i < end && isDigit(c = charAt(buf, cs, i))) {
+                if (iExp < 10000)
+                    iExp = iExp * 10 + (c - '0');
+                iExpDigits++;
+                i++;
+            }
+            if (iExpDigits == 0)
+                return Double.NaN;
+            iExponent += bNegativeExp ? -iExp : iExp;
+        }
+
+        // Trailing characters are left to Double.parseDouble
+        if (i != end || iSignificant >= MAX_DIGITS)
+            return Double.NaN;
+
+        if (lSignificand == 0)
+            return bNegative ? -0.0 : 0.0;
+        if (lSignificand > MAX_EXACT || iExponent < -22 || iExponent > 22)
+            return Double.NaN;
+
+        double d = (iExponent < 0) ? lSignificand / POW10[-iExponent]
+                                   : lSignificand * POW10[iExponent];
+        return bNegative ? -d : d;
+    }
+
+    private static int charAt(ByteBuffer buf, CharSequence cs, int i) {
+        return (buf != null) ? buf.get(i) : cs.charAt(i);
+    }
+}
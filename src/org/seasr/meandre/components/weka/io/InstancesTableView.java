@@ -0,0 +1,576 @@
+/**
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ * 
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ * 
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ */
+
+package org.seasr.meandre.components.weka.io;
+
+import java.lang.reflect.Array;
+
+import org.meandre.components.datatype.table.Column;
+import org.meandre.components.datatype.table.Table;
+import org.meandre.components.datatype.table.basic.MutableTableImpl;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * <p>
+ * Title: Instances Table View
+ * </p>
+ *
+ * <p>
+ * Description: A Table over weka.core.Instances. Until the table is first
+ * modified, reads are answered from the instances the same way
+ * InstancesToTable would have stored them, so wrapping the instances takes
+ * constant time and memory: cells, dimensions, labels and column kinds are
+ * read directly, subsets and copies are views over the selected instances,
+ * and asking for a column copies that column only. The first modification
+ * copies the instances into the table this class extends, and from then on
+ * every call is answered by it.
+ * </p>
+ *
+ * <p>
+ * Copyright: Copyright (c) 2008
+ * </p>
+ *
+ * <p>
+ * Company: Automated Learning Group, NCSA
+ * </p>
+ *
+ * @version 1.0
+ */
+public class InstancesTableView extends MutableTableImpl {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The viewed instances */
+    private final Instances instances;
+
+    /** The columns copied so far, one per attribute */
+    private final Column[] columns;
+
+    /** Whether the instances were copied into the table */
+    private volatile boolean materialized = false;
+
+    /**
+     * Wraps instances in a table view.
+     *
+     * @param instances The instances to view
+     */
+    public InstancesTableView(Instances instances) {
+        super(new Column[0]);
+        this.instances = instances;
+        this.columns = new Column[instances.numAttributes()];
+    }
+
+    /**
+     * Copies the instances into the table, reusing the columns copied
+     * before. Called before any modification.
+     */
+    private synchronized void materialize() {
+        if (materialized)
+            return;
+        Column[] schema = new Column[columns.length];
+        for (int i = 0; i < schema.length; i++)
+            schema[i] = column(i);
+        super.addColumns(schema);
+        for (int i = 0; i < schema.length; i++)
+            super.setColumnLabel(instances.attribute(i).name(), i);
+        materialized = true;
+    }
+
+    /**
+     * Returns the column of an attribute, copying it the first time.
+     */
+    private synchronized Column column(int iCol) {
+        if (columns[iCol] == null)
+            columns[iCol] = InstancesToTable.toColumn(instances, iCol);
+        return columns[iCol];
+    }
+
+    /**
+     * Returns a view over some of the instances.
+     */
+    private static Table view(Instances source, int[] iaRows) {
+        Instances subset = new Instances(source, iaRows.length);
+        for (int iRow : iaRows)
+            subset.add(source.instance(iRow));
+        return new InstancesTableView(subset);
+    }
+
+    /**
+     * Returns a cell as the type asked for: a string, the object the column
+     * stores, or a number. Float columns hold 0 for missing values, string
+     * columns "?".
+     */
+    private Object value(int iRow, int iCol, Class<?> type) {
+        Instance inst = instances.instance(iRow);
+        Attribute att = instances.attribute(iCol);
+        if (att.isNumeric()) {
+            float fValue = inst.isMissing(iCol) ? 0 : (float) inst.value(iCol);
+            if (type == String.class)
+                return String.valueOf(fValue);
+            return toNumber(fValue, type);
+        }
+        String sValue = InstancesToTable.stringValue(att, inst, iCol);
+        if (type == String.class || type == Object.class)
+            return sValue;
+        return toNumber(Double.parseDouble(sValue), type);
+    }
+
+    private static Object toNumber(double dValue, Class<?> type) {
+        if (type == Object.class || type == float.class)
+            return new Float((float) dValue);
+        if (type == int.class)
+            return Integer.valueOf((int) dValue);
+        if (type == long.class)
+            return Long.valueOf((long) dValue);
+        if (type == short.class)
+            return Short.valueOf((short) dValue);
+        if (type == byte.class)
+            return Byte.valueOf((byte) dValue);
+        return new Double(dValue);
+    }
+
+    //
+    // Reads answered from the instances
+    //
+
+    @Override
+    public int getNumRows() {
+        return materialized ? super.getNumRows() : instances.numInstances();
+    }
+
+    @Override
+    public int getNumEntries() {
+        return materialized ? super.getNumEntries() : instances.numInstances();
+    }
+
+    @Override
+    public int getNumColumns() {
+        return materialized ? super.getNumColumns() : instances.numAttributes();
+    }
+
+    @Override
+    public String getColumnLabel(int iCol) {
+        return materialized ? super.getColumnLabel(iCol) : instances.attribute(iCol).name();
+    }
+
+    @Override
+    public String getColumnComment(int iCol) {
+        return materialized ? super.getColumnComment(iCol) : column(iCol).getComment();
+    }
+
+    @Override
+    public int getColumnType(int iCol) {
+        return materialized ? super.getColumnType(iCol) : column(iCol).getType();
+    }
+
+    @Override
+    public boolean isColumnNumeric(int iCol) {
+        return materialized ? super.isColumnNumeric(iCol) : instances.attribute(iCol).isNumeric();
+    }
+
+    @Override
+    public boolean isColumnScalar(int iCol) {
+        return materialized ? super.isColumnScalar(iCol) : instances.attribute(iCol).isNumeric();
+    }
+
+    @Override
+    public boolean isColumnNominal(int iCol) {
+        return materialized ? super.isColumnNominal(iCol) : !instances.attribute(iCol).isNumeric();
+    }
+
+    @Override
+    public boolean isValueMissing(int iRow, int iCol) {
+        return materialized ? super.isValueMissing(iRow, iCol) : instances.instance(iRow).isMissing(iCol);
+    }
+
+    @Override
+    public boolean isValueEmpty(int iRow, int iCol) {
+        return materialized ? super.isValueEmpty(iRow, iCol) : false;
+    }
+
+    @Override
+    public boolean hasMissingValues() {
+        if (materialized)
+            return super.hasMissingValues();
+        for (int i = 0, iMax = instances.numAttributes(); i < iMax; i++)
+            if (hasMissingValues(i))
+                return true;
+        return false;
+    }
+
+    @Override
+    public boolean hasMissingValues(int iCol) {
+        if (materialized)
+            return super.hasMissingValues(iCol);
+        for (int i = 0, iMax = instances.numInstances(); i < iMax; i++)
+            if (instances.instance(i).isMissing(iCol))
+                return true;
+        return false;
+    }
+
+    @Override
+    public Object getObject(int iRow, int iCol) {
+        return materialized ? super.getObject(iRow, iCol) : value(iRow, iCol, Object.class);
+    }
+
+    @Override
+    public String getString(int iRow, int iCol) {
+        return materialized ? super.getString(iRow, iCol) : (String) value(iRow, iCol, String.class);
+    }
+
+    @Override
+    public float getFloat(int iRow, int iCol) {
+        return materialized ? super.getFloat(iRow, iCol) : ((Number) value(iRow, iCol, float.class)).floatValue();
+    }
+
+    @Override
+    public double getDouble(int iRow, int iCol) {
+        return materialized ? super.getDouble(iRow, iCol) : ((Number) value(iRow, iCol, double.class)).doubleValue();
+    }
+
+    @Override
+    public int getInt(int iRow, int iCol) {
+        return materialized ? super.getInt(iRow, iCol) : ((Number) value(iRow, iCol, int.class)).intValue();
+    }
+
+    @Override
+    public long getLong(int iRow, int iCol) {
+        return materialized ? super.getLong(iRow, iCol) : ((Number) value(iRow, iCol, long.class)).longValue();
+    }
+
+    @Override
+    public short getShort(int iRow, int iCol) {
+        return materialized ? super.getShort(iRow, iCol) : ((Number) value(iRow, iCol, short.class)).shortValue();
+    }
+
+    @Override
+    public byte getByte(int iRow, int iCol) {
+        return materialized ? super.getByte(iRow, iCol) : ((Number) value(iRow, iCol, byte.class)).byteValue();
+    }
+
+    @Override
+    public boolean getBoolean(int iRow, int iCol) {
+        return materialized ? super.getBoolean(iRow, iCol) : column(iCol).getBoolean(iRow);
+    }
+
+    @Override
+    public char getChar(int iRow, int iCol) {
+        return materialized ? super.getChar(iRow, iCol) : column(iCol).getChar(iRow);
+    }
+
+    @Override
+    public char[] getChars(int iRow, int iCol) {
+        return materialized ? super.getChars(iRow, iCol) : column(iCol).getChars(iRow);
+    }
+
+    @Override
+    public byte[] getBytes(int iRow, int iCol) {
+        return materialized ? super.getBytes(iRow, iCol) : column(iCol).getBytes(iRow);
+    }
+
+    @Override
+    public Column getColumn(int iCol) {
+        return materialized ? super.getColumn(iCol) : column(iCol);
+    }
+
+    /**
+     * Fills a buffer, an array of strings, objects or numbers, with a row.
+     */
+    @Override
+    public void getRow(Object buffer, int iRow) {
+        if (materialized) {
+            super.getRow(buffer, iRow);
+            return;
+        }
+        Class<?> type = buffer.getClass().getComponentType();
+        for (int i = 0, iMax = Math.min(Array.getLength(buffer), instances.numAttributes()); i < iMax; i++)
+            Array.set(buffer, i, value(iRow, i, type));
+    }
+
+    /**
+     * Fills a buffer, an array of strings, objects or numbers, with a column.
+     */
+    @Override
+    public void getColumn(Object buffer, int iCol) {
+        if (materialized) {
+            super.getColumn(buffer, iCol);
+            return;
+        }
+        Class<?> type = buffer.getClass().getComponentType();
+        for (int i = 0, iMax = Math.min(Array.getLength(buffer), instances.numInstances()); i < iMax; i++)
+            Array.set(buffer, i, value(i, iCol, type));
+    }
+
+    @Override
+    public Table getSubset(int iStart, int iLen) {
+        return materialized ? super.getSubset(iStart, iLen) :
+            new InstancesTableView(new Instances(instances, iStart, iLen));
+    }
+
+    @Override
+    public Table getSubset(int[] iaRows) {
+        return materialized ? super.getSubset(iaRows) : view(instances, iaRows);
+    }
+
+    @Override
+    public Table getSubsetByReference(int iStart, int iLen) {
+        return getSubset(iStart, iLen);
+    }
+
+    @Override
+    public Table getSubsetByReference(int[] iaRows) {
+        return getSubset(iaRows);
+    }
+
+    /**
+     * The instances are never modified, so a view over them is a copy.
+     */
+    @Override
+    public Table copy() {
+        return materialized ? super.copy() : new InstancesTableView(instances);
+    }
+
+    @Override
+    public Table copy(int iStart, int iLen) {
+        return getSubset(iStart, iLen);
+    }
+
+    @Override
+    public Table copy(int[] iaRows) {
+        return getSubset(iaRows);
+    }
+
+    @Override
+    public Table shallowCopy() {
+        return copy();
+    }
+
+    //
+    // Modifications, made on the copy
+    //
+
+    @Override
+    public void setColumnLabel(String sLabel, int iCol) {
+        materialize();
+        super.setColumnLabel(sLabel, iCol);
+    }
+
+    @Override
+    public void setColumnComment(String sComment, int iCol) {
+        materialize();
+        super.setColumnComment(sComment, iCol);
+    }
+
+    @Override
+    public void setColumnIsNominal(boolean bValue, int iCol) {
+        materialize();
+        super.setColumnIsNominal(bValue, iCol);
+    }
+
+    @Override
+    public void setColumnIsScalar(boolean bValue, int iCol) {
+        materialize();
+        super.setColumnIsScalar(bValue, iCol);
+    }
+
+    @Override
+    public void addRows(int iNumber) {
+        materialize();
+        super.addRows(iNumber);
+    }
+
+    @Override
+    public void setObject(Object value, int iRow, int iCol) {
+        materialize();
+        super.setObject(value, iRow, iCol);
+    }
+
+    @Override
+    public void setInt(int value, int iRow, int iCol) {
+        materialize();
+        super.setInt(value, iRow, iCol);
+    }
+
+    @Override
+    public void setShort(short value, int iRow, int iCol) {
+        materialize();
+        super.setShort(value, iRow, iCol);
+    }
+
+    @Override
+    public void setLong(long value, int iRow, int iCol) {
+        materialize();
+        super.setLong(value, iRow, iCol);
+    }
+
+    @Override
+    public void setByte(byte value, int iRow, int iCol) {
+        materialize();
+        super.setByte(value, iRow, iCol);
+    }
+
+    @Override
+    public void setFloat(float value, int iRow, int iCol) {
+        materialize();
+        super.setFloat(value, iRow, iCol);
+    }
+
+    @Override
+    public void setDouble(double value, int iRow, int iCol) {
+        materialize();
+        super.setDouble(value, iRow, iCol);
+    }
+
+    @Override
+    public void setString(String value, int iRow, int iCol) {
+        materialize();
+        super.setString(value, iRow, iCol);
+    }
+
+    @Override
+    public void setBoolean(boolean value, int iRow, int iCol) {
+        materialize();
+        super.setBoolean(value, iRow, iCol);
+    }
+
+    @Override
+    public void setChar(char value, int iRow, int iCol) {
+        materialize();
+        super.setChar(value, iRow, iCol);
+    }
+
+    @Override
+    public void setChars(char[] value, int iRow, int iCol) {
+        materialize();
+        super.setChars(value, iRow, iCol);
+    }
+
+    @Override
+    public void setBytes(byte[] value, int iRow, int iCol) {
+        materialize();
+        super.setBytes(value, iRow, iCol);
+    }
+
+    @Override
+    public void setValueToMissing(boolean bMissing, int iRow, int iCol) {
+        materialize();
+        super.setValueToMissing(bMissing, iRow, iCol);
+    }
+
+    @Override
+    public void setValueToEmpty(boolean bEmpty, int iRow, int iCol) {
+        materialize();
+        super.setValueToEmpty(bEmpty, iRow, iCol);
+    }
+
+    @Override
+    public void addColumn(Column column) {
+        materialize();
+        super.addColumn(column);
+    }
+
+    @Override
+    public void addColumns(Column[] columns) {
+        materialize();
+        super.addColumns(columns);
+    }
+
+    @Override
+    public void insertColumn(Column column, int iPosition) {
+        materialize();
+        super.insertColumn(column, iPosition);
+    }
+
+    @Override
+    public void setColumn(Column column, int iPosition) {
+        materialize();
+        super.setColumn(column, iPosition);
+    }
+
+    @Override
+    public void removeColumn(int iPosition) {
+        materialize();
+        super.removeColumn(iPosition);
+    }
+
+    @Override
+    public void removeColumns(int iStart, int iLen) {
+        materialize();
+        super.removeColumns(iStart, iLen);
+    }
+
+    @Override
+    public void removeRow(int iRow) {
+        materialize();
+        super.removeRow(iRow);
+    }
+
+    @Override
+    public void removeRows(int iStart, int iLen) {
+        materialize();
+        super.removeRows(iStart, iLen);
+    }
+
+    @Override
+    public void swapRows(int iRow1, int iRow2) {
+        materialize();
+        super.swapRows(iRow1, iRow2);
+    }
+
+    @Override
+    public void swapColumns(int iCol1, int iCol2) {
+        materialize();
+        super.swapColumns(iCol1, iCol2);
+    }
+
+    @Override
+    public void sortByColumn(int iCol) {
+        materialize();
+        super.sortByColumn(iCol);
+    }
+
+    @Override
+    public String toString() {
+        return materialized ? super.toString() : "Table view of " + instances.relationName();
+    }
+}
@@ -1,238 +1,334 @@
-/**
- *
- * University of Illinois/NCSA
- * Open Source License
- *
- * Copyright  2008, NCSA.  All rights reserved.
- *
- * Developed by:
- * The Automated Learning Group
- * University of Illinois at Urbana-Champaign
- * http://www.seasr.org
- *
- * Permission is hereby granted, free of charge, to any person obtaining
- * a copy of this software and associated documentation files (the
- * "Software"), to deal with the Software without restriction, including
- * without limitation the rights to use, copy, modify, merge, publish,
- * distribute, sublicense, and/or sell copies of the Software, and to
- * permit persons to whom the Software is furnished to do so, subject
- * to the following conditions:
- *
- * Redistributions of source code must retain the above copyright
- * notice, this list of conditions and the following disclaimers.
- *
- * Redistributions in binary form must reproduce the above copyright
- * notice, this list of conditions and the following disclaimers in
- * the documentation and/or other materials provided with the distribution.
- *
- * Neither the names of The Automated Learning Group, University of
- * Illinois at Urbana-Champaign, nor the names of its contributors may
- * be used to endorse or promote products derived from this Software
- * without specific prior written permission.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
- * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
- * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
- * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
- * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
- * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
- * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
- *
- */
-
-package org.seasr.meandre.components.weka.io;
-
-import org.meandre.core.ComponentContext;
-import org.meandre.core.ComponentContextException;
-import org.meandre.core.ComponentExecutionException;
-import org.meandre.core.ComponentContextProperties;
-import org.meandre.core.ExecutableComponent;
-
-import org.meandre.annotations.Component;
-import org.meandre.annotations.ComponentInput;
-import org.meandre.annotations.ComponentOutput;
-import org.meandre.annotations.ComponentProperty;
-
-import weka.core.Instances;
-import weka.core.Instance;
-import weka.core.Attribute;
-
-import org.meandre.components.datatype.table.*;
-import org.meandre.components.datatype.table.Column;
-import org.meandre.components.datatype.table.basic.StringColumn;
-import org.meandre.components.datatype.table.basic.FloatColumn;
-import org.meandre.components.datatype.table.basic.MutableTableImpl;
-
-import java.util.Enumeration;
-import java.util.StringTokenizer;
-import java.util.logging.Logger;
-import java.util.logging.Level;
-
-/**
- * <p>
- * Title: Instances to Table
- * </p>
- *
- * <p>
- * Description: This executable component converts Instances to Table.
- * </p>
- *
- * <p>
- * Copyright: Copyright (c) 2008
- * </p>
- *
- * <p>
- * Company: Automated Learning Group, NCSA
- * </p>
- *
- * @author Lily Dong
- * @version 1.0
- */
-
-@Component(creator="Lily Dong",
-           description="Convert a weka.core.Instances to a ncsa.d2k.modules.core.datatype.table.Table. " +
-           "The attribtes and instnace held by instances are mapped into rows and columns in table. " +
-           "The current version works only weka.core.Attribute whose type is string or float. The property " +
-           "verbose is used to control whether the converted table is output to the console. " +
-           "The value of verbose can be specified through property setting.",
-           name="InstancesToTable",
-           tags="conversion, instances, table")
-
-public class InstancesToTable implements ExecutableComponent {
-    @ComponentInput(description="Read weka.core.Instances as input.",
-                    name= "instances")
-    public final static String DATA_INPUT = "instances";
-
-    @ComponentOutput(description="Output org.meandre.components.datatype.table.Table converted from weka.core.Instances.",
-                     name="table")
-    public final static String DATA_OUTPUT = "table";
-
-    @ComponentProperty(defaultValue="true",
-                       description="Control whether debugging information is output to the console.",
-                       name="verbose")
-    final static String DATA_PROPERTY = "verbose";
-
-    private boolean verbose = true;
-
-    /**
-     * Called when a flow is started.
-     *
-     * @param ccp ComponentContextProperties
-     */
-    public void initialize(ComponentContextProperties ccp) {
-    }
-
-    /**
-    * When ready for execution.
-    *
-    * @param cc ComponentContext
-    * @throws ComponentExecutionException
-    * @throws ComponentContextException
-    */
-    public void execute(ComponentContext cc)
-            throws ComponentExecutionException, ComponentContextException {
-        Logger logger = cc.getLogger();
-        try {
-            verbose = Boolean.valueOf(cc.getProperty(DATA_PROPERTY));
-
-            Instances instances = (Instances) (cc.getDataComponentFromInput(DATA_INPUT));
-
-            int nr_instances = instances.numInstances();
-            if(verbose)
-                logger.log(Level.INFO, "the number of instances  = " + nr_instances);
-
-            int nr_attributes = instances.numAttributes();
-            if(verbose)
-                logger.log(Level.INFO, "the number of attributes = " + nr_attributes);
-
-            Enumeration all_instances = instances.enumerateInstances();
-
-            int[] type = new int[nr_attributes]; //storing attribute type
-            Column[] schema = new Column[nr_attributes];
-
-            for (int i = 0; i < nr_attributes; i++) {
-                Attribute single_attribute = instances.attribute(i);
-                if (single_attribute.type() == 0) //float column
-                    type[i] = 0;
-                else //otherwise string column
-                    type[i] = 1;
-            }
-
-            for (int i = 0; i < type.length; i++) {
-                if (type[i] == 0)
-                    schema[i] = new FloatColumn();
-                else {
-                    StringColumn sc = new StringColumn();
-                    schema[i] = new StringColumn();
-                }
-            }
-            MutableTableImpl table = new MutableTableImpl(schema);
-
-            for (int i = 0; i < nr_attributes; i++) {
-                Attribute single_attribute = instances.attribute(i);
-                table.setColumnLabel(single_attribute.name(), i);
-            }
-
-            table.addRows(nr_instances); //-1 means skipping one line of string string float float... for csv file, but for arff file, one line missing
-
-            int row = 0;
-            all_instances.nextElement(); //skip one line of string string float float... for csv file, but for arff file, one line missing
-            while (all_instances.hasMoreElements()) {
-                int col = 0;
-                Instance instance = (Instance) all_instances.nextElement();
-                if(verbose)
-                    logger.log(Level.INFO, instance.toString());
-                    //System.out.println(instance.toString());
-                StringTokenizer tokenizer = new StringTokenizer(instance.toString(), ",");
-                while (tokenizer.hasMoreTokens()) {
-                    String token = tokenizer.nextToken();
-                    if (type[col] == 0) { //float
-                        if (token.compareTo("?") != 0) { //? means empty
-                            table.setFloat(Float.valueOf(token), row, col);
-                        }
-                    } else { //string
-                        table.setString(token, row, col);
-                    }
-                    ++col;
-                }
-                ++row;
-            }
-
-            if(verbose) {
-                logger.log(Level.INFO, "the number of table columns = " + table.getNumColumns());
-                logger.log(Level.INFO, "the number of table rows = " + table.getNumRows());
-                //System.out.println("the number of table columns = " + table.getNumColumns());
-                //System.out.println("the number of table rows = " + table.getNumRows());
-                for (int j = 0; j < table.getNumColumns(); j++) {
-                    for (int i = 0; i < table.getNumRows(); i++) {
-                        if (table.isColumnNumeric(j))
-                            logger.log(Level.INFO, table.getFloat(i, j) +
-                                             ((i != table.getNumRows()) ? " " : "\n"));
-                            /*System.out.print(table.getFloat(i, j) +
-                                             ((i != table.getNumRows()) ? " " : "\n"));*/
-                        else
-                            logger.log(Level.INFO, table.getString(i, j) +
-                                       ((i != table.getNumRows()) ? " " : "\n"));
-                            /*System.out.print(table.getString(i, j) +
-                                             ((i != table.getNumRows()) ? " " :
-                                              "\n"));*/
-                    }
-                    //System.out.println();
-                }
-            }
-
-            cc.pushDataComponentToOutput(DATA_OUTPUT, table);
-        } catch (Exception e1) {
-            throw new ComponentExecutionException(e1);
-        }
-    }
-
-    /**
-     * Called at the end of an execution flow.
-     *
-     * @param ccp ComponentContextProperties
-     */
-    public void dispose(ComponentContextProperties ccp) {
-        // TODO Auto-generated method stub
-    }
-}
+/**
+ *
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ *
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ *
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ *
+ */
+
+package org.seasr.meandre.components.weka.io;
+
+import org.meandre.core.ComponentContext;
+import org.meandre.core.ComponentContextException;
+import org.meandre.core.ComponentExecutionException;
+import org.meandre.core.ComponentContextProperties;
+import org.meandre.core.ExecutableComponent;
+
+import org.meandre.annotations.Component;
+import org.meandre.annotations.ComponentInput;
+import org.meandre.annotations.ComponentOutput;
+import org.meandre.annotations.ComponentProperty;
+
+import weka.core.Instances;
+import weka.core.Instance;
+import weka.core.Attribute;
+
+import org.meandre.components.datatype.table.*;
+import org.meandre.components.datatype.table.Column;
+import org.meandre.components.datatype.table.basic.StringColumn;
+import org.meandre.components.datatype.table.basic.FloatColumn;
+import org.meandre.components.datatype.table.basic.MutableTableImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * <p>
+ * Title: Instances to Table
+ * </p>
+ *
+ * <p>
+ * Description: This executable component converts Instances to Table.
+ * </p>
+ *
+ * <p>
+ * Copyright: Copyright (c) 2008
+ * </p>
+ *
+ * <p>
+ * Company: Automated Learning Group, NCSA
+ * </p>
+ *
+ * @author Lily Dong
+ * @version 1.0
+ */
+
+@Component(creator="Lily Dong",
+           description="Convert a weka.core.Instances to a ncsa.d2k.modules.core.datatype.table.Table. " +
+           "The attribtes and instnace held by instances are mapped into rows and columns in table. " +
+           "Numeric attributes become float columns, nominal, string and date attributes become string " +
+           "columns holding the value labels and formatted dates, and missing values are flagged as " +
+           "missing in the table. The columns are filled in parallel. The property " +
+           "verbose is used to control whether the converted table is output to the console. " +
+           "The value of verbose can be specified through property setting.",
+           name="InstancesToTable",
+           tags="conversion, instances, table")
+
+public class InstancesToTable implements ExecutableComponent {
+    @ComponentInput(description="Read weka.core.Instances as input.",
+                    name= "instances")
+    public final static String DATA_INPUT = "instances";
+
+    @ComponentOutput(description="Output org.meandre.components.datatype.table.Table converted from weka.core.Instances.",
+                     name="table")
+    public final static String DATA_OUTPUT = "table";
+
+    @ComponentProperty(defaultValue="true",
+                       description="Control whether debugging information is output to the console.",
+                       name="verbose")
+    final static String DATA_PROPERTY = "verbose";
+
+    @ComponentProperty(defaultValue="0",
+                       description="The number of threads filling columns, 0 uses one thread per processor.",
+                       name="threads")
+    final static String DATA_PROPERTY_THREADS = "threads";
+
+    @ComponentProperty(defaultValue="false",
+                       description="Output a table answering reads from the instances instead of a " +
+                       "copy of them. The instances are copied into the table the first time a " +
+                       "consumer modifies it.",
+                       name="view")
+    final static String DATA_PROPERTY_VIEW = "view";
+
+    private boolean verbose = true;
+
+    /**
+     * Called when a flow is started.
+     *
+     * @param ccp ComponentContextProperties
+     */
+    public void initialize(ComponentContextProperties ccp) {
+    }
+
+    /**
+    * When ready for execution.
+    *
+    * @param cc ComponentContext
+    * @throws ComponentExecutionException
+    * @throws ComponentContextException
+    */
+    public void execute(ComponentContext cc)
+            throws ComponentExecutionException, ComponentContextException {
+        Logger logger = cc.getLogger();
+        try {
+            verbose = Boolean.valueOf(cc.getProperty(DATA_PROPERTY));
+
+            Instances instances = (Instances) (cc.getDataComponentFromInput(DATA_INPUT));
+
+            int nr_instances = instances.numInstances();
+            if(verbose)
+                logger.log(Level.INFO, "the number of instances  = " + nr_instances);
+
+            int nr_attributes = instances.numAttributes();
+            if(verbose)
+                logger.log(Level.INFO, "the number of attributes = " + nr_attributes);
+
+            Table table;
+            if (Boolean.valueOf(cc.getProperty(DATA_PROPERTY_VIEW).trim()))
+                table = new InstancesTableView(instances);
+            else
+                table = toTable(instances, Integer.parseInt(cc.getProperty(DATA_PROPERTY_THREADS).trim()));
+
+            if(verbose)
+                for (int row = 0; row < nr_instances; row++)
+                    logger.log(Level.INFO, instances.instance(row).toString());
+
+            if(verbose) {
+                logger.log(Level.INFO, "the number of table columns = " + table.getNumColumns());
+                logger.log(Level.INFO, "the number of table rows = " + table.getNumRows());
+                //System.out.println("the number of table columns = " + table.getNumColumns());
+                //System.out.println("the number of table rows = " + table.getNumRows());
+                for (int j = 0; j < table.getNumColumns(); j++) {
+                    for (int i = 0; i < table.getNumRows(); i++) {
+                        if (table.isColumnNumeric(j))
+                            logger.log(Level.INFO, table.getFloat(i, j) +
+                                             ((i != table.getNumRows()) ? " " : "\n"));
+                            /*System.out.print(table.getFloat(i, j) +
+                                             ((i != table.getNumRows()) ? " " : "\n"));*/
+                        else
+                            logger.log(Level.INFO, table.getString(i, j) +
+                                       ((i != table.getNumRows()) ? " " : "\n"));
+                            /*System.out.print(table.getString(i, j) +
+                                             ((i != table.getNumRows()) ? " " :
+                                              "\n"));*/
+                    }
+                    //System.out.println();
+                }
+            }
+
+            cc.pushDataComponentToOutput(DATA_OUTPUT, table);
+        } catch (Exception e1) {
+            throw new ComponentExecutionException(e1);
+        }
+    }
+
+    /**
+     * Copies instances into a table, filling the columns on nr_threads
+     * threads.
+     *
+     * @param instances Instances to copy
+     * @param nr_threads the number of threads, 0 for one per processor
+     * @return the table
+     * @throws Exception a column cannot be filled
+     */
+    static MutableTableImpl toTable(Instances instances, int nr_threads) throws Exception {
+        int nr_attributes = instances.numAttributes();
+        Column[] schema = new Column[nr_attributes];
+
+        if (nr_threads <= 0)
+            nr_threads = Runtime.getRuntime().availableProcessors();
+        nr_threads = Math.min(nr_threads, nr_attributes);
+
+        if (nr_threads <= 1) {
+            for (int i = 0; i < nr_attributes; i++)
+                schema[i] = toColumn(instances, i);
+        } else {
+            //each column is filled by a single task, so no two threads share an attribute
+            final Instances data = instances;
+            ExecutorService pool = Executors.newFixedThreadPool(nr_threads);
+            try {
+                List<Future<Column>> columns = new ArrayList<Future<Column>>(nr_attributes);
+                for (int i = 0; i < nr_attributes; i++) {
+                    final int col = i;
+                    columns.add(pool.submit(new Callable<Column>() {
+                        public Column call() {
+                            return toColumn(data, col);
+                        }
+                    }));
+                }
+                for (int i = 0; i < nr_attributes; i++)
+                    schema[i] = columns.get(i).get();
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        MutableTableImpl table = new MutableTableImpl(schema);
+
+        for (int i = 0; i < nr_attributes; i++) {
+            Attribute single_attribute = instances.attribute(i);
+            table.setColumnLabel(single_attribute.name(), i);
+        }
+
+        return table;
+    }
+
+    /**
+     * Copies the values of one attribute into a column. Numeric values go to
+     * a float column, the labels of nominal and string values and the
+     * formatted dates to a string column. Missing values are stored as 0 or
+     * "?" and flagged as missing.
+     *
+     * @param instances Instances to read
+     * @param col index of the attribute
+     * @return the filled column
+     */
+    static Column toColumn(Instances instances, int col) {
+        Attribute attribute = instances.attribute(col);
+        int nr_instances = instances.numInstances();
+        boolean[] missing = null;
+
+        Column column;
+        if (attribute.isNumeric()) {
+            float[] values = new float[nr_instances];
+            for (int row = 0; row < nr_instances; row++) {
+                double value = instances.instance(row).value(col);
+                if (Instance.isMissingValue(value)) {
+                    if (missing == null)
+                        missing = new boolean[nr_instances];
+                    missing[row] = true;
+                } else
+                    values[row] = (float) value;
+            }
+            column = new FloatColumn(values);
+        } else {
+            String[] values = new String[nr_instances];
+            for (int row = 0; row < nr_instances; row++) {
+                Instance instance = instances.instance(row);
+                if (instance.isMissing(col)) {
+                    if (missing == null)
+                        missing = new boolean[nr_instances];
+                    missing[row] = true;
+                }
+                values[row] = stringValue(attribute, instance, col);
+            }
+            column = new StringColumn(values);
+        }
+
+        if (missing != null)
+            for (int row = 0; row < nr_instances; row++)
+                if (missing[row])
+                    column.setValueToMissing(true, row);
+        return column;
+    }
+
+    /**
+     * Returns the text stored in a string column for a value: the label of
+     * nominal and string values, the formatted date, or "?" when missing.
+     *
+     * @param attribute the attribute of the column
+     * @param instance the instance holding the value
+     * @param col index of the attribute
+     * @return the text of the value
+     */
+    static String stringValue(Attribute attribute, Instance instance, int col) {
+        double value = instance.value(col);
+        if (Instance.isMissingValue(value))
+            return "?";
+        else if (attribute.isNominal() || attribute.isString())
+            return attribute.value((int) value);
+        else if (attribute.isDate())
+            return attribute.formatDate(value);
+        else
+            return instance.stringValue(col);
+    }
+
+    /**
+     * Called at the end of an execution flow.
+     *
+     * @param ccp ComponentContextProperties
+     */
+    public void dispose(ComponentContextProperties ccp) {
+        // TODO Auto-generated method stub
+    }
+}
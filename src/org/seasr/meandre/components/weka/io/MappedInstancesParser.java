@@ -0,0 +1,735 @@
+/**
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ * 
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ * 
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ */
+
+package org.seasr.meandre.components.weka.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * <p>
+ * Title: Mapped Instances Parser
+ * </p>
+ *
+ * <p>
+ * Description: Loads a local CSV or ARFF file by memory mapping it, splitting
+ * the data section at line boundaries and parsing the pieces concurrently.
+ * Numbers are converted with FastNumberParser and nominal values are looked up
+ * straight from the mapped bytes.
+ * </p>
+ *
+ * <p>
+ * Only the plain dense layout is handled: quoted values, sparse rows, instance
+ * weights and string, date or relational attributes raise an
+ * UnsupportedFormatException so the caller can fall back to the regular Weka
+ * loaders. CSV columns are numeric when every value is a number and nominal
+ * otherwise; nominal values are listed in order of first appearance.
+ * </p>
+ *
+ * <p>
+ * Copyright: Copyright (c) 2008
+ * </p>
+ *
+ * <p>
+ * Company: Automated Learning Group, NCSA
+ * </p>
+ *
+ * @version 1.0
+ */
+public class MappedInstancesParser {
+
+    /** Raised when the file uses a feature this parser does not handle */
+    public static class UnsupportedFormatException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public UnsupportedFormatException(String message) {
+            super(message);
+        }
+    }
+
+    /** Smallest piece of the data section handed to a thread */
+    private static final long MIN_CHUNK = 1L << 20;
+
+    /** Largest piece of the data section handed to a thread */
+    private static final long MAX_CHUNK = 1L << 28;
+
+    /** The file to parse */
+    private final File file;
+
+    /** The number of threads used for parsing */
+    private final int numThreads;
+
+    /** Whether the file is ARFF (true) or CSV (false) */
+    private final boolean arff;
+
+    /** The dictionary of the names and values, or null */
+    private final StringDictionary dictionary;
+
+    /**
+     * Creates a parser for a local file.
+     *
+     * @param file The CSV or ARFF file
+     * @param numThreads The number of parsing threads, 0 for one per processor
+     */
+    public MappedInstancesParser(File file, int numThreads) {
+        this(file, numThreads, null);
+    }
+
+    /**
+     * Creates a parser for a local file, taking the relation name, attribute
+     * names and nominal values from a dictionary.
+     *
+     * @param file The CSV or ARFF file
+     * @param numThreads The number of parsing threads, 0 for one per processor
+     * @param dictionary The dictionary of shared strings, or null
+     */
+    public MappedInstancesParser(File file, int numThreads, StringDictionary dictionary) {
+        this.file = file;
+        this.numThreads = (numThreads > 0) ? numThreads : Runtime.getRuntime().availableProcessors();
+        this.arff = file.getName().toLowerCase().endsWith(".arff");
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Tells whether a file name has an extension this parser handles.
+     *
+     * @param fileName The file name
+     * @return True for .csv and .arff files
+     */
+    public static boolean canParse(String fileName) {
+        String s = fileName.toLowerCase();
+        return s.endsWith(".csv") || s.endsWith(".arff");
+    }
+
+    /**
+     * Parses the whole file.
+     *
+     * @return The instances held in the file
+     * @throws UnsupportedFormatException The file needs one of the regular loaders
+     * @throws IOException The file could not be read or is malformed
+     */
+    public Instances parse() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel();
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            long dataStart = readHeader(channel, header);
+            List<MappedByteBuffer> chunks = map(channel, dataStart, channel.size());
+
+            return arff ? parseArff(header, chunks, pool) : parseCSV(header, chunks, pool);
+        }
+        finally {
+            pool.shutdownNow();
+            channel.close();
+            raf.close();
+        }
+    }
+
+    //
+    // ARFF
+    //
+
+    /**
+     * Parses the data section of an ARFF file in one concurrent pass.
+     */
+    private Instances parseArff(ByteArrayOutputStream header, List<MappedByteBuffer> chunks,
+                                ExecutorService pool) throws IOException {
+        Instances structure = internHeader(new Instances(new InputStreamReader(
+                new ByteArrayInputStream(header.toByteArray()), "UTF-8")));
+
+        final int numAtts = structure.numAttributes();
+        final TokenDictionary[] nominal = new TokenDictionary[numAtts];
+        for (int i = 0; i < numAtts; i++) {
+            Attribute att = structure.attribute(i);
+            if (att.isNominal()) {
+                nominal[i] = new TokenDictionary();
+                for (int j = 0; j < att.numValues(); j++)
+                    nominal[i].add(att.value(j).getBytes("UTF-8"));
+            }
+            else if (!att.isNumeric())
+                throw new UnsupportedFormatException("Attribute " + att.name() +
+                        " is neither numeric nor nominal");
+        }
+
+        List<Callable<List<Instance>>> tasks = new ArrayList<Callable<List<Instance>>>();
+        for (final MappedByteBuffer buf : chunks) {
+            tasks.add(new Callable<List<Instance>>() {
+                public List<Instance> call() throws IOException {
+                    final List<Instance> rows = new ArrayList<Instance>();
+                    scanRows(buf, numAtts, new RowHandler() {
+                        public void row(ByteBuffer b, int[] starts, int[] ends) throws IOException {
+                            double[] vals = new double[numAtts];
+                            for (int i = 0; i < numAtts; i++) {
+                                int s = starts[i], e = ends[i];
+                                if (isMissing(b, s, e))
+                                    vals[i] = Instance.missingValue();
+                                else if (nominal[i] == null)
+                                    vals[i] = FastNumberParser.parse(b, s, e);
+                                else {
+                                    int iIndex = nominal[i].find(b, s, e);
+                                    if (iIndex < 0)
+                                        throw new IOException("Undeclared nominal value '" +
+                                                decode(b, s, e) + "' for attribute " + (i + 1));
+                                    vals[i] = iIndex;
+                                }
+                            }
+                            rows.add(new Instance(1.0, vals));
+                        }
+                    });
+                    return rows;
+                }
+            });
+        }
+
+        List<List<Instance>> results = runAll(pool, tasks);
+
+        int iNumRows = 0;
+        for (List<Instance> rows : results)
+            iNumRows += rows.size();
+
+        Instances instances = new Instances(structure, iNumRows);
+        for (List<Instance> rows : results)
+            for (Instance inst : rows)
+                instances.add(inst);
+        return instances;
+    }
+
+    /**
+     * Rebuilds the numeric and nominal attributes Weka read from an ARFF
+     * header with the strings of the dictionary, if there is one.
+     */
+    private Instances internHeader(Instances structure) {
+        if (dictionary == null)
+            return structure;
+
+        FastVector fvAtts = new FastVector(structure.numAttributes());
+        for (int i = 0; i < structure.numAttributes(); i++) {
+            Attribute att = structure.attribute(i);
+            String sName = dictionary.intern(att.name());
+            if (att.isNominal()) {
+                FastVector fvValues = new FastVector(att.numValues());
+                for (int j = 0; j < att.numValues(); j++)
+                    fvValues.addElement(dictionary.intern(att.value(j)));
+                fvAtts.addElement(new Attribute(sName, fvValues));
+            }
+            else if (att.isDate())
+                fvAtts.addElement(new Attribute(sName, att.getDateFormat()));
+            else
+                fvAtts.addElement(new Attribute(sName));
+        }
+        return new Instances(dictionary.intern(structure.relationName()), fvAtts, 0);
+    }
+
+    //
+    // CSV
+    //
+
+    /**
+     * Parses the data section of a CSV file. A first concurrent pass finds out
+     * which columns are numeric; a second one parses the values, coding
+     * nominal values against a dictionary per piece. The dictionaries are then
+     * merged in file order and the codes remapped.
+     */
+    private Instances parseCSV(ByteArrayOutputStream header, List<MappedByteBuffer> chunks,
+                               ExecutorService pool) throws IOException {
+        String[] saNames = splitHeader(header.toString("UTF-8"));
+        final int numAtts = saNames.length;
+
+        // Pass 1: column types
+        List<Callable<boolean[]>> typeTasks = new ArrayList<Callable<boolean[]>>();
+        for (final MappedByteBuffer buf : chunks) {
+            typeTasks.add(new Callable<boolean[]>() {
+                public boolean[] call() throws IOException {
+                    final boolean[] numeric = new boolean[numAtts];
+                    Arrays.fill(numeric, true);
+                    scanRows(buf, numAtts, new RowHandler() {
+                        public void row(ByteBuffer b, int[] starts, int[] ends) {
+                            for (int i = 0; i < numAtts; i++)
+                                if (numeric[i] && !isMissing(b, starts[i], ends[i]) &&
+                                    !FastNumberParser.isNumber(b, starts[i], ends[i]))
+                                    numeric[i] = false;
+                        }
+                    });
+                    return numeric;
+                }
+            });
+        }
+        final boolean[] numeric = new boolean[numAtts];
+        Arrays.fill(numeric, true);
+        for (boolean[] chunkNumeric : runAll(pool, typeTasks))
+            for (int i = 0; i < numAtts; i++)
+                numeric[i] &= chunkNumeric[i];
+
+        // Pass 2: values, with nominal values coded per chunk
+        List<Callable<CSVChunk>> valueTasks = new ArrayList<Callable<CSVChunk>>();
+        for (final MappedByteBuffer buf : chunks) {
+            valueTasks.add(new Callable<CSVChunk>() {
+                public CSVChunk call() throws IOException {
+                    final CSVChunk chunk = new CSVChunk(numAtts, numeric);
+                    scanRows(buf, numAtts, new RowHandler() {
+                        public void row(ByteBuffer b, int[] starts, int[] ends) {
+                            double[] vals = new double[numAtts];
+                            for (int i = 0; i < numAtts; i++) {
+                                int s = starts[i], e = ends[i];
+                                if (isMissing(b, s, e))
+                                    vals[i] = Instance.missingValue();
+                                else if (numeric[i])
+                                    vals[i] = FastNumberParser.parse(b, s, e);
+                                else
+                                    vals[i] = chunk.dictionaries[i].add(b, s, e);
+                            }
+                            chunk.rows.add(vals);
+                        }
+                    });
+                    return chunk;
+                }
+            });
+        }
+        List<CSVChunk> results = runAll(pool, valueTasks);
+
+        // Merge the dictionaries in file order
+        TokenDictionary[] global = new TokenDictionary[numAtts];
+        for (int i = 0; i < numAtts; i++)
+            if (!numeric[i])
+                global[i] = new TokenDictionary();
+
+        int iNumRows = 0;
+        for (CSVChunk chunk : results) {
+            iNumRows += chunk.rows.size();
+            for (int i = 0; i < numAtts; i++) {
+                if (numeric[i])
+                    continue;
+                TokenDictionary local = chunk.dictionaries[i];
+                chunk.remap[i] = new int[local.size()];
+                for (int j = 0; j < local.size(); j++)
+                    chunk.remap[i][j] = global[i].add(local.key(j));
+            }
+        }
+
+        // Remap the codes and wrap the rows
+        List<Callable<List<Instance>>> wrapTasks = new ArrayList<Callable<List<Instance>>>();
+        for (final CSVChunk chunk : results) {
+            wrapTasks.add(new Callable<List<Instance>>() {
+                public List<Instance> call() {
+                    List<Instance> rows = new ArrayList<Instance>(chunk.rows.size());
+                    for (double[] vals : chunk.rows) {
+                        for (int i = 0; i < numAtts; i++)
+                            if (!numeric[i] && !Instance.isMissingValue(vals[i]))
+                                vals[i] = chunk.remap[i][(int) vals[i]];
+                        rows.add(new Instance(1.0, vals));
+                    }
+                    chunk.rows = null;
+                    return rows;
+                }
+            });
+        }
+        List<List<Instance>> wrapped = runAll(pool, wrapTasks);
+
+        FastVector fvAtts = new FastVector(numAtts);
+        for (int i = 0; i < numAtts; i++) {
+            if (numeric[i])
+                fvAtts.addElement(new Attribute(StringDictionary.intern(dictionary, saNames[i])));
+            else {
+                FastVector fvValues = new FastVector(global[i].size());
+                for (int j = 0; j < global[i].size(); j++)
+                    fvValues.addElement(StringDictionary.intern(dictionary, new String(global[i].key(j), "UTF-8")));
+                fvAtts.addElement(new Attribute(StringDictionary.intern(dictionary, saNames[i]), fvValues));
+            }
+        }
+
+        String sRelation = file.getName();
+        int iDot = sRelation.lastIndexOf('.');
+        Instances instances = new Instances(StringDictionary.intern(dictionary, sRelation.substring(0, iDot)),
+                                            fvAtts, iNumRows);
+        for (List<Instance> rows : wrapped)
+            for (Instance inst : rows)
+                instances.add(inst);
+        return instances;
+    }
+
+    /** The values parsed from one piece of a CSV file */
+    private static class CSVChunk {
+        List<double[]> rows = new ArrayList<double[]>();
+        final TokenDictionary[] dictionaries;
+        final int[][] remap;
+
+        CSVChunk(int numAtts, boolean[] numeric) {
+            dictionaries = new TokenDictionary[numAtts];
+            remap = new int[numAtts][];
+            for (int i = 0; i < numAtts; i++)
+                if (!numeric[i])
+                    dictionaries[i] = new TokenDictionary();
+        }
+    }
+
+    /**
+     * Splits the CSV header line into attribute names.
+     */
+    private static String[] splitHeader(String sLine) throws UnsupportedFormatException {
+        if (sLine.indexOf('"') >= 0 || sLine.indexOf('\'') >= 0)
+            throw new UnsupportedFormatException("Quoted attribute names");
+
+        String[] saNames = sLine.trim().split(",", -1);
+        for (int i = 0; i < saNames.length; i++)
+            saNames[i] = saNames[i].trim();
+        return saNames;
+    }
+
+    //
+    // Scanning
+    //
+
+    /** Receives the fields of each data row */
+    private interface RowHandler {
+        void row(ByteBuffer buf, int[] starts, int[] ends) throws IOException;
+    }
+
+    /**
+     * Splits a mapped piece of the data section into lines and fields, and
+     * hands every data row to the handler. Blank lines and, for ARFF files,
+     * comment lines are skipped.
+     */
+    private void scanRows(ByteBuffer buf, int numAtts, RowHandler handler) throws IOException {
+        int[] starts = new int[numAtts];
+        int[] ends = new int[numAtts];
+        int iLimit = buf.limit();
+        int iPos = 0;
+
+        while (iPos < iLimit) {
+            int iLineEnd = iPos;
+            while (iLineEnd < iLimit && buf.get(iLineEnd) != '\n')
+                iLineEnd++;
+            int iNext = iLineEnd + 1;
+            if (iLineEnd > iPos && buf.get(iLineEnd - 1) == '\r')
+                iLineEnd--;
+
+            int iFirst = skipBlanks(buf, iPos, iLineEnd);
+            if (iFirst == iLineEnd || (arff && buf.get(iFirst) == '%')) {
+                iPos = iNext;
+                continue;
+            }
+            if (buf.get(iFirst) == '{')
+                throw new UnsupportedFormatException("Sparse rows");
+
+            int iField = 0;
+            int iStart = iPos;
+            for (int i = iPos; i <= iLineEnd; i++) {
+                byte c = (i < iLineEnd) ? buf.get(i) : (byte) ',';
+                if (c == '\'' || c == '"')
+                    throw new UnsupportedFormatException("Quoted values");
+                if (c == '{')
+                    throw new UnsupportedFormatException("Instance weights");
+                if (c != ',')
+                    continue;
+
+                if (iField >= numAtts)
+                    throw new IOException("Too many values in row: " + decode(buf, iPos, iLineEnd));
+                int s = skipBlanks(buf, iStart, i);
+                int e = i;
+                while (e > s && isBlank(buf.get(e - 1)))
+                    e--;
+                starts[iField] = s;
+                ends[iField] = e;
+                iField++;
+                iStart = i + 1;
+            }
+            if (iField != numAtts)
+                throw new IOException("Too few values in row: " + decode(buf, iPos, iLineEnd));
+
+            handler.row(buf, starts, ends);
+            iPos = iNext;
+        }
+    }
+
+    private static int skipBlanks(ByteBuffer buf, int i, int end) {
+        while (i < end && isBlank(buf.get(i)))
+            i++;
+        return i;
+    }
+
+    private static boolean isBlank(byte c) {
+        return c == ' ' || c == '\t';
+    }
+
+    /** Missing values are written as ? or left empty */
+    private static boolean isMissing(ByteBuffer buf, int s, int e) {
+        return s == e || (e - s == 1 && buf.get(s) == '?');
+    }
+
+    private static String decode(ByteBuffer buf, int s, int e) {
+        byte[] ba = new byte[e - s];
+        for (int i = s; i < e; i++)
+            ba[i - s] = buf.get(i);
+        try {
+            return new String(ba, "UTF-8");
+        }
+        catch (UnsupportedEncodingException ex) {
+            return new String(ba);
+        }
+    }
+
+    //
+    // Mapping
+    //
+
+    /**
+     * Reads the header: the attribute names line of a CSV file, or everything
+     * up to and including the @data line of an ARFF file.
+     *
+     * @return The offset where the data section starts
+     */
+    private long readHeader(FileChannel channel, ByteArrayOutputStream header) throws IOException {
+        InputStream in = new BufferedInputStream(Channels.newInputStream(channel.position(0)), 65536);
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        long lOffset = 0;
+
+        while (true) {
+            line.reset();
+            int c;
+            while ((c = in.read()) >= 0) {
+                lOffset++;
+                line.write(c);
+                if (c == '\n')
+                    break;
+            }
+            if (line.size() == 0)
+                throw new IOException("No data found in " + file);
+
+            line.writeTo(header);
+            if (!arff || line.toString("UTF-8").trim().toLowerCase().startsWith("@data"))
+                return lOffset;
+        }
+    }
+
+    /**
+     * Maps the data section in pieces that end at line boundaries.
+     */
+    private List<MappedByteBuffer> map(FileChannel channel, long lStart, long lEnd) throws IOException {
+        long lTarget = (lEnd - lStart) / (numThreads * 4L);
+        lTarget = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, lTarget));
+
+        List<MappedByteBuffer> chunks = new ArrayList<MappedByteBuffer>();
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        long s = lStart;
+        while (s < lEnd) {
+            long e = Math.min(s + lTarget, lEnd);
+
+            // Move the end right after the next line break
+            while (e < lEnd) {
+                probe.clear();
+                int n = channel.read(probe, e);
+                if (n <= 0) {
+                    e = lEnd;
+                    break;
+                }
+                int k = 0;
+                while (k < n && probe.get(k) != '\n')
+                    k++;
+                if (k < n) {
+                    e += k + 1;
+                    break;
+                }
+                e += n;
+            }
+
+            if (e - s > Integer.MAX_VALUE)
+                throw new UnsupportedFormatException("Line too long");
+            chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, s, e - s));
+            s = e;
+        }
+        return chunks;
+    }
+
+    /**
+     * Runs the tasks on the pool and returns their results in order.
+     */
+    private static <T> List<T> runAll(ExecutorService pool, List<Callable<T>> tasks) throws IOException {
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        for (Callable<T> task : tasks)
+            futures.add(pool.submit(task));
+
+        List<T> results = new ArrayList<T>(tasks.size());
+        try {
+            for (Future<T> future : futures)
+                results.add(future.get());
+        }
+        catch (InterruptedException e) {
+            throw new IOException("Interrupted while parsing");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        }
+        finally {
+            for (Future<T> future : futures)
+                future.cancel(true);
+        }
+        return results;
+    }
+
+    //
+    // Dictionary
+    //
+
+    /**
+     * An open addressing hash table of byte strings, so that tokens can be
+     * looked up in place in the mapped buffer.
+     */
+    private static final class TokenDictionary {
+        private int[] table = newTable(16);
+        private byte[][] keys = new byte[8][];
+        private int[] hashes = new int[8];
+        private int size = 0;
+
+        int size() {
+            return size;
+        }
+
+        byte[] key(int index) {
+            return keys[index];
+        }
+
+        int find(ByteBuffer buf, int s, int e) {
+            int h = hash(buf, s, e);
+            int mask = table.length - 1;
+            for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+                int index = table[slot];
+                if (index < 0)
+                    return -1;
+                if (hashes[index] == h && equal(keys[index], buf, s, e))
+                    return index;
+            }
+        }
+
+        int add(ByteBuffer buf, int s, int e) {
+            int index = find(buf, s, e);
+            if (index >= 0)
+                return index;
+            byte[] key = new byte[e - s];
+            for (int i = s; i < e; i++)
+                key[i - s] = buf.get(i);
+            return insert(key, hash(buf, s, e));
+        }
+
+        int add(byte[] key) {
+            ByteBuffer buf = ByteBuffer.wrap(key);
+            int index = find(buf, 0, key.length);
+            return (index >= 0) ? index : insert(key, hash(buf, 0, key.length));
+        }
+
+        private int insert(byte[] key, int h) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                hashes = Arrays.copyOf(hashes, size * 2);
+            }
+            keys[size] = key;
+            hashes[size] = h;
+            if ((size + 1) * 2 > table.length)
+                rehash(table.length * 2);
+            place(size, h);
+            return size++;
+        }
+
+        private void rehash(int capacity) {
+            table = newTable(capacity);
+            for (int i = 0; i < size; i++)
+                place(i, hashes[i]);
+        }
+
+        private void place(int index, int h) {
+            int mask = table.length - 1;
+            int slot = h & mask;
+            while (table[slot] >= 0)
+                slot = (slot + 1) & mask;
+            table[slot] = index;
+        }
+
+        private static int[] newTable(int capacity) {
+            int[] ia = new int[capacity];
+            Arrays.fill(ia, -1);
+            return ia;
+        }
+
+        private static int hash(ByteBuffer buf, int s, int e) {
+            int h = 0x811c9dc5;
+            for (int i = s; i < e; i++)
+                h = (h ^ buf.get(i)) * 0x01000193;
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean equal(byte[] key, ByteBuffer buf, int s, int e) {
+            if (key.length != e - s)
+                return false;
+            for (int i = 0; i < key.length; i++)
+                if (key[i] != buf.get(s + i))
+                    return false;
+            return true;
+        }
+    }
+}
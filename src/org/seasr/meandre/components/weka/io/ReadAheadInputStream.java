@@ -0,0 +1,227 @@
+/**
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ * 
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ * 
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ */
+
+package org.seasr.meandre.components.weka.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * <p>
+ * Title: Read Ahead Input Stream
+ * </p>
+ *
+ * <p>
+ * Description: An input stream that reads the wrapped stream on a background
+ * thread into a bounded set of buffers, so that the producer (typically a
+ * network connection) and the consumer (typically a parser) run concurrently.
+ * </p>
+ *
+ * <p>
+ * Copyright: Copyright (c) 2008
+ * </p>
+ *
+ * <p>
+ * Company: Automated Learning Group, NCSA
+ * </p>
+ *
+ * @version 1.0
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    /** A buffer filled by the background reader */
+    private static class Chunk {
+        final byte[] data;
+        int length;
+
+        Chunk(int size) {
+            data = new byte[size];
+        }
+    }
+
+    /** Marks the end of the wrapped stream */
+    private static final Chunk END_OF_STREAM = new Chunk(0);
+
+    /** The wrapped stream */
+    private final InputStream in;
+
+    /** Chunks filled by the reader, waiting to be consumed */
+    private final BlockingQueue<Chunk> filled;
+
+    /** Consumed chunks handed back to the reader */
+    private final BlockingQueue<Chunk> free;
+
+    /** The background reader */
+    private final Thread reader;
+
+    /** The error raised by the wrapped stream, if any */
+    private volatile IOException error = null;
+
+    /** Set once close() was called */
+    private volatile boolean closed = false;
+
+    /** The chunk being consumed */
+    private Chunk current = null;
+
+    /** The read position inside the current chunk */
+    private int pos = 0;
+
+    /**
+     * Starts reading the given stream in the background.
+     *
+     * @param in The stream to read ahead
+     * @param bufferSize The size of each read-ahead buffer
+     * @param numBuffers The number of buffers that can be filled ahead of the consumer
+     */
+    public ReadAheadInputStream(InputStream in, int bufferSize, int numBuffers) {
+        this.in = in;
+        this.filled = new ArrayBlockingQueue<Chunk>(numBuffers + 1);
+        this.free = new ArrayBlockingQueue<Chunk>(numBuffers + 1);
+        for (int i = 0; i < numBuffers; i++)
+            free.add(new Chunk(bufferSize));
+
+        reader = new Thread(new Runnable() {
+            public void run() {
+                fill();
+            }
+        }, "ReadAheadInputStream");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * The loop run by the background reader.
+     */
+    private void fill() {
+        try {
+            while (!closed) {
+                Chunk chunk = free.take();
+                int len = in.read(chunk.data);
+                if (len < 0) {
+                    free.put(chunk);
+                    break;
+                }
+                chunk.length = len;
+                filled.put(chunk);
+            }
+        }
+        catch (IOException e) {
+            error = e;
+        }
+        catch (InterruptedException e) {
+            // close() was called while waiting for a free buffer
+        }
+        finally {
+            try {
+                filled.put(END_OF_STREAM);
+            }
+            catch (InterruptedException e) {
+                // Nobody is waiting for the data anymore
+            }
+        }
+    }
+
+    /**
+     * Makes sure there is a chunk with unread data, blocking until the reader
+     * provides one.
+     *
+     * @return false if the end of the stream was reached
+     * @throws IOException The wrapped stream failed or this stream was closed
+     */
+    private boolean ensureData() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+
+        while (current == null || pos >= current.length) {
+            if (current == END_OF_STREAM)
+                break;
+            if (current != null)
+                free.offer(current);
+            try {
+                current = filled.take();
+            }
+            catch (InterruptedException e) {
+                throw new IOException("Interrupted while waiting for data");
+            }
+            pos = 0;
+        }
+
+        if (current == END_OF_STREAM) {
+            if (error != null)
+                throw error;
+            return false;
+        }
+        return true;
+    }
+
+    public int read() throws IOException {
+        if (!ensureData())
+            return -1;
+        return current.data[pos++] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!ensureData())
+            return -1;
+
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current.data, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    public int available() throws IOException {
+        if (closed || current == null || current == END_OF_STREAM)
+            return 0;
+        return current.length - pos;
+    }
+
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        reader.interrupt();
+        in.close();
+    }
+}
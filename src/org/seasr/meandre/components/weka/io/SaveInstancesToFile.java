@@ -50,16 +50,14 @@ import org.meandre.core.ExecutableComponent;
 import org.meandre.annotations.Component;
 import org.meandre.annotations.ComponentInput;
 import org.meandre.annotations.ComponentOutput;
+import org.meandre.annotations.ComponentProperty;
 import org.meandre.core.ComponentContextProperties;
 
 import weka.core.Instances;
-import weka.core.Instance;
 import weka.core.Attribute;
 
 import java.util.Enumeration;
-import java.io.PrintWriter;
-import java.io.FileWriter;
-import java.io.BufferedWriter;
+import java.io.File;
 
 /**
  * <p>
@@ -103,10 +101,27 @@ public class SaveInstancesToFile implements ExecutableComponent {
                        name="filename")
     final static String DATA_INPUT_FILENAME = "filename";
 
+    @ComponentProperty(defaultValue="text",
+                       description="The file format: text writes the attribute names followed by " +
+                       "one line per instance, columnar writes the typed binary columnar format " +
+                       "that WekaLoadInstances reads back from files with the .wkc extension.",
+                       name="format")
+    final static String DATA_PROPERTY_FORMAT = "format";
+
+    @ComponentProperty(defaultValue="none",
+                       description="Compression of the text format: none or gzip. Gzip files " +
+                       "are written as a series of blocks compressed in parallel.",
+                       name="compression")
+    final static String DATA_PROPERTY_COMPRESSION = "compression";
+
+    @ComponentProperty(defaultValue="0",
+                       description="The number of threads compressing gzip blocks, 0 uses " +
+                       "one thread per processor.",
+                       name="threads")
+    final static String DATA_PROPERTY_THREADS = "threads";
+
     /** store file name */
     String filename = null;
-    /** store output handle */
-    PrintWriter out = null;
 
     /**
      * Called when a flow is started.
@@ -133,12 +148,13 @@ public class SaveInstancesToFile implements ExecutableComponent {
             if(filename == null)
                 throw new org.meandre.core.ComponentExecutionException();
 
-            out = new PrintWriter(new BufferedWriter(new FileWriter(filename)));
-            if(out == null)
-                throw new org.meandre.core.ComponentExecutionException();
+            if(cc.getProperty(DATA_PROPERTY_FORMAT).trim().equalsIgnoreCase("columnar")) {
+                ColumnarInstances.write(instances, new File(filename));
+                cc.pushDataComponentToOutput(DATA_OUTPUT, filename);
+                return;
+            }
 
-            Enumeration<?> all_attributes = instances.enumerateAttributes(),
-                        all_instances  = instances.enumerateInstances();
+            Enumeration<?> all_attributes = instances.enumerateAttributes();
 
             int nr = 0;
             StringBuffer buffer = new StringBuffer();
@@ -150,15 +166,13 @@ public class SaveInstancesToFile implements ExecutableComponent {
                     buffer.append(",");
             }
             buffer.append("\n");
-            out.print(buffer.toString());
-
-            while (all_instances.hasMoreElements()) {
-                Instance instance = (Instance) all_instances.nextElement();
-                out.println(instance.toString());
-            }
 
-            out.flush();
-            out.close();
+            TextInstancesWriter writer = new TextInstancesWriter(instances);
+            if(cc.getProperty(DATA_PROPERTY_COMPRESSION).trim().equalsIgnoreCase("gzip"))
+                writer.writeGzip(new File(filename), buffer.toString(),
+                        Integer.parseInt(cc.getProperty(DATA_PROPERTY_THREADS).trim()));
+            else
+                writer.write(new File(filename), buffer.toString());
 
             cc.pushDataComponentToOutput(DATA_OUTPUT, filename);
         } catch (Exception e1) {
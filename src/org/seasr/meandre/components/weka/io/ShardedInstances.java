@@ -0,0 +1,320 @@
+/**
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ * 
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ * 
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ */
+
+package org.seasr.meandre.components.weka.io;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+/**
+ * <p>
+ * Title: Sharded Instances
+ * </p>
+ *
+ * <p>
+ * Description: Helpers for data sets split across several files. An input
+ * naming a directory, a glob in its last path segment, or a list of
+ * locations one per line expands to its shards in name order. A directory
+ * only contributes the files with a data extension Weka or the columnar
+ * format reads, skipping the markers and hidden files whose names start
+ * with an underscore or a dot. Shards whose headers only differ in the values of their
+ * nominal or string attributes, as independently parsed CSV files do, are
+ * brought under a common header listing the values of every shard.
+ * </p>
+ *
+ * <p>
+ * Copyright: Copyright (c) 2008
+ * </p>
+ *
+ * <p>
+ * Company: Automated Learning Group, NCSA
+ * </p>
+ *
+ * @version 1.0
+ */
+public class ShardedInstances {
+
+    /** The extensions of the files a directory expands to */
+    private static final String[] DATA_EXTENSIONS = {
+        ".arff", ".arff.gz", ".csv", ".xrff", ".xrff.gz", ".names", ".bsi",
+        ".libsvm", ".dat", ColumnarInstances.FILE_EXTENSION
+    };
+
+    /**
+     * Expands an input into the locations of its shards. Inputs that are not
+     * directories, globs or lists expand to themselves.
+     *
+     * @param input The directory, glob, list of locations or single location
+     * @return The shard locations
+     * @throws IOException A glob matches no file or a directory holds no
+     *                     data file
+     */
+    public static List<String> expand(String input) throws IOException {
+        List<String> shards = new ArrayList<String>();
+        for (String location : input.split("[\\r\\n]+")) {
+            location = location.trim();
+            if (location.length() > 0)
+                expandLocation(location, shards);
+        }
+        if (shards.isEmpty())
+            shards.add(input);
+        return shards;
+    }
+
+    private static void expandLocation(String location, List<String> shards) throws IOException {
+        File file = toLocalFile(location);
+        if (file == null) {
+            shards.add(location);
+            return;
+        }
+
+        File[] files = null;
+        String sName = file.getName();
+        if (file.isDirectory()) {
+            files = file.listFiles(new FileFilter() {
+                public boolean accept(File f) {
+                    return f.isFile() && !f.isHidden() && isDataFile(f.getName());
+                }
+            });
+            if (files != null && files.length == 0)
+                throw new IOException("No data file in '" + location + "'");
+        }
+        else if (sName.indexOf('*') >= 0 || sName.indexOf('?') >= 0) {
+            final Pattern pattern = globToPattern(sName);
+            File dir = file.getAbsoluteFile().getParentFile();
+            files = dir.listFiles(new FileFilter() {
+                public boolean accept(File f) {
+                    return f.isFile() && pattern.matcher(f.getName()).matches();
+                }
+            });
+            if (files == null || files.length == 0)
+                throw new IOException("No file matches '" + location + "'");
+        }
+
+        if (files == null) {
+            shards.add(location);
+            return;
+        }
+        Arrays.sort(files);
+        for (File f : files)
+            shards.add(f.getPath());
+    }
+
+    /**
+     * Tells whether a file found in a directory is a shard: it has a data
+     * extension and its name does not start with an underscore or a dot,
+     * as the markers and checksums written next to the parts do.
+     *
+     * @param name The file name
+     * @return True for the data files
+     */
+    private static boolean isDataFile(String name) {
+        if (name.startsWith("_") || name.startsWith("."))
+            return false;
+        String lower = name.toLowerCase();
+        for (String extension : DATA_EXTENSIONS)
+            if (lower.endsWith(extension))
+                return true;
+        return false;
+    }
+
+    private static File toLocalFile(String location) {
+        URL url;
+        try {
+            url = new URL(location);
+        }
+        catch (MalformedURLException e) {
+            return new File(location);
+        }
+        if (!url.getProtocol().equals("file"))
+            return null;
+        try {
+            return new File(url.toURI());
+        }
+        catch (Exception e) {
+            return new File(url.getPath());
+        }
+    }
+
+    private static Pattern globToPattern(String glob) {
+        StringBuffer regex = new StringBuffer();
+        StringBuffer literal = new StringBuffer();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            }
+            else
+                literal.append(c);
+        }
+        if (literal.length() > 0)
+            regex.append(Pattern.quote(literal.toString()));
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * Builds an empty data set whose header is compatible with every shard.
+     * The shards must have the same attribute names and types, and the same
+     * formats for their dates. Nominal and string attributes list the values
+     * of the first shard first, followed by the values only found in the
+     * later ones, in shard order.
+     *
+     * @param shards The loaded shards
+     * @param names The shard locations, for error messages
+     * @return An empty data set with the common header
+     * @throws IOException The headers of two shards are incompatible
+     */
+    public static Instances mergeHeaders(List<Instances> shards, List<String> names) throws IOException {
+        Instances first = shards.get(0);
+        int iNumIns = 0;
+        boolean bEqual = true;
+        for (int k = 0; k < shards.size(); k++) {
+            Instances shard = shards.get(k);
+            iNumIns += shard.numInstances();
+            if (k > 0 && !first.equalHeaders(shard)) {
+                bEqual = false;
+                if (shard.numAttributes() != first.numAttributes())
+                    throw new IOException("Shard '" + names.get(k) + "' has " + shard.numAttributes() +
+                            " attributes, '" + names.get(0) + "' has " + first.numAttributes());
+            }
+        }
+        if (bEqual)
+            return new Instances(first, iNumIns);
+
+        int iNumAtts = first.numAttributes();
+        FastVector atts = new FastVector(iNumAtts);
+        for (int i = 0; i < iNumAtts; i++) {
+            Attribute att = first.attribute(i);
+            for (int k = 1; k < shards.size(); k++) {
+                Attribute other = shards.get(k).attribute(i);
+                boolean bMatch = other.name().equals(att.name()) && other.type() == att.type();
+                if (bMatch && att.isDate())
+                    bMatch = other.getDateFormat().equals(att.getDateFormat());
+                if (bMatch && att.type() == Attribute.RELATIONAL)
+                    bMatch = other.equals(att);
+                if (!bMatch)
+                    throw new IOException("Shard '" + names.get(k) + "' does not match the header of '" +
+                            names.get(0) + "' at attribute " + (i + 1) + " (" + att.name() + ")");
+            }
+
+            if (att.isNominal() || att.isString()) {
+                FastVector values = new FastVector();
+                Set<String> seen = new HashSet<String>();
+                for (Instances shard : shards) {
+                    Attribute other = shard.attribute(i);
+                    for (int v = 0; v < other.numValues(); v++)
+                        if (seen.add(other.value(v)))
+                            values.addElement(other.value(v));
+                }
+                if (att.isNominal())
+                    atts.addElement(new Attribute(att.name(), values));
+                else {
+                    Attribute str = new Attribute(att.name(), (FastVector) null);
+                    for (int v = 0; v < values.size(); v++)
+                        str.addStringValue((String) values.elementAt(v));
+                    atts.addElement(str);
+                }
+            }
+            else
+                atts.addElement(att.copy());
+        }
+        return new Instances(first.relationName(), atts, iNumIns);
+    }
+
+    /**
+     * Appends the instances of a shard to a data set with a header built by
+     * mergeHeaders, translating the nominal and string value indexes.
+     *
+     * @param target The data set with the common header
+     * @param shard The shard to append
+     */
+    public static void append(Instances target, Instances shard) {
+        int iNumAtts = target.numAttributes();
+        int[][] maps = new int[iNumAtts][];
+        boolean bIdentity = true;
+        for (int i = 0; i < iNumAtts; i++) {
+            Attribute from = shard.attribute(i);
+            Attribute to = target.attribute(i);
+            if (from == to || !(from.isNominal() || from.isString()))
+                continue;
+            int[] map = new int[from.numValues()];
+            for (int v = 0; v < map.length; v++) {
+                map[v] = to.isString() ? to.addStringValue(from.value(v)) : to.indexOfValue(from.value(v));
+                bIdentity &= (map[v] == v);
+            }
+            maps[i] = map;
+        }
+
+        for (int j = 0, iMax = shard.numInstances(); j < iMax; j++) {
+            Instance inst = shard.instance(j);
+            if (bIdentity) {
+                target.add(inst);
+                continue;
+            }
+
+            double[] vals = inst.toDoubleArray();
+            for (int i = 0; i < iNumAtts; i++)
+                if (maps[i] != null && !Instance.isMissingValue(vals[i]))
+                    vals[i] = maps[i][(int) vals[i]];
+            target.add(inst instanceof SparseInstance
+                    ? new SparseInstance(inst.weight(), vals)
+                    : new Instance(inst.weight(), vals));
+        }
+    }
+}
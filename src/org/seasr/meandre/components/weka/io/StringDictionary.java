@@ -0,0 +1,152 @@
+/**
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ * 
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ * 
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ */
+
+package org.seasr.meandre.components.weka.io;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * <p>
+ * Title: String Dictionary
+ * </p>
+ *
+ * <p>
+ * Description: A dictionary of canonical strings shared by every data set a
+ * component loads. Weka already stores each value of a nominal or string
+ * attribute once and keeps its integer code in the instances, but the same
+ * labels, names and values are stored again by every attribute, batch and
+ * data set that uses them. The loaders building their own attributes, the
+ * memory mapped parser, the columnar reader and the SPARQL converters, look
+ * the relation name, attribute names and values up in the dictionary as
+ * they build them, so each distinct string is kept in memory once. The
+ * dictionary holds its strings weakly and drops the ones no data set uses
+ * anymore.
+ * </p>
+ *
+ * <p>
+ * Copyright: Copyright (c) 2008
+ * </p>
+ *
+ * <p>
+ * Company: Automated Learning Group, NCSA
+ * </p>
+ *
+ * @version 1.0
+ */
+public class StringDictionary {
+
+    /** The canonical copy of each string */
+    private final Map<String, WeakReference<String>> strings = new WeakHashMap<String, WeakReference<String>>();
+
+    /** The number of strings replaced by their canonical copy */
+    private long lShared = 0;
+
+    /** The estimated bytes of the replaced strings */
+    private long lSavedBytes = 0;
+
+    /**
+     * Returns the canonical copy of a string, adding it to the dictionary if
+     * it is not there yet. New strings are copied, so they do not keep alive
+     * a larger buffer they were cut from.
+     *
+     * @param s The string
+     * @return The canonical string equal to s
+     */
+    public synchronized String intern(String s) {
+        if (s == null)
+            return null;
+
+        WeakReference<String> ref = strings.get(s);
+        String canonical = (ref == null) ? null : ref.get();
+        if (canonical == null) {
+            canonical = new String(s);
+            strings.put(canonical, new WeakReference<String>(canonical));
+        }
+        else if (canonical != s) {
+            lShared++;
+            lSavedBytes += estimateSize(s);
+        }
+        return canonical;
+    }
+
+    /**
+     * Returns the canonical copy of a string from a dictionary, or the
+     * string itself without one.
+     *
+     * @param dictionary The dictionary, or null
+     * @param s The string
+     * @return The canonical string equal to s, or s
+     */
+    public static String intern(StringDictionary dictionary, String s) {
+        return (dictionary == null) ? s : dictionary.intern(s);
+    }
+
+    /**
+     * @return The number of distinct strings in the dictionary
+     */
+    public synchronized int size() {
+        return strings.size();
+    }
+
+    /**
+     * @return The number of strings replaced by their canonical copy
+     */
+    public synchronized long getSharedCount() {
+        return lShared;
+    }
+
+    /**
+     * @return The estimated bytes freed by replacing strings with their
+     *         canonical copy
+     */
+    public synchronized long getSavedBytes() {
+        return lSavedBytes;
+    }
+
+    /**
+     * Estimates the heap used by a string: the object, its character array
+     * and their headers.
+     */
+    private static long estimateSize(String s) {
+        return 40 + 2 * ((s.length() + 3) & ~3);
+    }
+}
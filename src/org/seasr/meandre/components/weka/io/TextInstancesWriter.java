@@ -0,0 +1,418 @@
+/**
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ * 
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ * 
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ * 
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ */
+
+package org.seasr.meandre.components.weka.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+
+/**
+ * <p>
+ * Title: Text Instances Writer
+ * </p>
+ *
+ * <p>
+ * Description: Writes instances one line each, in the same form as
+ * Instance.toString(), formatting the values straight into a reusable byte
+ * buffer instead of building a string per row. Numbers are rounded to six
+ * decimals like Utils.doubleToString and nominal values are encoded once per
+ * attribute value. A weight other than 1 is appended as ",{weight}", as
+ * Weka 3.6 does. In sparse rows a missing numeric or date value is written
+ * as NaN, as Weka does, while a missing nominal or string value is written
+ * as ? rather than as the first label of the attribute Weka writes. The
+ * output can also be compressed as a sequence of gzip members, each one
+ * holding a block of about BLOCK_SIZE encoded bytes of rows compressed on
+ * its own thread, so wide rows do not make the blocks in flight larger.
+ * </p>
+ *
+ * <p>
+ * Copyright: Copyright (c) 2008
+ * </p>
+ *
+ * <p>
+ * Company: Automated Learning Group, NCSA
+ * </p>
+ *
+ * @version 1.0
+ */
+public class TextInstancesWriter {
+
+    /** Bytes buffered before writing to the file */
+    private static final int FLUSH_SIZE = 1 << 16;
+
+    /** Encoded bytes of rows per gzip member */
+    private static final int BLOCK_SIZE = 1 << 20;
+
+    /** The decimals kept by Instance.toString() */
+    private static final double SCALE = 1e6;
+
+    /** The number of decimals kept by Instance.toString() */
+    private static final int DECIMALS = 6;
+
+    /** A missing number in a sparse row */
+    private static final byte[] NAN = "NaN".getBytes();
+
+    /** Opens the weight of an instance */
+    private static final byte[] WEIGHT_START = ",{".getBytes();
+
+    /** The instances to write */
+    private final Instances instances;
+
+    /** The encoded values of the nominal attributes, quoted as needed */
+    private final byte[][][] nominalValues;
+
+    /** The line separator */
+    private final byte[] newline;
+
+    /**
+     * Prepares a writer for a set of instances.
+     *
+     * @param instances The instances to write
+     */
+    public TextInstancesWriter(Instances instances) {
+        this.instances = instances;
+        this.newline = System.getProperty("line.separator").getBytes();
+
+        int iNumAtts = instances.numAttributes();
+        nominalValues = new byte[iNumAtts][][];
+        for (int i = 0; i < iNumAtts; i++) {
+            Attribute att = instances.attribute(i);
+            if (!att.isNominal())
+                continue;
+            nominalValues[i] = new byte[att.numValues()][];
+            for (int v = 0; v < att.numValues(); v++)
+                nominalValues[i][v] = Utils.quote(att.value(v)).getBytes();
+        }
+    }
+
+    /**
+     * Writes a header line followed by every instance.
+     *
+     * @param file The destination file
+     * @param header The text written before the instances as is, or null
+     * @throws IOException The file cannot be written
+     */
+    public void write(File file, String header) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        FileChannel channel = fos.getChannel();
+        try {
+            LineBuffer buf = new LineBuffer();
+            if (header != null) {
+                buf.put(header.getBytes());
+            }
+            for (int j = 0, iMax = instances.numInstances(); j < iMax; j++) {
+                format(instances.instance(j), buf);
+                if (buf.size >= FLUSH_SIZE) {
+                    buf.writeTo(channel);
+                    buf.size = 0;
+                }
+            }
+            buf.writeTo(channel);
+        }
+        finally {
+            channel.close();
+            fos.close();
+        }
+    }
+
+    /**
+     * Writes a header line followed by every instance as a gzip file made of
+     * independently compressed blocks of rows. The rows are formatted in
+     * order and cut into blocks once BLOCK_SIZE bytes are encoded, so at
+     * most twice as many blocks as threads are held whatever the width of
+     * the rows. Any gzip reader decompresses the blocks back into a single
+     * stream.
+     *
+     * @param file The destination file
+     * @param header The text written before the instances as is, or null
+     * @param numThreads The number of compressing threads, 0 for one per processor
+     * @throws IOException The file cannot be written
+     */
+    public void writeGzip(File file, String header, int numThreads) throws IOException {
+        if (numThreads <= 0)
+            numThreads = Runtime.getRuntime().availableProcessors();
+
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+        FileOutputStream fos = new FileOutputStream(file);
+        FileChannel channel = fos.getChannel();
+        try {
+            LineBuffer buf = new LineBuffer();
+            if (header != null)
+                buf.put(header.getBytes());
+            for (int j = 0, iMax = instances.numInstances(); j < iMax; j++) {
+                format(instances.instance(j), buf);
+                if (buf.size >= BLOCK_SIZE) {
+                    submit(buf, pool, pending, numThreads * 2, channel);
+                    buf = new LineBuffer();
+                }
+            }
+            if (buf.size > 0)
+                submit(buf, pool, pending, numThreads * 2, channel);
+            while (!pending.isEmpty())
+                write(channel, take(pending.removeFirst()));
+        }
+        finally {
+            for (Future<byte[]> future : pending)
+                future.cancel(true);
+            pool.shutdownNow();
+            channel.close();
+            fos.close();
+        }
+    }
+
+    /**
+     * Hands a block to the compressing threads, first writing the oldest
+     * compressed block out when iMaxPending blocks are already pending.
+     */
+    private static void submit(final LineBuffer buf, ExecutorService pool,
+                               LinkedList<Future<byte[]>> pending, int iMaxPending,
+                               FileChannel channel) throws IOException {
+        if (pending.size() >= iMaxPending)
+            write(channel, take(pending.removeFirst()));
+        pending.add(pool.submit(new Callable<byte[]>() {
+            public byte[] call() throws IOException {
+                return compress(buf);
+            }
+        }));
+    }
+
+    private static byte[] compress(LineBuffer buf) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(buf.size / 4 + 64);
+        GZIPOutputStream gzos = new GZIPOutputStream(baos, FLUSH_SIZE);
+        gzos.write(buf.data, 0, buf.size);
+        gzos.close();
+        return baos.toByteArray();
+    }
+
+    private static byte[] take(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            throw new IOException("Interrupted while compressing");
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static void write(FileChannel channel, byte[] ba) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(ba);
+        while (bb.hasRemaining())
+            channel.write(bb);
+    }
+
+    //
+    // Formatting
+    //
+
+    /**
+     * Appends one instance and a line separator to the buffer.
+     *
+     * @param inst The instance
+     * @param buf The buffer
+     */
+    private void format(Instance inst, LineBuffer buf) {
+        if (inst instanceof SparseInstance)
+            formatSparse(inst, buf);
+        else {
+            for (int i = 0, iMax = inst.numAttributes(); i < iMax; i++) {
+                if (i > 0)
+                    buf.put((byte) ',');
+                formatValue(inst, i, inst.value(i), false, buf);
+            }
+        }
+        if (inst.weight() != 1.0) {
+            buf.put(WEIGHT_START);
+            putDouble(inst.weight(), buf);
+            buf.put((byte) '}');
+        }
+        buf.put(newline);
+    }
+
+    private void formatSparse(Instance inst, LineBuffer buf) {
+        buf.put((byte) '{');
+        for (int p = 0, pMax = inst.numValues(); p < pMax; p++) {
+            if (p > 0)
+                buf.put((byte) ',');
+            int i = inst.index(p);
+            putLong(i, buf);
+            buf.put((byte) ' ');
+            formatValue(inst, i, inst.valueSparse(p), true, buf);
+        }
+        buf.put((byte) '}');
+    }
+
+    private void formatValue(Instance inst, int i, double d, boolean bSparse, LineBuffer buf) {
+        Attribute att = instances.attribute(i);
+        if (Instance.isMissingValue(d)) {
+            // Sparse rows print missing numbers with Utils.doubleToString
+            if (bSparse && nominalValues[i] == null && !att.isString())
+                buf.put(NAN);
+            else
+                buf.put((byte) '?');
+            return;
+        }
+
+        if (nominalValues[i] != null)
+            buf.put(nominalValues[i][(int) d]);
+        else if (att.isString())
+            buf.put(Utils.quote(att.value((int) d)).getBytes());
+        else if (att.isNumeric() || bSparse)
+            putDouble(d, buf);
+        else {
+            // Dates share the attribute's formatter across threads
+            String s;
+            synchronized (att) {
+                s = inst.stringValue(i);
+            }
+            buf.put(Utils.quote(s).getBytes());
+        }
+    }
+
+    /**
+     * Appends a number rounded to six decimals without trailing zeros, the
+     * way Utils.doubleToString(d, 6) formats it.
+     */
+    private static void putDouble(double d, LineBuffer buf) {
+        double dScaled = d * SCALE;
+        if (!(Math.abs(dScaled) < Long.MAX_VALUE)) {
+            buf.put(Double.toString(d).getBytes());
+            return;
+        }
+
+        long lScaled = (dScaled > 0) ? (long) (dScaled + 0.5) : -(long) (Math.abs(dScaled) + 0.5);
+        if (lScaled == 0) {
+            buf.put((byte) '0');
+            return;
+        }
+        if (lScaled < 0) {
+            buf.put((byte) '-');
+            lScaled = -lScaled;
+        }
+
+        putLong(lScaled / (long) SCALE, buf);
+        int iFraction = (int) (lScaled % (long) SCALE);
+        if (iFraction == 0)
+            return;
+
+        int iDigits = DECIMALS;
+        while (iFraction % 10 == 0) {
+            iFraction /= 10;
+            iDigits--;
+        }
+        buf.put((byte) '.');
+        buf.ensure(iDigits);
+        for (int k = iDigits - 1; k >= 0; k--) {
+            buf.data[buf.size + k] = (byte) ('0' + iFraction % 10);
+            iFraction /= 10;
+        }
+        buf.size += iDigits;
+    }
+
+    private static void putLong(long l, LineBuffer buf) {
+        if (l < 0) {
+            buf.put((byte) '-');
+            l = -l;
+        }
+        int iDigits = 1;
+        for (long t = l / 10; t != 0; t /= 10)
+            iDigits++;
+        buf.ensure(iDigits);
+        for (int k = iDigits - 1; k >= 0; k--) {
+            buf.data[buf.size + k] = (byte) ('0' + l % 10);
+            l /= 10;
+        }
+        buf.size += iDigits;
+    }
+
+    /**
+     * A growable byte buffer reused across rows.
+     */
+    private static class LineBuffer {
+        byte[] data = new byte[FLUSH_SIZE * 2];
+        int size = 0;
+
+        void ensure(int n) {
+            if (size + n > data.length) {
+                byte[] ba = new byte[Math.max(data.length * 2, size + n)];
+                System.arraycopy(data, 0, ba, 0, size);
+                data = ba;
+            }
+        }
+
+        void put(byte b) {
+            ensure(1);
+            data[size++] = b;
+        }
+
+        void put(byte[] ba) {
+            ensure(ba.length);
+            System.arraycopy(ba, 0, data, size, ba.length);
+            size += ba.length;
+        }
+
+        void writeTo(FileChannel channel) throws IOException {
+            ByteBuffer bb = ByteBuffer.wrap(data, 0, size);
+            while (bb.hasRemaining())
+                channel.write(bb);
+        }
+    }
+}
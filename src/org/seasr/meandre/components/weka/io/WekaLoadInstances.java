@@ -46,9 +46,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.meandre.core.ComponentContext;
 import org.meandre.core.ComponentContextException;
@@ -61,6 +68,7 @@ import org.meandre.annotations.ComponentOutput;
 import org.meandre.annotations.ComponentProperty;
 
 import weka.core.Instances;
+import weka.core.converters.CSVLoader;
 import weka.core.converters.ConverterUtils.DataSource;
 import org.meandre.core.ComponentContextProperties;
 
@@ -94,7 +102,10 @@ import org.meandre.core.ComponentContextProperties;
 public class WekaLoadInstances implements ExecutableComponent {
 
 	@ComponentInput(
-	description = "Input URL to the object containing the instance data.", 
+	description = "Input URL to the object containing the instance data. A directory, "+
+	              "a glob such as data/part-*.csv, or a list of URLs one per line "+
+	              "loads every matching shard. A directory only contributes its "+
+	              "data files, skipping the names starting with _ or a dot.", 
 	name = "inputURL")
 	public final static String DATA_INPUT_INPUTURL = "inputURL";
 
@@ -114,8 +125,100 @@ public class WekaLoadInstances implements ExecutableComponent {
 	defaultValue = "N")
 	public final static String DATA_PROPERTY_PRINTINSTANCES = "printInstances";
 
+	@ComponentProperty(
+	description = "Number of instances per output batch. When greater than 0 the "+
+	              "data set is pushed as a sequence of Weka instances objects sharing "+
+	              "one header. ARFF files are read incrementally; Weka cannot read CSV "+
+	              "and the other formats incrementally, so they are loaded whole before "+
+	              "the first batch is pushed. 0 loads the whole data set into a single "+
+	              "instances object.",
+	name = "batchSize", 
+	defaultValue = "0")
+	public final static String DATA_PROPERTY_BATCHSIZE = "batchSize";
+
+	@ComponentProperty(
+	description = "Parse remote CSV files straight from the URL stream instead of "+
+	              "copying them to a temporary file first? (Y/N)",
+	name = "streamFromURL", 
+	defaultValue = "Y")
+	public final static String DATA_PROPERTY_STREAMFROMURL = "streamFromURL";
+
+	@ComponentProperty(
+	description = "Size in bytes of the buffers used to read remote files.",
+	name = "bufferSize", 
+	defaultValue = "16384")
+	public final static String DATA_PROPERTY_BUFFERSIZE = "bufferSize";
+
+	@ComponentProperty(
+	description = "Load local CSV and ARFF files with the memory mapped parallel "+
+	              "parser? Files it cannot handle are loaded the regular way. (Y/N)",
+	name = "memoryMap", 
+	defaultValue = "N")
+	public final static String DATA_PROPERTY_MEMORYMAP = "memoryMap";
+
+	@ComponentProperty(
+	description = "Number of threads used by the memory mapped parser, "+
+	              "0 for one per processor.",
+	name = "parserThreads", 
+	defaultValue = "0")
+	public final static String DATA_PROPERTY_PARSERTHREADS = "parserThreads";
+
+	@ComponentProperty(
+	description = "Directory holding snapshots of previously loaded data sets. "+
+	              "A snapshot is reused while the source is unchanged. Leave "+
+	              "empty to disable the cache.",
+	name = "cacheDirectory", 
+	defaultValue = "")
+	public final static String DATA_PROPERTY_CACHEDIRECTORY = "cacheDirectory";
+
+	@ComponentProperty(
+	description = "Maximum size of the snapshot cache in megabytes. The least "+
+	              "recently used snapshots are evicted first.",
+	name = "cacheSize", 
+	defaultValue = "1024")
+	public final static String DATA_PROPERTY_CACHESIZE = "cacheSize";
+
+	@ComponentProperty(
+	description = "Number of shards loaded concurrently when the input names several "+
+	              "files, 0 for one per processor.",
+	name = "shardThreads", 
+	defaultValue = "0")
+	public final static String DATA_PROPERTY_SHARDTHREADS = "shardThreads";
+
+	@ComponentProperty(
+	description = "Merge the shards into a single instances object? Otherwise each "+
+	              "shard is pushed as a batch of its own. (Y/N)",
+	name = "mergeShards", 
+	defaultValue = "Y")
+	public final static String DATA_PROPERTY_MERGESHARDS = "mergeShards";
+
+	@ComponentProperty(
+	description = "Share the relation and attribute names and the nominal and string values "+
+	              "through a dictionary, so each distinct string is kept in memory once "+
+	              "across attributes and data sets? (Y/N) Applies to the files read by the "+
+	              "memory mapped parser, columnar files and cached snapshots; the files read "+
+	              "by the Weka loaders keep their own strings",
+	name = "internStrings", 
+	defaultValue = "N")
+	public final static String DATA_PROPERTY_INTERNSTRINGS = "internStrings";
+
+	/* The number of buffers the URL reader can fill ahead of the parser. */
+	private final static int READ_AHEAD_BUFFERS = 16;
+
+	/* The age in milliseconds of the abandoned snapshot files to delete. */
+	private final static long TEMP_FILE_AGE = 24L * 60 * 60 * 1000;
+
 	/* The logger object to use for output. */
 	private static PrintStream logger = null;
+
+	/* The snapshot cache, or null if it is disabled. */
+	private DiskCache cache = null;
+
+	/* The dictionary of shared strings, or null if it is disabled. */
+	private StringDictionary dictionary = null;
+
+	/* The bytes the dictionary had saved when last reported. */
+	private long reportedSavedBytes = 0;
 	
  
 	/** 
@@ -125,6 +228,22 @@ public class WekaLoadInstances implements ExecutableComponent {
 	{
 		logger = ccp.getOutputConsole();
 		logger.println("Initializing WekaLoadInstances...");
+
+		String cacheDirectory = ccp.getProperty(DATA_PROPERTY_CACHEDIRECTORY);
+		if (cacheDirectory != null && cacheDirectory.trim().length() > 0) {
+			long cacheSize = Long.parseLong(ccp.getProperty(DATA_PROPERTY_CACHESIZE).trim());
+			try {
+				cache = new DiskCache(new File(cacheDirectory.trim()), cacheSize * 1024 * 1024);
+				cache.purgeTempFiles(TEMP_FILE_AGE);
+			}
+			catch (IOException e) {
+				logger.println("WekaLoadInstances: Snapshot cache disabled. " + e.getMessage());
+			}
+		}
+
+		String strInternStrings = ccp.getProperty(DATA_PROPERTY_INTERNSTRINGS);
+		if (strInternStrings != null && strInternStrings.toUpperCase().equals("Y"))
+			dictionary = new StringDictionary();
 	}
 
     /** 
@@ -148,9 +267,43 @@ public class WekaLoadInstances implements ExecutableComponent {
 		String strPrintInstances = context.getProperty(DATA_PROPERTY_PRINTINSTANCES);
 		Boolean printInstances = strPrintInstances.toUpperCase().equals("Y");
 
+		int batchSize = Integer.parseInt(context.getProperty(DATA_PROPERTY_BATCHSIZE).trim());
+
+		String strStreamFromURL = context.getProperty(DATA_PROPERTY_STREAMFROMURL);
+		boolean streamFromURL = strStreamFromURL.toUpperCase().equals("Y");
+
+		int bufferSize = Integer.parseInt(context.getProperty(DATA_PROPERTY_BUFFERSIZE).trim());
+
+		String strMemoryMap = context.getProperty(DATA_PROPERTY_MEMORYMAP);
+		boolean memoryMap = strMemoryMap.toUpperCase().equals("Y");
+
+		int parserThreads = Integer.parseInt(context.getProperty(DATA_PROPERTY_PARSERTHREADS).trim());
+
+		// Load directories, globs and lists of URLs shard by shard
+		try {
+			List<String> shards = ShardedInstances.expand(inputURL);
+			if (shards.size() > 1) {
+				int shardThreads = Integer.parseInt(context.getProperty(DATA_PROPERTY_SHARDTHREADS).trim());
+				String strMergeShards = context.getProperty(DATA_PROPERTY_MERGESHARDS);
+				boolean mergeShards = strMergeShards.toUpperCase().equals("Y");
+
+				if (batchSize > 0)
+					pushShardBatches(context, shards, batchSize, printInstances, streamFromURL, bufferSize);
+				else
+					loadShards(context, inputURL, shards, shardThreads, mergeShards, printInstances,
+							streamFromURL, bufferSize, memoryMap);
+				return;
+			}
+			inputURL = shards.get(0);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return;
+		}
+
 		// Check whether the input in a URL
 		URL url = null;
 		String fileName = null;
+		URL csvURL = null;
     	
 		try {
 			url = new URL(inputURL);
@@ -158,74 +311,631 @@ public class WekaLoadInstances implements ExecutableComponent {
 		catch (MalformedURLException e) {}
 
 		// Check if the URL references a CSV file
-		if (url != null) {
-			if (inputURL.toLowerCase().endsWith(".csv")) 
-			{
-				logger.println("WekaLoadInstances: Detected a URL CSV file");
-
-				// Get the file name referenced by the URL
-		    	StringTokenizer st = new StringTokenizer(url.getFile(), File.separator);
-		    	while (st.hasMoreTokens())
-		    		fileName = st.nextToken();
-
-		    	// Create a temporary file to store the contents of the file referenced in URL
-		    	File localTempFile = null;
-		    	OutputStream outStream = null;
+		boolean isURLCSV = url != null && inputURL.toLowerCase().endsWith(".csv");
+		if (isURLCSV) {
+			logger.println("WekaLoadInstances: Detected a URL CSV file");
+
+			// Get the file name referenced by the URL
+	    	StringTokenizer st = new StringTokenizer(url.getFile(), File.separator);
+	    	while (st.hasMoreTokens())
+	    		fileName = st.nextToken();
+		}
+
+		// Serve whole data sets from the cache when the source did not change
+		String cacheKey = null;
+		if (cache != null && batchSize == 0 && !ColumnarInstances.isColumnar(inputURL)) {
+			// Remote CSV files copied to a temporary file are parsed as local ones
+			File localFile = getLocalFile(url, inputURL);
+			boolean mappedParser = memoryMap && ((localFile != null) ?
+					MappedInstancesParser.canParse(localFile.getName()) : isURLCSV && !streamFromURL);
+			cacheKey = getCacheKey(url, inputURL, mappedParser);
+			Instances instances = (cacheKey != null) ? loadSnapshot(cacheKey) : null;
+			if (instances != null) {
+				pushInstances(context, instances, printInstances, fileName);
+				return;
+			}
+		}
+
+		if (isURLCSV) {
+			if (streamFromURL) {
+				// The CSV loader is fed straight from the URL stream below
+				csvURL = url;
+			}
+			else {
+		    	// Set the input URL to a temporary copy of the file referenced in URL
 		    	try {
-		    		localTempFile = File.createTempFile(fileName.substring(0, fileName.lastIndexOf('.')), ".csv");
-		    		localTempFile.deleteOnExit();
+		    		inputURL = copyToTempFile(url, fileName, bufferSize);
 
-		    		outStream = new FileOutputStream(localTempFile);
+		    		// The copy is read as a local file from now on
+		    		url = null;
 		    	}
 		    	catch (IOException e) 
 		    	{
 		    		logger.println("WekaLoadInstances:  Cannot create temporary file. "+e.getMessage());
 		    		e.printStackTrace();
 		    	}
+			}
+		}
+
+		// Read all the instances in the file (ARFF, CSV, XRFF, ...)
+		try {
+			File localFile = getLocalFile(url, inputURL);
 
-		    	logger.println("WekaLoadInstances: Copying data from '" + inputURL +
-	    				"' to '" + localTempFile.getAbsolutePath() + "'");
+			if (localFile != null && ColumnarInstances.isColumnar(localFile.getName())) {
+				Instances instances = ColumnarInstances.read(localFile, dictionary);
 
-	    	   	// Copy the URL stream to the output stream
-				copyFromURL(url, outStream);
+				// Keep the stored class, or make the last attribute be the class
+				if (instances.classIndex() < 0)
+					instances.setClassIndex(instances.numAttributes() - 1);
 
-				// Set the input URL to the temporary file
-				inputURL = localTempFile.getAbsolutePath();
+				if (batchSize > 0)
+					pushSlices(context, instances, batchSize, printInstances, fileName);
+				else
+					pushInstances(context, instances, printInstances, fileName);
 			}
+			else if (batchSize > 0) {
+				// CSV files are loaded whole anyway, the mapped parser does it fastest
+				Instances instances = null;
+				if (memoryMap && localFile != null && localFile.getName().toLowerCase().endsWith(".csv"))
+					instances = parseMapped(localFile, parserThreads);
+
+				if (instances != null) {
+					instances.setClassIndex(instances.numAttributes() - 1);
+					pushSlices(context, instances, batchSize, printInstances, fileName);
+				}
+				else
+					pushBatches(context, openSource(inputURL, csvURL, bufferSize), batchSize,
+							printInstances, fileName);
+			}
+			else {
+				Instances instances = null;
+
+				if (memoryMap && localFile != null && MappedInstancesParser.canParse(localFile.getName()))
+					instances = parseMapped(localFile, parserThreads);
+
+				if (instances == null)
+					instances = openSource(inputURL, csvURL, bufferSize).getDataSet();
+
+				// Make the last attribute be the class
+				instances.setClassIndex(instances.numAttributes() - 1);
+
+				if (cacheKey != null)
+					storeSnapshot(cacheKey, instances);
+
+				pushInstances(context, instances, printInstances, fileName);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
 		}
+	}
 
-		// Read all the instances in the file (ARFF, CSV, XRFF, ...)
-		DataSource source;
+	/** Opens the data source for the input.
+	 *
+	 * @param inputURL - the input file name or URL
+	 * @param csvURL - the URL of a remote CSV file to stream, or null
+	 * @param bufferSize - the size of the read-ahead buffers
+	 * @return the data source
+	 * @throws Exception if the source cannot be opened
+	 */
+	private DataSource openSource(String inputURL, URL csvURL, int bufferSize) throws Exception {
+		if (csvURL != null) {
+			logger.println("WekaLoadInstances: Streaming data from '" + inputURL + "'");
+			return new DataSource(openCSVLoader(csvURL, bufferSize));
+		}
+		return new DataSource(inputURL);
+	}
+
+	/** Loads every shard on a bounded thread pool and pushes them, either
+	 * merged into a single instances object or one batch per shard in shard
+	 * order. The shards are brought under a common header first, so nominal
+	 * values found in only some of them are encoded the same way everywhere.
+	 *
+	 * @param context - the component execution context
+	 * @param inputURL - the input that expanded to the shards
+	 * @param shards - the shard locations
+	 * @param shardThreads - the number of loading threads, 0 for one per processor
+	 * @param mergeShards - whether to push a single merged instances object
+	 * @param printInstances - whether the pushed instances should be printed
+	 * @param streamFromURL - whether remote CSV shards are streamed
+	 * @param bufferSize - the size of the read buffers
+	 * @param memoryMap - whether local shards use the memory mapped parser
+	 * @throws Exception if a shard cannot be loaded or does not fit the others
+	 */
+	private void loadShards(ComponentContext context, String inputURL, final List<String> shards,
+			int shardThreads, boolean mergeShards, boolean printInstances,
+			final boolean streamFromURL, final int bufferSize, final boolean memoryMap) throws Exception {
+
+		if (shardThreads <= 0)
+			shardThreads = Runtime.getRuntime().availableProcessors();
+
+		long start = System.currentTimeMillis();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(shardThreads, shards.size()));
+		List<Future<Instances>> futures = new ArrayList<Future<Instances>>();
+		List<Instances> loaded = new ArrayList<Instances>();
 		try {
-			source = new DataSource(inputURL);
-			Instances instances = source.getDataSet();
+			for (final String shard : shards)
+				futures.add(pool.submit(new Callable<Instances>() {
+					public Instances call() throws Exception {
+						return loadShard(shard, streamFromURL, bufferSize, memoryMap);
+					}
+				}));
+			for (Future<Instances> future : futures)
+				loaded.add(future.get());
+		}
+		finally {
+			for (Future<Instances> future : futures)
+				future.cancel(true);
+			pool.shutdownNow();
+		}
+
+		Instances header = ShardedInstances.mergeHeaders(loaded, shards);
 
-			// Make the last attribute be the class
+		// Make the last attribute be the class
+		header.setClassIndex(header.numAttributes() - 1);
+
+		logger.println("WekaLoadInstances: Loaded " + shards.size() + " shards in " +
+				(System.currentTimeMillis() - start) + " ms");
+
+		if (mergeShards) {
+			for (int i = 0; i < loaded.size(); i++) {
+				ShardedInstances.append(header, loaded.get(i));
+				loaded.set(i, null);
+			}
+			pushInstances(context, header, printInstances, getFileName(inputURL));
+		}
+		else {
+			for (int i = 0; i < loaded.size(); i++) {
+				Instances shard = new Instances(header, loaded.get(i).numInstances());
+				ShardedInstances.append(shard, loaded.get(i));
+				loaded.set(i, null);
+				pushInstances(context, shard, printInstances, getFileName(shards.get(i)));
+			}
+		}
+	}
+
+	/** Loads a whole shard, going through the snapshot cache when enabled.
+	 * Memory mapped shards are parsed on a single thread, since the shards
+	 * themselves are already loaded in parallel.
+	 *
+	 * @param shard - the shard location
+	 * @param streamFromURL - whether a remote CSV shard is streamed
+	 * @param bufferSize - the size of the read buffers
+	 * @param memoryMap - whether a local shard uses the memory mapped parser
+	 * @return the instances of the shard
+	 * @throws Exception if the shard cannot be loaded
+	 */
+	private Instances loadShard(String shard, boolean streamFromURL, int bufferSize,
+			boolean memoryMap) throws Exception {
+
+		URL url = parseURL(shard);
+		File localFile = getLocalFile(url, shard);
+		if (localFile != null && ColumnarInstances.isColumnar(localFile.getName()))
+			return ColumnarInstances.read(localFile, dictionary);
+
+		boolean mappedParser = memoryMap && localFile != null &&
+				MappedInstancesParser.canParse(localFile.getName());
+		String cacheKey = (cache != null) ? getCacheKey(url, shard, mappedParser) : null;
+		Instances instances = (cacheKey != null) ? loadSnapshot(cacheKey) : null;
+		if (instances != null)
+			return instances;
+
+		if (mappedParser)
+			instances = parseMapped(localFile, 1);
+
+		if (instances == null)
+			instances = openShardSource(shard, url, streamFromURL, bufferSize).getDataSet();
+
+		if (cacheKey != null) {
 			instances.setClassIndex(instances.numAttributes() - 1);
+			storeSnapshot(cacheKey, instances);
+		}
+		return instances;
+	}
 
-			if (printInstances) {
-				// Print header and instances.
-				logger.println("\nDataset:\n"+instances);
+	/** Streams the shards one after the other in batches of at most
+	 * batchSize instances. Batches are pushed as soon as they are read, so the
+	 * shards must share the same header.
+	 *
+	 * @param context - the component execution context
+	 * @param shards - the shard locations
+	 * @param batchSize - the maximum number of instances per batch
+	 * @param printInstances - whether each batch should be printed
+	 * @param streamFromURL - whether remote CSV shards are streamed
+	 * @param bufferSize - the size of the read buffers
+	 * @throws Exception if a shard cannot be read or its header differs
+	 */
+	private void pushShardBatches(ComponentContext context, List<String> shards, int batchSize,
+			boolean printInstances, boolean streamFromURL, int bufferSize) throws Exception {
+
+		Instances header = null;
+		for (String shard : shards) {
+			URL url = parseURL(shard);
+			File localFile = getLocalFile(url, shard);
+
+			Instances instances = null;
+			DataSource source = null;
+			Instances structure;
+			if (localFile != null && ColumnarInstances.isColumnar(localFile.getName())) {
+				instances = ColumnarInstances.read(localFile, dictionary);
+				structure = instances;
+			}
+			else {
+				source = openShardSource(shard, url, streamFromURL, bufferSize);
+				structure = source.getStructure();
 			}
 
-			context.pushDataComponentToOutput(DATA_OUTPUT_INSTANCES, instances);
-			context.pushDataComponentToOutput(DATA_OUTPUT_FILENAME, fileName);
-		} catch (Exception e) {
-			e.printStackTrace();
+			if (header == null)
+				header = new Instances(structure, 0);
+			else if (!header.equalHeaders(structure))
+				throw new IOException("Shard '" + shard + "' does not match the header of '" +
+						shards.get(0) + "'. Set batchSize to 0 to merge shards whose nominal values differ.");
+
+			if (instances != null) {
+				instances.setClassIndex(instances.numAttributes() - 1);
+				pushSlices(context, instances, batchSize, printInstances, getFileName(shard));
+			}
+			else
+				pushBatches(context, source, batchSize, printInstances, getFileName(shard));
 		}
 	}
 
+	/** Opens the data source of a shard, streaming or copying remote CSV files.
+	 *
+	 * @param shard - the shard location
+	 * @param url - the shard location parsed as a URL, or null if it is not a URL
+	 * @param streamFromURL - whether a remote CSV shard is streamed
+	 * @param bufferSize - the size of the read buffers
+	 * @return the data source
+	 * @throws Exception if the source cannot be opened
+	 */
+	private DataSource openShardSource(String shard, URL url, boolean streamFromURL,
+			int bufferSize) throws Exception {
+
+		if (url != null && shard.toLowerCase().endsWith(".csv")) {
+			if (streamFromURL)
+				return openSource(shard, url, bufferSize);
+			shard = copyToTempFile(url, getFileName(url.getFile()), bufferSize);
+		}
+		return openSource(shard, null, bufferSize);
+	}
+
+	/** Parses a location as a URL.
+	 *
+	 * @param location - the file name or URL
+	 * @return the URL, or null if the location is not a URL
+	 */
+	private static URL parseURL(String location) {
+		try {
+			return new URL(location);
+		}
+		catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
+	/** Returns the last path segment of a location.
+	 *
+	 * @param location - the file name or URL
+	 * @return the file name
+	 */
+	private static String getFileName(String location) {
+		String path = location.replace('\\', '/');
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
+	/** Returns the local file the input refers to, if any.
+	 *
+	 * @param url - the input parsed as a URL, or null if it is not a URL
+	 * @param inputURL - the input file name or URL
+	 * @return the local file, or null if the input is not a local file
+	 */
+	private File getLocalFile(URL url, String inputURL) {
+		File file = null;
+		if (url == null)
+			file = new File(inputURL);
+		else if (url.getProtocol().equals("file")) {
+			try {
+				file = new File(url.toURI());
+			}
+			catch (Exception e) {
+				file = new File(url.getPath());
+			}
+		}
+		return (file != null && file.isFile()) ? file : null;
+	}
+
+	/** Loads a local file with the memory mapped parser.
+	 *
+	 * @param file - the local CSV or ARFF file
+	 * @param parserThreads - the number of parsing threads, 0 for one per processor
+	 * @return the instances, or null if the file needs one of the regular loaders
+	 * @throws IOException if the file cannot be read
+	 */
+	private Instances parseMapped(File file, int parserThreads) throws IOException {
+		try {
+			long start = System.currentTimeMillis();
+			Instances instances = new MappedInstancesParser(file, parserThreads, dictionary).parse();
+			logger.println("WekaLoadInstances: Parsed '" + file + "' in " +
+					(System.currentTimeMillis() - start) + " ms");
+			return instances;
+		}
+		catch (MappedInstancesParser.UnsupportedFormatException e) {
+			logger.println("WekaLoadInstances: Falling back to the regular loader for '" +
+					file + "': " + e.getMessage());
+			return null;
+		}
+	}
+
+	/** Builds the cache key of the input out of its location, a validator
+	 * telling whether its content changed, and the parser reading it, since
+	 * the memory mapped parser lists nominal values in order of appearance
+	 * while the Weka loaders do not. The validator is the content hash of
+	 * local files, or the ETag or Last-Modified header of HTTP resources.
+	 *
+	 * @param url - the input parsed as a URL, or null if it is not a URL
+	 * @param inputURL - the input file name or URL
+	 * @param mappedParser - whether the memory mapped parser reads the input
+	 * @return the cache key, or null if the input cannot be validated
+	 */
+	private String getCacheKey(URL url, String inputURL, boolean mappedParser) {
+		try {
+			String validator = null;
+			File localFile = getLocalFile(url, inputURL);
+			if (localFile != null)
+				validator = DiskCache.hash(localFile);
+			else if (url != null && url.getProtocol().startsWith("http"))
+				validator = getHTTPValidator(url);
+
+			if (validator == null) {
+				logger.println("WekaLoadInstances: Cannot validate '" + inputURL + "', not caching it");
+				return null;
+			}
+			return DiskCache.key(inputURL, validator, mappedParser ? "mapped" : "loader");
+		}
+		catch (IOException e) {
+			logger.println("WekaLoadInstances: Cannot validate '" + inputURL + "'. " + e.getMessage());
+			return null;
+		}
+	}
+
+	/** Asks an HTTP server for the ETag or the Last-Modified date of a
+	 * resource, without downloading it.
+	 *
+	 * @param url - the resource URL
+	 * @return the validator, or null if the server provides none
+	 * @throws IOException if the server cannot be reached
+	 */
+	private String getHTTPValidator(URL url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+		try {
+			connection.setRequestMethod("HEAD");
+			if (connection.getResponseCode() != HttpURLConnection.HTTP_OK)
+				return null;
+
+			String etag = connection.getHeaderField("ETag");
+			if (etag != null)
+				return "etag:" + etag;
+
+			long lastModified = connection.getLastModified();
+			if (lastModified != 0)
+				return "modified:" + lastModified;
+
+			return null;
+		}
+		finally {
+			connection.disconnect();
+		}
+	}
+
+	/** Loads the snapshot stored under a cache key.
+	 *
+	 * @param cacheKey - the cache key
+	 * @return the instances, or null if there is no usable snapshot
+	 */
+	private Instances loadSnapshot(String cacheKey) {
+		File entry = cache.get(cacheKey);
+		if (entry == null)
+			return null;
+
+		try {
+			long start = System.currentTimeMillis();
+			Instances instances = ColumnarInstances.read(entry, dictionary);
+			logger.println("WekaLoadInstances: Loaded snapshot '" + entry + "' in " +
+					(System.currentTimeMillis() - start) + " ms");
+			return instances;
+		}
+		catch (Exception e) {
+			logger.println("WekaLoadInstances: Discarding unreadable snapshot '" + entry + "'. " +
+					e.getMessage());
+			cache.remove(cacheKey);
+			return null;
+		}
+	}
+
+	/** Stores a snapshot of the instances under a cache key.
+	 *
+	 * @param cacheKey - the cache key
+	 * @param instances - the instances to store
+	 */
+	private void storeSnapshot(String cacheKey, Instances instances) {
+		File temp = null;
+		try {
+			temp = cache.createTempFile();
+			ColumnarInstances.write(instances, temp);
+			cache.put(cacheKey, temp);
+		}
+		catch (IOException e) {
+			logger.println("WekaLoadInstances: Cannot store snapshot. " + e.getMessage());
+			if (temp != null)
+				temp.delete();
+		}
+	}
+
+	/** Pushes the source downstream in batches of at most batchSize
+	 * instances, all sharing the header read from the source. An incremental
+	 * source, such as an ARFF file, is read one instance at a time, so the
+	 * next components can start working on the first batch while the rest
+	 * of the source is still being parsed. The other sources, CSV files
+	 * among them, are loaded whole by Weka first, so batching only bounds
+	 * the size of the pushed objects.
+	 *
+	 * @param context - the component execution context
+	 * @param source - the data source to read from
+	 * @param batchSize - the maximum number of instances per batch
+	 * @param printInstances - whether each batch should be printed
+	 * @param fileName - the file name pushed along with each batch
+	 * @throws Exception if the source cannot be read
+	 */
+	private void pushBatches(ComponentContext context, DataSource source, int batchSize,
+			boolean printInstances, String fileName) throws Exception {
+
+		if (!source.isIncremental()) {
+			logger.println("WekaLoadInstances: WARNING: The source cannot be read incrementally " +
+					"and is loaded whole before the first batch is pushed");
+			Instances instances = source.getDataSet();
+			instances.setClassIndex(instances.numAttributes() - 1);
+			pushSlices(context, instances, batchSize, printInstances, fileName);
+			return;
+		}
+
+		Instances structure = source.getStructure();
+
+		// Make the last attribute be the class
+		structure.setClassIndex(structure.numAttributes() - 1);
+
+		int numBatches = 0;
+		Instances batch = new Instances(structure, batchSize);
+		while (source.hasMoreElements(structure)) {
+			batch.add(source.nextElement(structure));
+			if (batch.numInstances() == batchSize) {
+				pushInstances(context, batch, printInstances, fileName);
+				numBatches++;
+				batch = new Instances(structure, batchSize);
+			}
+		}
+
+		// Push the remainder, or an empty batch if the source had no data
+		if (batch.numInstances() > 0 || numBatches == 0) {
+			pushInstances(context, batch, printInstances, fileName);
+			numBatches++;
+		}
+
+		logger.println("WekaLoadInstances: Pushed " + numBatches + " batch(es) of up to " +
+				batchSize + " instances");
+	}
+
+	/** Pushes instances that are already in memory downstream in batches of
+	 * at most batchSize instances.
+	 *
+	 * @param context - the component execution context
+	 * @param instances - the instances to split
+	 * @param batchSize - the maximum number of instances per batch
+	 * @param printInstances - whether each batch should be printed
+	 * @param fileName - the file name pushed along with each batch
+	 * @throws ComponentContextException if the outputs cannot be written
+	 */
+	private void pushSlices(ComponentContext context, Instances instances, int batchSize,
+			boolean printInstances, String fileName) throws ComponentContextException {
+
+		int numInstances = instances.numInstances();
+		if (numInstances == 0)
+			pushInstances(context, instances, printInstances, fileName);
+
+		for (int first = 0; first < numInstances; first += batchSize) {
+			int toCopy = Math.min(batchSize, numInstances - first);
+			pushInstances(context, new Instances(instances, first, toCopy), printInstances, fileName);
+		}
+	}
+
+	/** Reports the memory the shared dictionary saved since the last
+	 * report, when it is enabled and saved any.
+	 */
+	private void reportSharedStrings() {
+		if (dictionary == null || dictionary.getSavedBytes() == reportedSavedBytes)
+			return;
+
+		long saved = dictionary.getSavedBytes();
+		logger.println("WekaLoadInstances: Shared strings saved about " +
+				(saved - reportedSavedBytes) / 1024 + " KB (" +
+				saved / 1024 + " KB in total, " +
+				dictionary.size() + " distinct strings)");
+		reportedSavedBytes = saved;
+	}
+
+	/** Pushes an instances object and its file name to the outputs.
+	 *
+	 * @param context - the component execution context
+	 * @param instances - the instances to push
+	 * @param printInstances - whether the instances should be printed first
+	 * @param fileName - the file name to push along with the instances
+	 * @throws ComponentContextException if the outputs cannot be written
+	 */
+	private void pushInstances(ComponentContext context, Instances instances,
+			boolean printInstances, String fileName) throws ComponentContextException {
+
+		if (printInstances) {
+			// Print header and instances.
+			logger.println("\nDataset:\n"+instances);
+		}
+
+		reportSharedStrings();
+		context.pushDataComponentToOutput(DATA_OUTPUT_INSTANCES, instances);
+		context.pushDataComponentToOutput(DATA_OUTPUT_FILENAME, fileName);
+	}
+
+	/** Creates a CSV loader that parses the data referenced by url while it
+	 * is being downloaded. The URL stream is read ahead on a background thread,
+	 * so the download and the parsing overlap and no temporary file is needed.
+	 *
+	 * @param url - the URL referencing the CSV data
+	 * @param bufferSize - the size of the read-ahead buffers
+	 * @return the loader reading from the URL stream
+	 * @throws IOException if the URL cannot be opened
+	 */
+	private CSVLoader openCSVLoader(URL url, int bufferSize) throws IOException {
+		InputStream urlStream = new ReadAheadInputStream(url.openStream(),
+				bufferSize, READ_AHEAD_BUFFERS);
+
+		CSVLoader loader = new CSVLoader();
+		loader.setSource(urlStream);
+		return loader;
+	}
+
+	/** Copies the data referenced by url to a temporary file.
+	 *
+	 * @param url - the URL referencing the data to be copied
+	 * @param fileName - the name of the referenced file
+	 * @param bufferSize - the size of the copy buffer
+	 * @return the path of the temporary file
+	 * @throws IOException if the temporary file cannot be created
+	 */
+	private String copyToTempFile(URL url, String fileName, int bufferSize) throws IOException {
+		File localTempFile = File.createTempFile(fileName.substring(0, fileName.lastIndexOf('.')), ".csv");
+		localTempFile.deleteOnExit();
+
+		OutputStream outStream = new FileOutputStream(localTempFile);
+
+		logger.println("WekaLoadInstances: Copying data from '" + url +
+				"' to '" + localTempFile.getAbsolutePath() + "'");
+
+		// Copy the URL stream to the output stream
+		copyFromURL(url, outStream, bufferSize);
+
+		return localTempFile.getAbsolutePath();
+	}
+
 	/** Copies the data referenced by url to the output stream outStream
 	 *
 	 * @param url - the URL referencing the data to be copied
 	 * @param outStream - the output stream to hold the copied data
+	 * @param bufferSize - the size of the copy buffer
 	 */
-    private void copyFromURL(URL url, OutputStream outStream) {
+    private void copyFromURL(URL url, OutputStream outStream, int bufferSize) {
     	InputStream urlStream = null;
 
     	try {
     		urlStream = url.openStream();
-    		byte[] buffer = new byte[16384];  // TODO: should the buffer be customizable?
+    		byte[] buffer = new byte[bufferSize];
     		int len;
     		while ((len = urlStream.read(buffer)) > 0)
     			outStream.write(buffer, 0, len);
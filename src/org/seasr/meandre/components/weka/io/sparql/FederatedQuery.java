@@ -0,0 +1,429 @@
+/**
+ *
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ *
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ *
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ *
+ */
+package org.seasr.meandre.components.weka.io.sparql;
+
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs several queries, possibly against different SPARQL servers, at the
+ * same time and hands out the union of their solutions as they arrive. The
+ * number of connections open to each server is limited, and every request
+ * gives up when its server does not connect or send data in time, or when
+ * its solutions are not read in time. The variables of the queries ARQ can
+ * parse are taken from their SELECT clause, so the result set is returned
+ * at once. A query ARQ cannot parse declares its variables when its
+ * response starts; the solutions of the others are kept in memory until
+ * then, up to a bound past which the federation fails. Closing the result
+ * set stops the queries and releases their connections.
+ */
+public class FederatedQuery implements Iterator<QuerySolution>, Closeable {
+
+    /** The solutions handed over at a time */
+    private final static int BATCH_SIZE = 256;
+
+    /** The batches waiting to be consumed */
+    private final static int QUEUED_BATCHES = 64;
+
+    /** Marks the end of the solutions of a query */
+    private final static Object END = new Object();
+
+    /**
+     * A query to run against a server.
+     */
+    public static class Source {
+        public final String sServer;
+        public final String sQuery;
+
+        public Source(String sServer, String sQuery) {
+            this.sServer = sServer;
+            this.sQuery = sQuery;
+        }
+    }
+
+    /**
+     * The failure of a query.
+     */
+    private static class Failure {
+        final Source src;
+        final Throwable t;
+
+        Failure(Source src, Throwable t) {
+            this.src = src;
+            this.t = t;
+        }
+    }
+
+    /** The batches, end marks and failures of the running queries */
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(QUEUED_BATCHES);
+
+    /** The items received while waiting for the variables */
+    private final LinkedList<Object> llBuffered = new LinkedList<Object>();
+
+    /** A failure that did not fit in the queue, or null */
+    private volatile Failure fLate = null;
+
+    /** The time the queries wait for their solutions to be read, 0 for ever */
+    private final int iTimeout;
+
+    /** The querying threads */
+    private final ExecutorService pool;
+
+    /** The number of queries not finished yet */
+    private int iRunning;
+
+    /** The solutions of the current batch */
+    private Iterator<QuerySolution> iterCurrent = null;
+
+    private FederatedQuery(int iSources, int iTimeout) {
+        this.iRunning = iSources;
+        this.iTimeout = iTimeout;
+        this.pool = Executors.newFixedThreadPool(Math.max(1, iSources), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SPARQL federated query");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Parses a list of queries, one per line: the server URL, white space and
+     * the query. Empty lines and lines starting with # are skipped.
+     *
+     * @param sFederation The list of queries
+     * @return The queries
+     * @throws IllegalArgumentException A line has no query
+     */
+    public static List<Source> parse(String sFederation) {
+        List<Source> lst = new ArrayList<Source>();
+        for (String sLine : sFederation.split("\r?\n")) {
+            sLine = sLine.trim();
+            if (sLine.length() == 0 || sLine.startsWith("#"))
+                continue;
+            String[] sa = sLine.split("\\s+", 2);
+            if (sa.length < 2)
+                throw new IllegalArgumentException("No query for server " + sa[0]);
+            lst.add(new Source(sa[0], sa[1]));
+        }
+        return lst;
+    }
+
+    /**
+     * Runs the queries concurrently and returns a result set with the union
+     * of their solutions.
+     *
+     * @param lstSources The queries
+     * @param sFormat The result format, xml, json or tsv
+     * @param iConnections The maximum number of open connections per server
+     * @param iTimeout The connect and read timeout in milliseconds, 0 for none
+     * @return The result set, with the variables of every query in order
+     * @throws IOException A query cannot be started, or too many solutions
+     *                     arrive before the variables of every query are known
+     */
+    @SuppressWarnings("unchecked")
+    public static ResultSet query(List<Source> lstSources, final String sFormat, int iConnections,
+                                  final int iTimeout) throws IOException {
+        // Fail on an unsupported format before any thread is started
+        SparqlEndpoint.getMediaType(sFormat);
+
+        final FederatedQuery fq = new FederatedQuery(lstSources.size(), iTimeout);
+        final int iNumSources = lstSources.size();
+        final List<String>[] alVars = new List[iNumSources];
+        int iUndeclared = 0;
+        for (int i = 0; i < iNumSources; i++) {
+            alVars[i] = declaredVars(lstSources.get(i).sQuery);
+            if (alVars[i] == null)
+                iUndeclared++;
+        }
+        final CountDownLatch cdlHeads = new CountDownLatch(iUndeclared);
+        Map<String, Semaphore> mapLimits = new HashMap<String, Semaphore>();
+
+        for (int i = 0; i < iNumSources; i++) {
+            final Source src = lstSources.get(i);
+            final int iSource = i;
+            // Only the queries whose variables are not declared report their head
+            final CountDownLatch cdl = (alVars[i] == null) ? cdlHeads : null;
+            String sHost = hostOf(src.sServer);
+            Semaphore semLimit = mapLimits.get(sHost);
+            if (semLimit == null) {
+                semLimit = new Semaphore(Math.max(1, iConnections));
+                mapLimits.put(sHost, semLimit);
+            }
+            final Semaphore sem = semLimit;
+            fq.pool.execute(new Runnable() {
+                public void run() {
+                    fq.run(src, sFormat, iTimeout, sem, alVars, iSource, cdl);
+                }
+            });
+        }
+
+        // Wait for the undeclared responses to start, keeping what arrives
+        // meanwhile; the queries waiting for a connection held by a query
+        // whose solutions are kept could otherwise fill the memory
+        try {
+            while (cdlHeads.getCount() > 0) {
+                if (fq.llBuffered.size() >= QUEUED_BATCHES) {
+                    fq.finish();
+                    throw new IOException("The federated queries sent " + QUEUED_BATCHES * BATCH_SIZE +
+                                          " solutions before the variables of every query were known; " +
+                                          "select the variables by name or raise the connections per server");
+                }
+                Object o = fq.queue.poll(50, TimeUnit.MILLISECONDS);
+                if (o != null)
+                    fq.llBuffered.add(o);
+            }
+        }
+        catch (InterruptedException e) {
+            fq.finish();
+            throw new IOException("Interrupted while starting the federated queries");
+        }
+        fq.queue.drainTo(fq.llBuffered);
+
+        Set<String> setVars = new LinkedHashSet<String>();
+        for (int i = 0; i < iNumSources; i++) {
+            if (alVars[i] == null) {
+                // The query failed before its response started
+                for (Object o : fq.llBuffered)
+                    if (o instanceof Failure && ((Failure) o).src == lstSources.get(i)) {
+                        fq.finish();
+                        throw toIOException((Failure) o);
+                    }
+            }
+            else
+                setVars.addAll(alVars[i]);
+        }
+
+        return SolutionResultSet.create(new ArrayList<String>(setVars), fq, ModelFactory.createDefaultModel());
+    }
+
+    /**
+     * Returns the variables a SELECT query names, or null when ARQ cannot
+     * parse it, e.g. because it uses extensions of its server.
+     */
+    static List<String> declaredVars(String sQuery) {
+        Query q;
+        try {
+            q = QueryFactory.create(sQuery);
+        }
+        catch (RuntimeException e) {
+            return null;
+        }
+        if (!q.isSelectType())
+            return null;
+        List<String> lst = new ArrayList<String>();
+        for (Object o : q.getResultVars())
+            lst.add(o.toString());
+        return lst;
+    }
+
+    /**
+     * Runs one query, handing its solutions over in batches. The variables
+     * are stored and the latch counted down when the response starts, unless
+     * the latch is null.
+     */
+    private void run(Source src, String sFormat, int iTimeout, Semaphore sem, List<String>[] alVars,
+                     int iSource, CountDownLatch cdlHeads) {
+        SolutionReader sr = null;
+        boolean bAcquired = false;
+        try {
+            sem.acquire();
+            bAcquired = true;
+            sr = SparqlEndpoint.openReader(src.sServer, src.sQuery, sFormat, iTimeout);
+            if (cdlHeads != null) {
+                alVars[iSource] = sr.getResultVars();
+                cdlHeads.countDown();
+            }
+
+            List<QuerySolution> lstBatch = new ArrayList<QuerySolution>(BATCH_SIZE);
+            while (sr.hasNext()) {
+                lstBatch.add(sr.next());
+                if (lstBatch.size() == BATCH_SIZE) {
+                    put(lstBatch);
+                    lstBatch = new ArrayList<QuerySolution>(BATCH_SIZE);
+                }
+            }
+            if (!lstBatch.isEmpty())
+                put(lstBatch);
+            put(END);
+        }
+        catch (InterruptedException e) {
+            // Cancelled
+        }
+        catch (Throwable t) {
+            // The queue may be full of solutions nobody reads
+            if (!queue.offer(new Failure(src, t)) && fLate == null)
+                fLate = new Failure(src, t);
+        }
+        finally {
+            if (sr != null)
+                sr.close();
+            if (bAcquired)
+                sem.release();
+            if (cdlHeads != null && alVars[iSource] == null)
+                cdlHeads.countDown();
+        }
+    }
+
+    /**
+     * Hands an item over, giving up when it is not read in time.
+     *
+     * @throws InterruptedException The queries were stopped
+     * @throws IOException The result set was abandoned
+     */
+    private void put(Object o) throws InterruptedException, IOException {
+        if (iTimeout <= 0)
+            queue.put(o);
+        else if (!queue.offer(o, iTimeout, TimeUnit.MILLISECONDS))
+            throw new IOException("The federated results were not read for " + iTimeout / 1000 + " seconds");
+    }
+
+    @SuppressWarnings("unchecked")
+    public boolean hasNext() {
+        while (iterCurrent == null || !iterCurrent.hasNext()) {
+            if (iRunning == 0) {
+                finish();
+                return false;
+            }
+            Object o;
+            try {
+                if (!llBuffered.isEmpty())
+                    o = llBuffered.removeFirst();
+                else if ((o = queue.poll(50, TimeUnit.MILLISECONDS)) == null) {
+                    if (fLate == null)
+                        continue;
+                    o = fLate;
+                }
+            }
+            catch (InterruptedException e) {
+                finish();
+                throw new RuntimeException("Interrupted while reading the federated results");
+            }
+            if (o == END)
+                iRunning--;
+            else if (o instanceof Failure) {
+                finish();
+                throw new RuntimeException(toIOException((Failure) o));
+            }
+            else
+                iterCurrent = ((List<QuerySolution>) o).iterator();
+        }
+        return true;
+    }
+
+    public QuerySolution next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return iterCurrent.next();
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops the queries still running and releases their connections. No
+     * solution is returned afterwards.
+     */
+    public void close() {
+        finish();
+        llBuffered.clear();
+        queue.clear();
+        iterCurrent = null;
+    }
+
+    /**
+     * Stops the queries still running.
+     */
+    private void finish() {
+        iRunning = 0;
+        pool.shutdownNow();
+    }
+
+    /**
+     * Returns the host and port of a server, whose connections are limited
+     * together.
+     */
+    private static String hostOf(String sServer) {
+        try {
+            URL url = new URL(sServer);
+            int iPort = (url.getPort() < 0) ? url.getDefaultPort() : url.getPort();
+            return url.getHost().toLowerCase() + ":" + iPort;
+        }
+        catch (IOException e) {
+            return sServer;
+        }
+    }
+
+    private static IOException toIOException(Failure f) {
+        if (f.t instanceof IOException && f.t.getMessage() != null &&
+            f.t.getMessage().indexOf(f.src.sServer) >= 0)
+            return (IOException) f.t;
+        IOException ioe = new IOException("SPARQL server " + f.src.sServer + " failed: " + f.t.getMessage());
+        ioe.initCause(f.t);
+        return ioe;
+    }
+}
@@ -0,0 +1,347 @@
+/**
+ *
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ *
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ *
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ *
+ */
+package org.seasr.meandre.components.weka.io.sparql;
+
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.QuerySolutionMap;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Reads the SPARQL query results JSON format with a streaming tokenizer, one
+ * binding object at a time. Member names are compared in place, so only the
+ * values of the terms become strings. The head is expected before the
+ * results, as servers write it; otherwise the bindings are kept in memory
+ * until the variables are known.
+ */
+public class JSONSolutionReader extends TextSolutionReader {
+
+    /** The kinds of RDF terms */
+    private final static int URI = 1, BNODE = 2, LITERAL = 3;
+
+    /** The variables declared in the head */
+    private final List<String> lstVars = new LinkedList<String>();
+
+    /** The solutions read before the head, or null if the head came first */
+    private LinkedList<QuerySolution> llBuffered = null;
+
+    /** Whether the tokenizer is inside the bindings array */
+    private boolean bInBindings = false;
+
+    /**
+     * Reads the response up to the first binding.
+     *
+     * @param is The response stream
+     * @throws IOException The response cannot be parsed
+     */
+    public JSONSolutionReader(InputStream is) throws IOException {
+        super(is);
+        try {
+            expect('{');
+            boolean bHead = false;
+            while (nextMember()) {
+                readString();
+                expect(':');
+                if (contentEquals("head")) {
+                    readHead();
+                    bHead = true;
+                }
+                else if (contentEquals("results")) {
+                    expect('{');
+                    while (nextMember()) {
+                        readString();
+                        expect(':');
+                        if (contentEquals("bindings")) {
+                            expect('[');
+                            bInBindings = true;
+                            if (bHead)
+                                return;
+                            // No variables yet, keep the bindings until the head
+                            llBuffered = new LinkedList<QuerySolution>();
+                            QuerySolution qs;
+                            while ((qs = readBinding()) != null)
+                                llBuffered.add(qs);
+                        }
+                        else
+                            skipValue();
+                    }
+                }
+                else
+                    skipValue();
+            }
+        }
+        catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public List<String> getResultVars() {
+        return lstVars;
+    }
+
+    protected QuerySolution readSolution() throws IOException {
+        if (llBuffered != null)
+            return llBuffered.poll();
+        return readBinding();
+    }
+
+    /**
+     * Reads the head object, collecting the variables.
+     */
+    private void readHead() throws IOException {
+        expect('{');
+        while (nextMember()) {
+            readString();
+            expect(':');
+            if (contentEquals("vars")) {
+                expect('[');
+                while (nextElement()) {
+                    readString();
+                    lstVars.add(sbToken.toString());
+                }
+            }
+            else
+                skipValue();
+        }
+    }
+
+    /**
+     * Reads the next object of the bindings array.
+     *
+     * @return The solution, or null at the end of the array
+     */
+    private QuerySolution readBinding() throws IOException {
+        if (!bInBindings)
+            return null;
+        if (!nextElement()) {
+            bInBindings = false;
+            return null;
+        }
+
+        QuerySolutionMap qsm = new QuerySolutionMap();
+        expect('{');
+        while (nextMember()) {
+            readString();
+            String sVar = canonicalVar();
+            expect(':');
+            qsm.add(sVar, readTerm());
+        }
+        return qsm;
+    }
+
+    /**
+     * Reads an RDF term object.
+     */
+    private RDFNode readTerm() throws IOException {
+        String sValue = null, sLang = null, sDatatype = null;
+        int iType = 0;
+        expect('{');
+        while (nextMember()) {
+            readString();
+            expect(':');
+            if (contentEquals("type")) {
+                readString();
+                if (contentEquals("uri"))
+                    iType = URI;
+                else if (contentEquals("bnode"))
+                    iType = BNODE;
+                else if (contentEquals("literal") || contentEquals("typed-literal"))
+                    iType = LITERAL;
+                else
+                    throw error("Unknown RDF term type " + sbToken);
+            }
+            else if (contentEquals("value")) {
+                readString();
+                sValue = sbToken.toString();
+            }
+            else if (contentEquals("xml:lang")) {
+                readString();
+                sLang = sbToken.toString();
+            }
+            else if (contentEquals("datatype")) {
+                readString();
+                sDatatype = sbToken.toString();
+            }
+            else
+                skipValue();
+        }
+
+        if (sValue == null)
+            throw error("RDF term without a value");
+        switch (iType) {
+            case URI: return createResource(sValue);
+            case BNODE: return createBlankNode(sValue);
+            case LITERAL: return createLiteral(sValue, sDatatype, sLang);
+            default: throw error("RDF term without a type");
+        }
+    }
+
+    /**
+     * Returns the declared variable equal to the token, so the same name
+     * is not allocated for every binding.
+     */
+    private String canonicalVar() {
+        for (String sVar : lstVars)
+            if (contentEquals(sVar))
+                return sVar;
+        return sbToken.toString();
+    }
+
+    private boolean contentEquals(String s) {
+        int iLen = s.length();
+        if (sbToken.length() != iLen)
+            return false;
+        for (int i = 0; i < iLen; i++)
+            if (sbToken.charAt(i) != s.charAt(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Moves to the next member of an object, consuming the separating comma.
+     *
+     * @return False if the object ended
+     */
+    private boolean nextMember() throws IOException {
+        return next('}');
+    }
+
+    /**
+     * Moves to the next element of an array, consuming the separating comma.
+     *
+     * @return False if the array ended
+     */
+    private boolean nextElement() throws IOException {
+        return next(']');
+    }
+
+    private boolean next(char cClose) throws IOException {
+        int c = skipSpace();
+        if (c == ',') {
+            read();
+            c = skipSpace();
+        }
+        if (c == cClose) {
+            read();
+            return false;
+        }
+        if (c < 0)
+            throw error("Unexpected end of the response");
+        return true;
+    }
+
+    /**
+     * Reads a string into the token, decoding its escapes.
+     */
+    private void readString() throws IOException {
+        expect('"');
+        sbToken.setLength(0);
+        while (true) {
+            int c = readUntil("\"\\");
+            if (c < 0)
+                throw error("Unterminated string");
+            read();
+            if (c == '"')
+                return;
+            int e = read();
+            switch (e) {
+                case 'n': sbToken.append('\n'); break;
+                case 't': sbToken.append('\t'); break;
+                case 'r': sbToken.append('\r'); break;
+                case 'b': sbToken.append('\b'); break;
+                case 'f': sbToken.append('\f'); break;
+                case 'u': sbToken.append(readUnicodeEscape()); break;
+                case '"':
+                case '\\':
+                case '/': sbToken.append((char) e); break;
+                default: throw error("Bad escape in string");
+            }
+        }
+    }
+
+    /**
+     * Skips a value of any kind.
+     */
+    private void skipValue() throws IOException {
+        int c = skipSpace();
+        if (c == '"')
+            readString();
+        else if (c == '{') {
+            read();
+            while (nextMember()) {
+                readString();
+                expect(':');
+                skipValue();
+            }
+        }
+        else if (c == '[') {
+            read();
+            while (nextElement())
+                skipValue();
+        }
+        else {
+            // A number, true, false or null
+            sbToken.setLength(0);
+            if (readUntil(",}] \t\r\n") < 0 || sbToken.length() == 0)
+                throw error("Missing value");
+        }
+    }
+
+    private void expect(char cExpected) throws IOException {
+        int c = skipSpace();
+        if (c != cExpected)
+            throw error("Expected '" + cExpected + "' but found " + ((c < 0) ? "the end" : "'" + (char) c + "'"));
+        read();
+    }
+
+    private int skipSpace() throws IOException {
+        int c;
+        while ((c = peek()) == ' ' || c == '\n' || c == '\r' || c == '\t')
+            read();
+        return c;
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ *
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ *
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ *
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ *
+ */
+package org.seasr.meandre.components.weka.io.sparql;
+
+import com.hp.hpl.jena.rdf.model.Literal;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import org.seasr.meandre.components.weka.io.FastNumberParser;
+import weka.core.Instance;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decodes the values of result set nodes for the converters. Literals are
+ * read through their lexical form and datatype URI, and the parser of each
+ * datatype is looked up once and cached, so numeric cells are parsed in
+ * place without building intermediate strings. Plain literals and unknown
+ * datatypes keep the workaround for values ingested with their datatype:
+ * only the text before a '^' is used.
+ */
+public class LiteralDecoder {
+
+    /** The XML schema namespace */
+    private final static String XSD = "http://www.w3.org/2001/XMLSchema#";
+
+    /** The numeric XML schema datatypes */
+    private final static String[] NUMERIC_TYPES = {
+            "decimal", "integer", "int", "long", "short", "byte", "double", "float",
+            "nonNegativeInteger", "positiveInteger", "nonPositiveInteger", "negativeInteger",
+            "unsignedLong", "unsignedInt", "unsignedShort", "unsignedByte"
+    };
+
+    /**
+     * Parses the lexical form of a datatype into a double.
+     */
+    private static abstract class Parser {
+        abstract double parse(String sLex);
+    }
+
+    /** Parses numbers, including the INF and NaN forms of doubles and floats */
+    private final static Parser NUMBER = new Parser() {
+        double parse(String sLex) {
+            int iStart = 0, iEnd = sLex.length();
+            while (iStart < iEnd && sLex.charAt(iStart) <= ' ')
+                iStart++;
+            while (iEnd > iStart && sLex.charAt(iEnd - 1) <= ' ')
+                iEnd--;
+            if (iEnd > iStart) {
+                char c = sLex.charAt(iEnd - 1);
+                if (c == 'F' || c == 'N') {
+                    String s = sLex.substring(iStart, iEnd);
+                    if (s.equals("INF") || s.equals("+INF"))
+                        return Double.POSITIVE_INFINITY;
+                    if (s.equals("-INF"))
+                        return Double.NEGATIVE_INFINITY;
+                    if (s.equals("NaN"))
+                        return Double.NaN;
+                }
+            }
+            return FastNumberParser.parse(sLex, iStart, iEnd);
+        }
+    };
+
+    /** Parses booleans as 1 and 0 */
+    private final static Parser BOOLEAN = new Parser() {
+        double parse(String sLex) {
+            String s = sLex.trim();
+            if (s.equals("true") || s.equals("1"))
+                return 1;
+            if (s.equals("false") || s.equals("0"))
+                return 0;
+            throw new NumberFormatException("Not a boolean: " + sLex);
+        }
+    };
+
+    /** Parses plain literals and unknown datatypes up to the first '^' */
+    private final static Parser PLAIN = new Parser() {
+        double parse(String sLex) {
+            int iPos = sLex.indexOf('^');
+            return FastNumberParser.parse(sLex, 0, (iPos > 0) ? iPos : sLex.length());
+        }
+    };
+
+    /** The parser of each datatype URI seen so far */
+    private final static Map<String, Parser> mapParsers = new ConcurrentHashMap<String, Parser>();
+
+    static {
+        for (String sType : NUMERIC_TYPES)
+            mapParsers.put(XSD + sType, NUMBER);
+        mapParsers.put(XSD + "boolean", BOOLEAN);
+    }
+
+    /**
+     * Decodes a node into a double.
+     *
+     * @param node The node, or null if the variable is unbound
+     * @return The value, or a missing value if the variable is unbound
+     * @throws NumberFormatException The node is not a number
+     */
+    public static double toDouble(RDFNode node) {
+        if (node == null)
+            return Instance.missingValue();
+        if (!node.isLiteral())
+            return PLAIN.parse(node.toString());
+        Literal lit = (Literal) node;
+        return parser(lit.getDatatypeURI()).parse(lit.getLexicalForm());
+    }
+
+    /**
+     * Decodes a node into a label: the lexical form of literals, up to a
+     * '^' unless their datatype is known, and the URI or label of other
+     * nodes.
+     *
+     * @param node The node, or null if the variable is unbound
+     * @return The label, or null if the variable is unbound
+     */
+    public static String toLabel(RDFNode node) {
+        if (node == null)
+            return null;
+        if (!node.isLiteral())
+            return node.toString();
+        Literal lit = (Literal) node;
+        String s = lit.getLexicalForm();
+        if (parser(lit.getDatatypeURI()) != PLAIN)
+            return s;
+        int iPos = s.indexOf('^');
+        return (iPos > 0) ? s.substring(0, iPos) : s;
+    }
+
+    /**
+     * Returns the cached parser of a datatype.
+     */
+    private static Parser parser(String sDatatype) {
+        if (sDatatype == null)
+            return PLAIN;
+        Parser p = mapParsers.get(sDatatype);
+        if (p == null) {
+            p = PLAIN;
+            mapParsers.put(sDatatype, p);
+        }
+        return p;
+    }
+}
@@ -0,0 +1,409 @@
+/**
+ *
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ *
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ *
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ *
+ */
+package org.seasr.meandre.components.weka.io.sparql;
+
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.rdf.model.Model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Retrieves the results of a query as a sequence of LIMIT/OFFSET pages.
+ * Several pages are requested at the same time and handed out in order, so
+ * large extractions use several connections to the server. The JDK keeps
+ * the HTTP connections alive between pages, since every page is read to the
+ * end. A trailing LIMIT or OFFSET in the query bounds the pages. The pages
+ * only partition the results consistently when the query has an ORDER BY,
+ * so a query without one is ordered by the variables it selects, and one
+ * whose variables cannot be told is not paged. A page shorter than asked,
+ * as a server capping its results returns, does not end the results: the
+ * following pages start after it, the first short page setting their size.
+ * The results end with an empty page. Closing the pages stops the fetching
+ * threads.
+ */
+public class PagedQuery implements Iterator<QuerySolution>, Closeable {
+
+    /** Matches the LIMIT and OFFSET modifiers ending a query */
+    private final static Pattern MODIFIERS = Pattern.compile(
+            "(?is)^(.*?)((?:\\s+(?:LIMIT|OFFSET)\\s+\\d+)+)\\s*$");
+
+    /** Matches one modifier */
+    private final static Pattern MODIFIER = Pattern.compile("(?i)(LIMIT|OFFSET)\\s+(\\d+)");
+
+    /** Milliseconds to wait before the first retry, doubled on each retry */
+    private final static long RETRY_DELAY = 500;
+
+    /** The SPARQL server */
+    private final String sServer;
+
+    /** The result format */
+    private final String sFormat;
+
+    /** The query without its LIMIT and OFFSET */
+    private final String sBaseQuery;
+
+    /** The offset of the first result */
+    private final long lOffset;
+
+    /** The maximum number of results, or -1 */
+    private final long lLimit;
+
+    /** The number of results per page, lowered to the cap of the server */
+    private int iPageSize;
+
+    /** The number of pages requested at the same time */
+    private final int iThreads;
+
+    /** The number of retries of a failed page */
+    private final int iRetries;
+
+    /** The fetching threads */
+    private final ExecutorService pool;
+
+    /** The pages requested, in order */
+    private final LinkedList<Future<Page>> llPending = new LinkedList<Future<Page>>();
+
+    /** The position of the first result of the next page to request */
+    private long lNextFirst = 0;
+
+    /** Whether no more pages need to be requested */
+    private boolean bLastRequested = false;
+
+    /** Whether a short page already lowered the page size */
+    private boolean bCapped = false;
+
+    /** The solutions of the current page */
+    private Iterator<QuerySolution> iterCurrent = null;
+
+    /** Whether the current page was the last one */
+    private boolean bDone = false;
+
+    /**
+     * A fetched page.
+     */
+    private static class Page {
+        List<String> lstVars;
+        List<QuerySolution> lstRows;
+        Model model;
+        long lFirst;
+        int iRequested;
+    }
+
+    private PagedQuery(String sServer, String sQuery, String sFormat, int iPageSize, int iThreads, int iRetries)
+            throws IOException {
+        this.sServer = sServer;
+        this.sFormat = sFormat;
+        this.iPageSize = iPageSize;
+        this.iThreads = Math.max(1, iThreads);
+        this.iRetries = Math.max(0, iRetries);
+
+        long lOff = 0;
+        long lLim = -1;
+        Matcher m = MODIFIERS.matcher(sQuery);
+        if (m.matches()) {
+            sQuery = m.group(1);
+            Matcher mm = MODIFIER.matcher(m.group(2));
+            while (mm.find()) {
+                if (mm.group(1).equalsIgnoreCase("LIMIT"))
+                    lLim = Long.parseLong(mm.group(2));
+                else
+                    lOff = Long.parseLong(mm.group(2));
+            }
+        }
+        if (!isOrdered(sQuery)) {
+            List<String> lstVars = FederatedQuery.declaredVars(sQuery);
+            if (lstVars == null || lstVars.isEmpty())
+                throw new IOException("Cannot page a query without ORDER BY whose variables are not " +
+                                      "declared; order the query so the pages partition its results");
+            StringBuilder sb = new StringBuilder(sQuery).append(" ORDER BY");
+            for (String sVar : lstVars)
+                sb.append(" ?").append(sVar);
+            sQuery = sb.toString();
+        }
+        this.sBaseQuery = sQuery;
+        this.lOffset = lOff;
+        this.lLimit = lLim;
+
+        this.pool = Executors.newFixedThreadPool(this.iThreads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SPARQL page fetcher");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Runs a query page by page and returns a result set handing out the
+     * solutions of every page in order.
+     *
+     * @param sServer The SPARQL aware server
+     * @param sQuery The query
+     * @param iPageSize The number of results per page
+     * @param iThreads The number of pages requested at the same time
+     * @param iRetries The number of times a failed page is requested again
+     * @return The result set
+     * @throws IOException The query cannot be paged or the first page cannot
+     *                     be retrieved
+     */
+    public static ResultSet query(String sServer, String sQuery, int iPageSize, int iThreads, int iRetries)
+            throws IOException {
+        return query(sServer, sQuery, SparqlEndpoint.XML, iPageSize, iThreads, iRetries);
+    }
+
+    /**
+     * Runs a query page by page, requesting the pages in the given result
+     * format, and returns a result set handing out the solutions of every
+     * page in order.
+     *
+     * @param sServer The SPARQL aware server
+     * @param sQuery The query
+     * @param sFormat The format, xml, json or tsv
+     * @param iPageSize The number of results per page
+     * @param iThreads The number of pages requested at the same time
+     * @param iRetries The number of times a failed page is requested again
+     * @return The result set
+     * @throws IOException The query cannot be paged or the first page cannot
+     *                     be retrieved
+     */
+    public static ResultSet query(String sServer, String sQuery, String sFormat,
+                                  int iPageSize, int iThreads, int iRetries) throws IOException {
+        // Fail on an unsupported format before any thread is started
+        SparqlEndpoint.getMediaType(sFormat);
+        PagedQuery pq = new PagedQuery(sServer, sQuery, sFormat, iPageSize, iThreads, iRetries);
+        pq.requestPages();
+        if (pq.llPending.isEmpty()) {
+            // Nothing to page through, LIMIT 0
+            pq.finish();
+            return SparqlEndpoint.query(sServer, sQuery, sFormat);
+        }
+
+        // The first page tells the variables
+        Page pg;
+        try {
+            pg = pq.takePage();
+        }
+        catch (IOException e) {
+            pq.close();
+            throw e;
+        }
+        return SolutionResultSet.create(pg.lstVars, pq, pg.model);
+    }
+
+    /**
+     * @return Whether the query has an ORDER BY clause, without which pages
+     *         may overlap or miss results
+     */
+    public static boolean isOrdered(String sQuery) {
+        return Pattern.compile("(?is).*\\bORDER\\s+BY\\b.*").matcher(sQuery).matches();
+    }
+
+    public boolean hasNext() {
+        while (iterCurrent == null || !iterCurrent.hasNext()) {
+            if (bDone)
+                return false;
+            try {
+                takePage();
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Cannot retrieve a page of SPARQL results", e);
+            }
+        }
+        return true;
+    }
+
+    public QuerySolution next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return iterCurrent.next();
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops requesting pages and the fetching threads, the results not
+     * handed out yet being dropped.
+     */
+    public void close() {
+        finish();
+    }
+
+    /**
+     * Keeps iThreads pages requested ahead.
+     */
+    private void requestPages() {
+        while (llPending.size() < iThreads && !bLastRequested) {
+            final long lFirst = lNextFirst;
+            int iSize = iPageSize;
+            if (lLimit >= 0)
+                iSize = (int) Math.min(iPageSize, lLimit - lFirst);
+            if (iSize <= 0) {
+                bLastRequested = true;
+                break;
+            }
+
+            final String sPageQuery = sBaseQuery + " LIMIT " + iSize + " OFFSET " + (lOffset + lFirst);
+            final int iRequested = iSize;
+            llPending.add(pool.submit(new Callable<Page>() {
+                public Page call() throws IOException, InterruptedException {
+                    Page pg = fetch(sPageQuery, iRequested);
+                    pg.lFirst = lFirst;
+                    return pg;
+                }
+            }));
+            lNextFirst += iSize;
+            if (iSize < iPageSize)
+                bLastRequested = true;
+        }
+    }
+
+    /**
+     * Waits for the next page in order and makes it the current one. An
+     * empty page is the last one and cancels the pages requested after it.
+     * A short page cancels them too, and the pages are requested again from
+     * the result after it, the first short page setting the page size.
+     */
+    private Page takePage() throws IOException {
+        if (llPending.isEmpty()) {
+            finish();
+            return null;
+        }
+
+        Page pg;
+        try {
+            pg = llPending.removeFirst().get();
+        }
+        catch (InterruptedException e) {
+            finish();
+            throw new IOException("Interrupted while retrieving SPARQL results");
+        }
+        catch (ExecutionException e) {
+            finish();
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+
+        iterCurrent = pg.lstRows.iterator();
+        int iRows = pg.lstRows.size();
+        if (iRows == 0) {
+            finish();
+            return pg;
+        }
+        if (iRows < pg.iRequested) {
+            // The server caps its results, or this was the last page, which
+            // the next one, empty, tells
+            for (Future<Page> f : llPending)
+                f.cancel(true);
+            llPending.clear();
+            lNextFirst = pg.lFirst + iRows;
+            if (!bCapped) {
+                iPageSize = iRows;
+                bCapped = true;
+            }
+            bLastRequested = false;
+        }
+        requestPages();
+        if (llPending.isEmpty() && bLastRequested)
+            finish();
+        return pg;
+    }
+
+    /**
+     * Stops requesting pages and releases the fetching threads.
+     */
+    private void finish() {
+        bDone = true;
+        for (Future<Page> f : llPending)
+            f.cancel(true);
+        llPending.clear();
+        pool.shutdownNow();
+    }
+
+    /**
+     * Retrieves a whole page, retrying with an increasing delay.
+     */
+    private Page fetch(String sPageQuery, int iRequested) throws IOException, InterruptedException {
+        IOException ioeLast = null;
+        for (int iAttempt = 0; iAttempt <= iRetries; iAttempt++) {
+            if (iAttempt > 0)
+                Thread.sleep(RETRY_DELAY << (iAttempt - 1));
+            try {
+                SolutionReader sr = SparqlEndpoint.openReader(sServer, sPageQuery, sFormat);
+                Page pg = new Page();
+                pg.lstVars = sr.getResultVars();
+                pg.lstRows = new ArrayList<QuerySolution>(iRequested);
+                while (sr.hasNext())
+                    pg.lstRows.add(sr.next());
+                pg.model = sr.getModel();
+                pg.iRequested = iRequested;
+                return pg;
+            }
+            catch (IOException e) {
+                ioeLast = e;
+            }
+            catch (RuntimeException e) {
+                if (!(e.getCause() instanceof IOException))
+                    throw e;
+                ioeLast = (IOException) e.getCause();
+            }
+        }
+        throw ioeLast;
+    }
+}
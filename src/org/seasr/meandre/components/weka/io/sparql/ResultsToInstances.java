@@ -43,19 +43,21 @@ package org.seasr.meandre.components.weka.io.sparql;
 
 import com.hp.hpl.jena.query.QuerySolution;
 import com.hp.hpl.jena.query.ResultSet;
-import com.hp.hpl.jena.rdf.model.RDFNode;
 import org.meandre.core.*;
 import org.meandre.annotations.Component;
 import org.meandre.annotations.ComponentInput;
 import org.meandre.annotations.ComponentOutput;
+import org.meandre.annotations.ComponentProperty;
+import org.seasr.meandre.components.weka.io.StringDictionary;
 import weka.core.Attribute;
 import weka.core.FastVector;
+import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.SparseInstance;
 
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Converts a result sets into a sparse instance set where the last one is the label (nominal) and the attributes are doubles
@@ -78,12 +80,23 @@ public class ResultsToInstances implements ExecutableComponent {
     @ComponentOutput(description = "The resulting sparse instance set", name = "instances")
     final static String DATA_OUTPUT_INSTANCES = "instances";
 
+    @ComponentProperty(description = "Share the attribute names and labels of every converted " +
+                                     "result set through a dictionary, so each distinct string " +
+                                     "is kept in memory once? (Y/N)",
+                       name = "internStrings", defaultValue = "N")
+    final static String DATA_PROPERTY_INTERN_STRINGS = "internStrings";
+
+    /** The dictionary of shared strings, or null if it is disabled */
+    private StringDictionary sdDictionary = null;
+
     /**
      * This method is invoked when the Meandre Flow is being prepared for
      * getting run.
      */
     public void initialize(ComponentContextProperties ccp) {
-
+        String sIntern = ccp.getProperty(DATA_PROPERTY_INTERN_STRINGS);
+        if (sIntern != null && sIntern.trim().equalsIgnoreCase("Y"))
+            sdDictionary = new StringDictionary();
     }
 
     /**
@@ -95,78 +108,125 @@ public class ResultsToInstances implements ExecutableComponent {
      * @throws ComponentContextException   A violation of the component context
      *                                     access was detected
      */
-    @SuppressWarnings("unchecked")
     public void execute(ComponentContext cc)
             throws ComponentExecutionException, ComponentContextException {
         ResultSet rs = (ResultSet) cc.getDataComponentFromInput(DATA_INPUT_RESULT_SET);
 
+        long lSaved = (sdDictionary == null) ? 0 : sdDictionary.getSavedBytes();
+        Instances ins;
+        try {
+            ins = toInstances(rs, sdDictionary);
+        }
+        finally {
+            // Stops the queries behind the result set if the conversion failed
+            SolutionResultSet.close(rs);
+        }
+
+        if (sdDictionary != null) {
+            cc.getOutputConsole().println("Shared strings saved about " +
+                    (sdDictionary.getSavedBytes() - lSaved) / 1024 + " KB (" +
+                    sdDictionary.size() + " distinct strings)");
+        }
+
+        cc.pushDataComponentToOutput(DATA_OUTPUT_INSTANCES, ins);
+    }
+
+    /**
+     * Converts a result set into a sparse instance set where the last variable is the label (nominal)
+     * and the others are doubles.
+     *
+     * @param rs The result set
+     * @return The instance set
+     * @throws ComponentExecutionException The result set has no variables or a value is not a number
+     */
+    public static Instances toInstances(ResultSet rs) throws ComponentExecutionException {
+        return toInstances(rs, null);
+    }
+
+    /**
+     * Converts a result set into a sparse instance set where the last variable is the label (nominal)
+     * and the others are doubles, taking the attribute names and labels from a dictionary.
+     *
+     * @param rs The result set
+     * @param sdDictionary The dictionary of shared strings, or null
+     * @return The instance set
+     * @throws ComponentExecutionException The result set has no variables or a value is not a number
+     */
+    @SuppressWarnings("unchecked")
+    public static Instances toInstances(ResultSet rs, StringDictionary sdDictionary)
+            throws ComponentExecutionException {
         List lst = rs.getResultVars();
         int iNumAtts = lst.size();
+        if (iNumAtts == 0)
+            throw new ComponentExecutionException("The result set has no variables");
 
-        // Parse the information
         String[] saAttName = new String[iNumAtts];
-        List<RDFNode> lsta[] = new List[iNumAtts];
-        for (int i = 0, iMax = lst.size(); i < iMax; i++) {
-            saAttName[i] = lst.get(i).toString();
-            lsta[i] = new LinkedList<RDFNode>();
-        }
+        for (int i = 0; i < iNumAtts; i++)
+            saAttName[i] = StringDictionary.intern(sdDictionary, lst.get(i).toString());
+
+        // Stream the solutions into one primitive column per attribute and
+        // the label codes, in the order the labels first appear
+        int iCapacity = 1024;
+        double[][] daCols = new double[iNumAtts - 1][iCapacity];
+        int[] iaLabels = new int[iCapacity];
+        Map<String, Integer> mapLabels = new HashMap<String, Integer>();
+        FastVector fvLab = new FastVector();
 
         int iNumIns = 0;
         while (rs.hasNext()) {
             QuerySolution qs = rs.nextSolution();
-            for (int i = 0, iMax = iNumAtts; i < iMax; i++) {
-                RDFNode obj = qs.get(saAttName[i]);
-                lsta[i].add(obj);
+            if (iNumIns == iCapacity) {
+                iCapacity *= 2;
+                for (int i = 0; i < iNumAtts - 1; i++)
+                    daCols[i] = grow(daCols[i], iCapacity);
+                int[] ia = new int[iCapacity];
+                System.arraycopy(iaLabels, 0, ia, 0, iNumIns);
+                iaLabels = ia;
+            }
+            for (int i = 0; i < iNumAtts - 1; i++) {
+                try {
+                    daCols[i][iNumIns] = LiteralDecoder.toDouble(qs.get(saAttName[i]));
+                }
+                catch (NumberFormatException e) {
+                    throw new ComponentExecutionException("Variable " + saAttName[i] + " of solution " +
+                                                          iNumIns + " is not a number: " + e.getMessage());
+                }
+            }
+            String sLabel = LiteralDecoder.toLabel(qs.get(saAttName[iNumAtts - 1]));
+            if (sLabel == null)
+                iaLabels[iNumIns] = -1;
+            else {
+                Integer iCode = mapLabels.get(sLabel);
+                if (iCode == null) {
+                    iCode = mapLabels.size();
+                    mapLabels.put(sLabel, iCode);
+                    fvLab.addElement(StringDictionary.intern(sdDictionary, sLabel));
+                }
+                iaLabels[iNumIns] = iCode;
             }
             iNumIns++;
         }
 
-        // Collect the differnent labels
-        HashSet<String> hs = new HashSet<String>();
-        for (RDFNode rdfn : lsta[iNumAtts - 1]) {
-            String s = rdfn.toString();
-            int iPos = s.indexOf("^");
-            if (iPos > 0)
-                s = s.substring(0, iPos);
-            hs.add(s);
-        }
-
         // Create the instance set
         FastVector fvAtt = new FastVector(iNumAtts);
-
-        for (int i = 0, iMax = lst.size() - 1; i < iMax; i++)
+        for (int i = 0; i < iNumAtts - 1; i++)
             fvAtt.addElement(new Attribute(saAttName[i]));
+        fvAtt.addElement(new Attribute(saAttName[iNumAtts - 1], fvLab));
 
-        FastVector fvLab = new FastVector(hs.size());
-        for (String sLabel : hs)
-            fvLab.addElement(sLabel);
-
-        fvAtt.addElement(new Attribute(saAttName[saAttName.length - 1], fvLab));
-
-        Instances ins = new Instances("Transformed query results", fvAtt, iNumIns);
+        Instances ins = new Instances(StringDictionary.intern(sdDictionary, "Transformed query results"),
+                                      fvAtt, iNumIns);
 
+        // The sparse instances copy the non zero values, so one row buffer
+        // serves every instance
+        double[] daRow = new double[iNumAtts];
         for (int j = 0; j < iNumIns; j++) {
-            SparseInstance si = new SparseInstance(iNumAtts);
-            si.setDataset(ins);
-            for (int i = 0; i < iNumAtts - 1; i++) {
-                // Hack for the data ingestion bug
-                String s = lsta[i].get(j).toString();
-                int iPos = s.indexOf("^");
-                if (iPos > 0)
-                    s = s.substring(0, iPos);
-                // Conversion to double
-                si.setValue(i, Double.parseDouble(s));
-            }
-            String sClass = lsta[iNumAtts - 1].get(j).toString();
-            int iPos = sClass.indexOf("^");
-            if (iPos > 0)
-                sClass = sClass.substring(0, iPos);
-            si.setValue(iNumAtts - 1, sClass);
-            ins.add(si);
+            for (int i = 0; i < iNumAtts - 1; i++)
+                daRow[i] = daCols[i][j];
+            daRow[iNumAtts - 1] = (iaLabels[j] < 0) ? Instance.missingValue() : iaLabels[j];
+            ins.add(new SparseInstance(1.0, daRow));
         }
         ins.setClassIndex(iNumAtts - 1);
-
-        cc.pushDataComponentToOutput(DATA_OUTPUT_INSTANCES, ins);
+        return ins;
     }
 
     /**
@@ -175,4 +235,10 @@ public class ResultsToInstances implements ExecutableComponent {
     public void dispose(ComponentContextProperties ccp) {
 
     }
+
+    private static double[] grow(double[] da, int iCapacity) {
+        double[] daNew = new double[iCapacity];
+        System.arraycopy(da, 0, daNew, 0, da.length);
+        return daNew;
+    }
 }
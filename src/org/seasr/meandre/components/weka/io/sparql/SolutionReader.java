@@ -0,0 +1,186 @@
+/**
+ *
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ *
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ *
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ *
+ */
+package org.seasr.meandre.components.weka.io.sparql;
+
+import com.hp.hpl.jena.datatypes.TypeMapper;
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.rdf.model.AnonId;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the solutions of a SPARQL response one at a time, as they arrive
+ * from the stream. The variables are known as soon as the reader is built,
+ * each solution is only parsed when it is asked for, and the stream is
+ * closed once the last one has been read.
+ */
+public abstract class SolutionReader implements Iterator<QuerySolution>, Closeable {
+
+    /** The response being read */
+    protected final InputStream is;
+
+    /** The model the nodes are created in */
+    protected final Model model = ModelFactory.createDefaultModel();
+
+    /** The solution read ahead by hasNext */
+    private QuerySolution qsNext = null;
+
+    /** Whether the last solution has been read */
+    private boolean bDone = false;
+
+    /**
+     * Creates a reader over a response.
+     *
+     * @param is The response stream
+     */
+    protected SolutionReader(InputStream is) {
+        this.is = is;
+    }
+
+    /**
+     * Returns the names of the variables of the response.
+     *
+     * @return The variable names
+     */
+    public abstract List<String> getResultVars();
+
+    /**
+     * Parses the next solution of the response.
+     *
+     * @return The solution, or null after the last one
+     * @throws IOException The response cannot be read or parsed
+     */
+    protected abstract QuerySolution readSolution() throws IOException;
+
+    /**
+     * Returns the model the nodes of the solutions belong to.
+     *
+     * @return The model
+     */
+    public Model getModel() {
+        return model;
+    }
+
+    /**
+     * Creates a literal node.
+     *
+     * @param sLex The lexical form
+     * @param sDatatype The datatype URI, or null
+     * @param sLang The language tag, or null
+     * @return The literal
+     */
+    protected RDFNode createLiteral(String sLex, String sDatatype, String sLang) {
+        if (sDatatype != null)
+            return model.createTypedLiteral(sLex, TypeMapper.getInstance().getSafeTypeByName(sDatatype));
+        if (sLang != null && sLang.length() > 0)
+            return model.createLiteral(sLex, sLang);
+        return model.createLiteral(sLex);
+    }
+
+    /**
+     * Creates a URI resource.
+     *
+     * @param sURI The URI
+     * @return The resource
+     */
+    protected RDFNode createResource(String sURI) {
+        return model.createResource(sURI);
+    }
+
+    /**
+     * Creates a blank node.
+     *
+     * @param sLabel The label of the blank node in the response
+     * @return The blank node
+     */
+    protected RDFNode createBlankNode(String sLabel) {
+        return model.createResource(new AnonId(sLabel));
+    }
+
+    public boolean hasNext() {
+        if (qsNext == null && !bDone) {
+            try {
+                qsNext = readSolution();
+            }
+            catch (IOException e) {
+                close();
+                throw new RuntimeException("Cannot read the SPARQL response", e);
+            }
+            if (qsNext == null)
+                close();
+        }
+        return qsNext != null;
+    }
+
+    public QuerySolution next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        QuerySolution qs = qsNext;
+        qsNext = null;
+        return qs;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops reading and closes the response stream.
+     */
+    public void close() {
+        bDone = true;
+        try {
+            is.close();
+        }
+        catch (IOException e) {
+            // Nothing left to read anyway
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ *
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ *
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ *
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ *
+ */
+package org.seasr.meandre.components.weka.io.sparql;
+
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.engine.binding.Binding;
+import com.hp.hpl.jena.sparql.engine.binding.BindingMap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Presents an iterator of query solutions as a JENA result set, so the
+ * solutions can be produced lazily by our own readers and still flow
+ * through the components consuming result sets. The solutions come in the
+ * order they are read and are not distinct. Closing the result set closes
+ * the solutions when they can be closed.
+ */
+public class SolutionResultSet implements ResultSet, Closeable {
+
+    /** The variable names */
+    private final List<String> lstVars;
+
+    /** The solutions */
+    private final Iterator<QuerySolution> iter;
+
+    /** The model of the nodes */
+    private final Model model;
+
+    /** The number of solutions returned so far */
+    private int iRow = 0;
+
+    /**
+     * Wraps solutions in a result set.
+     *
+     * @param lstVars The variable names
+     * @param iter The solutions
+     * @param model The model of the nodes
+     */
+    public SolutionResultSet(List<String> lstVars, Iterator<QuerySolution> iter, Model model) {
+        this.lstVars = new ArrayList<String>(lstVars);
+        this.iter = iter;
+        this.model = model;
+    }
+
+    /**
+     * Wraps the solutions of a reader in a result set.
+     *
+     * @param sr The solution reader
+     * @return The result set
+     */
+    public static ResultSet create(SolutionReader sr) {
+        return new SolutionResultSet(sr.getResultVars(), sr, sr.getModel());
+    }
+
+    /**
+     * Wraps solutions in a result set.
+     *
+     * @param lstVars The variable names
+     * @param iter The solutions
+     * @param model The model of the nodes
+     * @return The result set
+     */
+    public static ResultSet create(List<String> lstVars, Iterator<QuerySolution> iter, Model model) {
+        return new SolutionResultSet(lstVars, iter, model);
+    }
+
+    /**
+     * Closes a result set that can be closed, stopping the reading of its
+     * solutions. Other result sets are left alone.
+     *
+     * @param rs The result set
+     */
+    public static void close(ResultSet rs) {
+        if (rs instanceof Closeable) {
+            try {
+                ((Closeable) rs).close();
+            }
+            catch (IOException e) {
+                // Nothing more is read anyway
+            }
+        }
+    }
+
+    public boolean hasNext() {
+        return iter.hasNext();
+    }
+
+    public QuerySolution next() {
+        QuerySolution qs = iter.next();
+        iRow++;
+        return qs;
+    }
+
+    public QuerySolution nextSolution() {
+        return next();
+    }
+
+    public Binding nextBinding() {
+        return toBinding(next());
+    }
+
+    public int getRowNumber() {
+        return iRow;
+    }
+
+    public List<String> getResultVars() {
+        return lstVars;
+    }
+
+    public Model getResourceModel() {
+        return model;
+    }
+
+    public boolean isOrdered() {
+        return false;
+    }
+
+    public boolean isDistinct() {
+        return false;
+    }
+
+    /**
+     * Solutions cannot be removed.
+     *
+     * @throws UnsupportedOperationException Always
+     */
+    public void remove() {
+        throw new UnsupportedOperationException("Result sets are read-only");
+    }
+
+    /**
+     * Closes the solutions, if they can be closed.
+     */
+    public void close() throws IOException {
+        if (iter instanceof Closeable)
+            ((Closeable) iter).close();
+    }
+
+    @Override
+    public String toString() {
+        return "Result set " + lstVars + " at row " + iRow;
+    }
+
+    /**
+     * Converts a solution into the binding of its bound variables.
+     */
+    private Binding toBinding(QuerySolution qs) {
+        BindingMap binding = new BindingMap();
+        for (String sVar : lstVars) {
+            RDFNode node = qs.get(sVar);
+            if (node != null)
+                binding.add(Var.alloc(sVar), node.asNode());
+        }
+        return binding;
+    }
+}
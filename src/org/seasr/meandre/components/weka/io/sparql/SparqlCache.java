@@ -0,0 +1,336 @@
+/**
+ *
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ *
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ *
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ *
+ */
+package org.seasr.meandre.components.weka.io.sparql;
+
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.rdf.model.Literal;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import org.seasr.meandre.components.weka.io.DiskCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Keeps the results of SPARQL queries on disk, so repeated queries are
+ * answered without contacting the server. Entries are keyed by the
+ * normalized server URL and the query text, expire after a time to live,
+ * and the least recently used ones are evicted once the cache outgrows its
+ * budget. Results are stored in the SPARQL XML format while they are being
+ * consumed, and the entry only becomes visible once the last solution has
+ * been read.
+ */
+public class SparqlCache {
+
+    /** The namespace of the SPARQL XML results */
+    private final static String SPARQL_NS = "http://www.w3.org/2005/sparql-results#";
+
+    /** The entries */
+    private final DiskCache dc;
+
+    /** The age of the abandoned entries removed when the cache is opened */
+    private final static long STALE_TEMP_AGE = 24 * 60 * 60 * 1000L;
+
+    /** The time to live of an entry in milliseconds, 0 for no expiry */
+    private final long lTTL;
+
+    /**
+     * Opens a cache directory.
+     *
+     * @param fDir The cache directory
+     * @param lMaxBytes The maximum number of bytes held by the entries
+     * @param lTTL The time to live of an entry in milliseconds, 0 for no expiry
+     * @throws IOException The directory cannot be created
+     */
+    public SparqlCache(File fDir, long lMaxBytes, long lTTL) throws IOException {
+        this.dc = new DiskCache(fDir, lMaxBytes);
+        this.lTTL = lTTL;
+        dc.purgeTempFiles(STALE_TEMP_AGE);
+    }
+
+    /**
+     * Builds the key of a query. The scheme and host of the server are
+     * lower cased, default ports, fragments and trailing slashes dropped,
+     * and the query trimmed with its line ends normalized.
+     *
+     * @param sServer The SPARQL aware server
+     * @param sQuery The query
+     * @return The key
+     */
+    public static String key(String sServer, String sQuery) {
+        String sNormServer = sServer.trim();
+        try {
+            URL url = new URL(sNormServer);
+            int iPort = url.getPort();
+            if (iPort == url.getDefaultPort())
+                iPort = -1;
+            String sPath = url.getPath();
+            while (sPath.endsWith("/"))
+                sPath = sPath.substring(0, sPath.length() - 1);
+            sNormServer = url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() +
+                          ((iPort < 0) ? "" : ":" + iPort) + sPath +
+                          ((url.getQuery() == null) ? "" : "?" + url.getQuery());
+        }
+        catch (IOException e) {
+            // Not a URL, use it as is
+        }
+        return DiskCache.key(sNormServer, sQuery.trim().replace("\r\n", "\n"));
+    }
+
+    /**
+     * Replays the cached results of a query.
+     *
+     * @param sKey The query key
+     * @return The result set, or null if the query is not cached or expired
+     */
+    public ResultSet get(String sKey) {
+        File fEntry = dc.get(sKey);
+        if (fEntry == null)
+            return null;
+
+        InputStream is = null;
+        try {
+            is = new BufferedInputStream(new FileInputStream(fEntry), 64 * 1024);
+            long lFetched = new DataInputStream(is).readLong();
+            if (lTTL > 0 && System.currentTimeMillis() - lFetched > lTTL) {
+                is.close();
+                dc.remove(sKey);
+                return null;
+            }
+            return SolutionResultSet.create(new XMLSolutionReader(is));
+        }
+        catch (IOException e) {
+            try {
+                if (is != null)
+                    is.close();
+            }
+            catch (IOException ioe) {
+                // Already failing
+            }
+            dc.remove(sKey);
+            return null;
+        }
+    }
+
+    /**
+     * Wraps the result set of a query, so its solutions are written to the
+     * cache as they are consumed.
+     *
+     * @param sKey The query key
+     * @param rs The results from the server
+     * @return A result set with the same solutions
+     * @throws IOException The entry cannot be created
+     */
+    @SuppressWarnings("unchecked")
+    public ResultSet record(String sKey, ResultSet rs) throws IOException {
+        List<String> lstVars = rs.getResultVars();
+        return SolutionResultSet.create(lstVars, new Recorder(sKey, rs, lstVars), rs.getResourceModel());
+    }
+
+    /**
+     * Copies the solutions of a result set into a new cache entry. Closing
+     * it before the last solution discards the entry.
+     */
+    private class Recorder implements Iterator<QuerySolution>, Closeable {
+
+        private final String sKey;
+        private final ResultSet rs;
+        private final List<String> lstVars;
+        private final File fTemp;
+        private Writer w;
+
+        Recorder(String sKey, ResultSet rs, List<String> lstVars) throws IOException {
+            this.sKey = sKey;
+            this.rs = rs;
+            this.lstVars = lstVars;
+            this.fTemp = dc.createTempFile();
+            try {
+                DataOutputStream dos = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(fTemp), 64 * 1024));
+                dos.writeLong(System.currentTimeMillis());
+                w = new OutputStreamWriter(dos, "UTF-8");
+                w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<sparql xmlns=\"" + SPARQL_NS + "\">\n<head>\n");
+                for (String sVar : lstVars)
+                    w.write("<variable name=\"" + escape(sVar) + "\"/>\n");
+                w.write("</head>\n<results>\n");
+            }
+            catch (IOException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        public boolean hasNext() {
+            boolean bNext;
+            try {
+                bNext = rs.hasNext();
+            }
+            catch (RuntimeException e) {
+                abort();
+                throw e;
+            }
+            if (!bNext && w != null)
+                commit();
+            return bNext;
+        }
+
+        public QuerySolution next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            QuerySolution qs = rs.nextSolution();
+            if (w != null) {
+                try {
+                    write(qs);
+                }
+                catch (IOException e) {
+                    abort();
+                }
+            }
+            return qs;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() {
+            if (w != null)
+                abort();
+            SolutionResultSet.close(rs);
+        }
+
+        private void write(QuerySolution qs) throws IOException {
+            w.write("<result>");
+            for (String sVar : lstVars) {
+                RDFNode node = qs.get(sVar);
+                if (node == null)
+                    continue;
+                w.write("<binding name=\"");
+                w.write(escape(sVar));
+                w.write("\">");
+                if (node.isLiteral()) {
+                    Literal lit = (Literal) node;
+                    w.write("<literal");
+                    if (lit.getDatatypeURI() != null)
+                        w.write(" datatype=\"" + escape(lit.getDatatypeURI()) + "\"");
+                    else if (lit.getLanguage() != null && lit.getLanguage().length() > 0)
+                        w.write(" xml:lang=\"" + escape(lit.getLanguage()) + "\"");
+                    w.write(">");
+                    w.write(escape(lit.getLexicalForm()));
+                    w.write("</literal>");
+                }
+                else if (node.isAnon()) {
+                    w.write("<bnode>");
+                    w.write(escape(((Resource) node).getId().getLabelString()));
+                    w.write("</bnode>");
+                }
+                else {
+                    w.write("<uri>");
+                    w.write(escape(((Resource) node).getURI()));
+                    w.write("</uri>");
+                }
+                w.write("</binding>");
+            }
+            w.write("</result>\n");
+        }
+
+        private void commit() {
+            try {
+                w.write("</results>\n</sparql>\n");
+                w.close();
+                w = null;
+                dc.put(sKey, fTemp);
+            }
+            catch (IOException e) {
+                abort();
+            }
+        }
+
+        private void abort() {
+            try {
+                if (w != null)
+                    w.close();
+            }
+            catch (IOException e) {
+                // Discarding the entry anyway
+            }
+            w = null;
+            fTemp.delete();
+        }
+    }
+
+    /**
+     * Escapes the XML special characters of a string.
+     */
+    private static String escape(String s) {
+        StringBuffer sb = null;
+        for (int i = 0, iMax = s.length(); i < iMax; i++) {
+            char c = s.charAt(i);
+            String sRep = (c == '&') ? "&amp;" : (c == '<') ? "&lt;" : (c == '>') ? "&gt;" :
+                          (c == '"') ? "&quot;" : (c == '\r') ? "&#13;" : null;
+            if (sRep != null && sb == null)
+                sb = new StringBuffer(s.substring(0, i));
+            if (sb != null) {
+                if (sRep != null)
+                    sb.append(sRep);
+                else
+                    sb.append(c);
+            }
+        }
+        return (sb == null) ? s : sb.toString();
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ *
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ *
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ *
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ *
+ */
+package org.seasr.meandre.components.weka.io.sparql;
+
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.query.ResultSetFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLEncoder;
+
+/**
+ * Sends queries to a SPARQL aware web server with a single request per
+ * query and reads the results while they are being downloaded.
+ */
+public class SparqlEndpoint {
+
+    /** The media type of the SPARQL XML results */
+    public final static String XML_MEDIA_TYPE = "application/sparql-results+xml";
+
+    /** The media type of the SPARQL JSON results */
+    public final static String JSON_MEDIA_TYPE = "application/sparql-results+json";
+
+    /** The media type of the SPARQL TSV results */
+    public final static String TSV_MEDIA_TYPE = "text/tab-separated-values";
+
+    /** The result formats, as given in the format parameter */
+    public final static String XML = "xml", JSON = "json", TSV = "tsv";
+
+    /** The size of the buffer in front of the response stream */
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Builds the URL asking the server for the results of a query.
+     *
+     * @param sServer The SPARQL aware server
+     * @param sQuery The query
+     * @param sFormat The value of the format parameter
+     * @return The query URL
+     * @throws IOException The URL is malformed
+     */
+    public static URL getQueryURL(String sServer, String sQuery, String sFormat) throws IOException {
+        String sSep = (sServer.indexOf('?') >= 0) ? "&" : "?";
+        return new URL(sServer + sSep + "query=" + URLEncoder.encode(sQuery, "UTF8") + "&format=" + sFormat);
+    }
+
+    /**
+     * Sends a query and opens the response.
+     *
+     * @param sServer The SPARQL aware server
+     * @param sQuery The query
+     * @param sFormat The value of the format parameter
+     * @param sAccept The accepted media type
+     * @return The response stream
+     * @throws IOException The server cannot be queried
+     */
+    public static InputStream open(String sServer, String sQuery, String sFormat, String sAccept)
+            throws IOException {
+        return open(sServer, sQuery, sFormat, sAccept, 0);
+    }
+
+    /**
+     * Sends a query and opens the response, giving up when the server does
+     * not connect or send data in time.
+     *
+     * @param sServer The SPARQL aware server
+     * @param sQuery The query
+     * @param sFormat The value of the format parameter
+     * @param sAccept The accepted media type
+     * @param iTimeout The connect and read timeout in milliseconds, 0 for none
+     * @return The response stream
+     * @throws IOException The server cannot be queried or timed out
+     */
+    public static InputStream open(String sServer, String sQuery, String sFormat, String sAccept, int iTimeout)
+            throws IOException {
+        URLConnection conn = getQueryURL(sServer, sQuery, sFormat).openConnection();
+        conn.setConnectTimeout(iTimeout);
+        conn.setReadTimeout(iTimeout);
+        conn.setRequestProperty("Accept", sAccept);
+        if (conn instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) conn;
+            if (http.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                String sMsg = "SPARQL server " + sServer + " answered " +
+                              http.getResponseCode() + " " + http.getResponseMessage();
+                http.disconnect();
+                throw new IOException(sMsg);
+            }
+        }
+        return new BufferedInputStream(conn.getInputStream(), BUFFER_SIZE);
+    }
+
+    /**
+     * Returns the media type of a result format.
+     *
+     * @param sFormat The format, xml, json or tsv
+     * @return The media type
+     * @throws IllegalArgumentException The format is not supported
+     */
+    public static String getMediaType(String sFormat) {
+        if (sFormat.equalsIgnoreCase(XML))
+            return XML_MEDIA_TYPE;
+        if (sFormat.equalsIgnoreCase(JSON))
+            return JSON_MEDIA_TYPE;
+        if (sFormat.equalsIgnoreCase(TSV))
+            return TSV_MEDIA_TYPE;
+        throw new IllegalArgumentException("Unsupported SPARQL result format " + sFormat);
+    }
+
+    /**
+     * Creates the streaming reader of a response.
+     *
+     * @param is The response stream
+     * @param sFormat The format, xml, json or tsv
+     * @return The reader
+     * @throws IOException The start of the response cannot be parsed
+     * @throws IllegalArgumentException The format is not supported
+     */
+    public static SolutionReader createReader(InputStream is, String sFormat) throws IOException {
+        if (sFormat.equalsIgnoreCase(JSON))
+            return new JSONSolutionReader(is);
+        if (sFormat.equalsIgnoreCase(TSV))
+            return new TSVSolutionReader(is);
+        if (sFormat.equalsIgnoreCase(XML))
+            return new XMLSolutionReader(is);
+        throw new IllegalArgumentException("Unsupported SPARQL result format " + sFormat);
+    }
+
+    /**
+     * Sends a query and opens a streaming reader over the response.
+     *
+     * @param sServer The SPARQL aware server
+     * @param sQuery The query
+     * @param sFormat The format, xml, json or tsv
+     * @return The reader
+     * @throws IOException The server cannot be queried
+     */
+    public static SolutionReader openReader(String sServer, String sQuery, String sFormat) throws IOException {
+        return openReader(sServer, sQuery, sFormat, 0);
+    }
+
+    /**
+     * Sends a query and opens a streaming reader over the response, giving
+     * up when the server does not connect or send data in time.
+     *
+     * @param sServer The SPARQL aware server
+     * @param sQuery The query
+     * @param sFormat The format, xml, json or tsv
+     * @param iTimeout The connect and read timeout in milliseconds, 0 for none
+     * @return The reader
+     * @throws IOException The server cannot be queried or timed out
+     */
+    public static SolutionReader openReader(String sServer, String sQuery, String sFormat, int iTimeout)
+            throws IOException {
+        return createReader(open(sServer, sQuery, sFormat.toLowerCase(), getMediaType(sFormat), iTimeout), sFormat);
+    }
+
+    /**
+     * Runs a query and returns a result set whose solutions are parsed as
+     * they arrive from the server.
+     *
+     * @param sServer The SPARQL aware server
+     * @param sQuery The query
+     * @return The streaming result set
+     * @throws IOException The server cannot be queried
+     */
+    public static ResultSet query(String sServer, String sQuery) throws IOException {
+        return query(sServer, sQuery, XML);
+    }
+
+    /**
+     * Runs a query and returns a result set whose solutions are parsed as
+     * they arrive from the server in the given format.
+     *
+     * @param sServer The SPARQL aware server
+     * @param sQuery The query
+     * @param sFormat The format, xml, json or tsv
+     * @return The streaming result set
+     * @throws IOException The server cannot be queried
+     */
+    public static ResultSet query(String sServer, String sQuery, String sFormat) throws IOException {
+        return SolutionResultSet.create(openReader(sServer, sQuery, sFormat));
+    }
+
+    /**
+     * Runs a query with a single request and parses the results with the
+     * JENA reader.
+     *
+     * @param sServer The SPARQL aware server
+     * @param sQuery The query
+     * @return The result set
+     * @throws IOException The server cannot be queried
+     */
+    public static ResultSet queryWithJena(String sServer, String sQuery) throws IOException {
+        return ResultSetFactory.fromXML(open(sServer, sQuery, XML, XML_MEDIA_TYPE));
+    }
+}
@@ -41,28 +41,19 @@
  */
 package org.seasr.meandre.components.weka.io.sparql;
 
-import com.hp.hpl.jena.query.QuerySolution;
 import com.hp.hpl.jena.query.ResultSet;
-import com.hp.hpl.jena.query.ResultSetFactory;
-import com.hp.hpl.jena.rdf.model.RDFNode;
 import org.meandre.core.*;
 import org.meandre.annotations.Component;
 import org.meandre.annotations.ComponentOutput;
 import org.meandre.annotations.ComponentProperty;
-import weka.core.Attribute;
-import weka.core.FastVector;
+import org.seasr.meandre.components.weka.io.DiskCache;
 import weka.core.Instances;
-import weka.core.SparseInstance;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
-import java.net.URL;
 import java.net.URLDecoder;
-import java.net.URLEncoder;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -96,12 +87,73 @@ public class SparqlQuerier implements ExecutableComponent {
                                       "LIMIT 100")
     final static String DATA_PROPERTY_QUERY = "query";
 
+    @ComponentProperty(description = "Parse the results while they are downloaded and output the result set " +
+                                     "before the response is complete (Y), or parse them with the JENA reader (N)",
+                       name = "streaming", defaultValue = "Y")
+    final static String DATA_PROPERTY_STREAMING = "streaming";
+
+    @ComponentProperty(description = "The format the results are requested in: xml, json or tsv. " +
+                                     "json and tsv are cheaper to parse; the JENA reader only reads xml",
+                       name = "format", defaultValue = "xml")
+    final static String DATA_PROPERTY_FORMAT = "format";
+
+    @ComponentProperty(description = "Number of results per page. When greater than 0 the query is retrieved " +
+                                     "as a sequence of LIMIT/OFFSET pages fetched concurrently; a query " +
+                                     "without an ORDER BY clause is ordered by its variables. 0 retrieves " +
+                                     "it with one request",
+                       name = "pageSize", defaultValue = "0")
+    final static String DATA_PROPERTY_PAGE_SIZE = "pageSize";
+
+    @ComponentProperty(description = "Number of pages requested at the same time",
+                       name = "pageThreads", defaultValue = "4")
+    final static String DATA_PROPERTY_PAGE_THREADS = "pageThreads";
+
+    @ComponentProperty(description = "Number of times a failed page is requested again",
+                       name = "retries", defaultValue = "3")
+    final static String DATA_PROPERTY_RETRIES = "retries";
+
+    @ComponentProperty(description = "Queries to run at the same time, one per line: the server URL, white space " +
+                                     "and the query. When set, the server, query and paging properties are " +
+                                     "ignored and the union of the results is streamed as they arrive",
+                       name = "federation", defaultValue = "")
+    final static String DATA_PROPERTY_FEDERATION = "federation";
+
+    @ComponentProperty(description = "Maximum number of federated queries running against the same server",
+                       name = "endpointConnections", defaultValue = "2")
+    final static String DATA_PROPERTY_ENDPOINT_CONNECTIONS = "endpointConnections";
+
+    @ComponentProperty(description = "Seconds a federated query waits for its server to connect or send " +
+                                     "data, or for its results to be read, 0 to wait forever",
+                       name = "timeout", defaultValue = "300")
+    final static String DATA_PROPERTY_TIMEOUT = "timeout";
+
+    @ComponentProperty(description = "Directory where the query results are cached. Empty disables the cache",
+                       name = "cacheDirectory", defaultValue = "")
+    final static String DATA_PROPERTY_CACHE_DIRECTORY = "cacheDirectory";
+
+    @ComponentProperty(description = "Maximum size of the cache in megabytes; the least recently used " +
+                                     "results are dropped when it is exceeded",
+                       name = "cacheSize", defaultValue = "256")
+    final static String DATA_PROPERTY_CACHE_SIZE = "cacheSize";
+
+    @ComponentProperty(description = "Minutes a cached result stays valid, 0 for no expiry",
+                       name = "cacheTTL", defaultValue = "1440")
+    final static String DATA_PROPERTY_CACHE_TTL = "cacheTTL";
+
+    @ComponentProperty(description = "Query the server even if the results are cached (Y); " +
+                                     "the fresh results replace the cached ones",
+                       name = "bypassCache", defaultValue = "N")
+    final static String DATA_PROPERTY_BYPASS_CACHE = "bypassCache";
+
+    /** The query result cache, null if disabled */
+    private SparqlCache scCache = null;
+
     /**
      * This method is invoked when the Meandre Flow is being prepared for
      * getting run.
      */
     public void initialize(ComponentContextProperties ccp) {
-
+        scCache = null;
     }
 
     /**
@@ -120,16 +172,74 @@ public class SparqlQuerier implements ExecutableComponent {
         try {
             String sServer = cc.getProperty(DATA_PROPERTY_SERVER);
             String sQuery = URLDecoder.decode(cc.getProperty(DATA_PROPERTY_QUERY), "UTF8");
+            boolean bStreaming = cc.getProperty(DATA_PROPERTY_STREAMING).trim().equalsIgnoreCase("Y");
+            String sFormat = cc.getProperty(DATA_PROPERTY_FORMAT).trim();
+            try {
+                SparqlEndpoint.getMediaType(sFormat);
+            }
+            catch (IllegalArgumentException e) {
+                throw new ComponentExecutionException(e.getMessage());
+            }
+            int iPageSize = Integer.parseInt(cc.getProperty(DATA_PROPERTY_PAGE_SIZE).trim());
+            String sFederation = cc.getProperty(DATA_PROPERTY_FEDERATION);
+            List<FederatedQuery.Source> lstSources = null;
+            if (sFederation != null && sFederation.trim().length() > 0) {
+                try {
+                    lstSources = FederatedQuery.parse(URLDecoder.decode(sFederation, "UTF8"));
+                }
+                catch (IllegalArgumentException e) {
+                    throw new ComponentExecutionException(e.getMessage());
+                }
+                if (lstSources.isEmpty())
+                    throw new ComponentExecutionException("The federation has no queries");
+            }
 
-            // First component
-            URL url = new URL(sServer + "?query=" + URLEncoder.encode(sQuery, "UTF8") + "&format=xml");
+            SparqlCache sc = getCache(cc);
+            String sKey = null;
+            if (sc != null) {
+                if (lstSources != null) {
+                    String[] saParts = new String[lstSources.size()];
+                    for (int i = 0; i < saParts.length; i++)
+                        saParts[i] = SparqlCache.key(lstSources.get(i).sServer, lstSources.get(i).sQuery);
+                    sKey = DiskCache.key(saParts);
+                }
+                else
+                    sKey = SparqlCache.key(sServer, sQuery);
+                if (!cc.getProperty(DATA_PROPERTY_BYPASS_CACHE).trim().equalsIgnoreCase("Y")) {
+                    ResultSet rsCached = sc.get(sKey);
+                    if (rsCached != null) {
+                        cc.pushDataComponentToOutput(DATA_OUTPUT_RESULT_SET, rsCached);
+                        return;
+                    }
+                }
+            }
 
-            StringBuffer sb = new StringBuffer("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-            InputStream is = url.openStream();
-            while (is.available() > 0)
-                sb.append((char) is.read());
+            ResultSet rs;
+            if (lstSources != null)
+                rs = FederatedQuery.query(lstSources, sFormat,
+                                          Integer.parseInt(cc.getProperty(DATA_PROPERTY_ENDPOINT_CONNECTIONS).trim()),
+                                          Integer.parseInt(cc.getProperty(DATA_PROPERTY_TIMEOUT).trim()) * 1000);
+            else if (iPageSize > 0) {
+                if (!PagedQuery.isOrdered(sQuery))
+                    cc.getOutputConsole().println("Paging a query without ORDER BY, ordering it by " +
+                                                  "its variables so the pages do not overlap");
+                rs = PagedQuery.query(sServer, sQuery, sFormat, iPageSize,
+                                      Integer.parseInt(cc.getProperty(DATA_PROPERTY_PAGE_THREADS).trim()),
+                                      Integer.parseInt(cc.getProperty(DATA_PROPERTY_RETRIES).trim()));
+            }
+            else if (bStreaming)
+                // A single request; the result set is parsed as it is consumed
+                rs = SparqlEndpoint.query(sServer, sQuery, sFormat);
+            else {
+                if (!sFormat.equalsIgnoreCase(SparqlEndpoint.XML))
+                    cc.getOutputConsole().println("WARNING: the JENA reader only reads xml results, " +
+                                                  "ignoring the " + sFormat + " format");
+                rs = SparqlEndpoint.queryWithJena(sServer, sQuery);
+            }
 
-            ResultSet rs = ResultSetFactory.fromXML(url.openStream());
+            if (sc != null)
+                // Stored while the result set is consumed
+                rs = sc.record(sKey, rs);
 
             cc.pushDataComponentToOutput(DATA_OUTPUT_RESULT_SET, rs);
         }
@@ -144,10 +254,28 @@ public class SparqlQuerier implements ExecutableComponent {
      * This method is called when the Menadre Flow execution is completed.
      */
     public void dispose(ComponentContextProperties ccp) {
+        scCache = null;
+    }
 
+    /**
+     * Opens the result cache the first time it is needed.
+     *
+     * @param cc The component context
+     * @return The cache, or null if no cache directory is set
+     * @throws IOException The cache directory cannot be created
+     */
+    private SparqlCache getCache(ComponentContext cc) throws IOException {
+        String sDir = cc.getProperty(DATA_PROPERTY_CACHE_DIRECTORY);
+        if (sDir == null || sDir.trim().length() == 0)
+            return null;
+        if (scCache == null) {
+            long lMaxBytes = Long.parseLong(cc.getProperty(DATA_PROPERTY_CACHE_SIZE).trim()) * 1024 * 1024;
+            long lTTL = Long.parseLong(cc.getProperty(DATA_PROPERTY_CACHE_TTL).trim()) * 60 * 1000;
+            scCache = new SparqlCache(new File(sDir.trim()), lMaxBytes, lTTL);
+        }
+        return scCache;
     }
 
-    @SuppressWarnings("unchecked")
     public static void main(String[] sa) {
 
         try {
@@ -156,86 +284,16 @@ public class SparqlQuerier implements ExecutableComponent {
             String sServer = "http://mensa.ncsa.uiuc.edu:8890/sparql";
             String sQuery = "SELECT ?eos ?ord ?pos WHERE {GRAPH <ANCF1901> {?s <http://www.tei-c.org/ns/1.0#eos> ?eos . ?s <http://www.tei-c.org/ns/1.0#eos> ?ord . ?s <http://www.tei-c.org/ns/1.0#pos> ?pos}} LIMIT 5";
 
-            URL url = new URL(sServer + "?query=" + URLEncoder.encode(sQuery, "UTF8") + "&format=xml");
-
-            StringBuffer sb = new StringBuffer("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-            InputStream is = url.openStream();
-            while (is.available() > 0)
-                sb.append((char) is.read());
-
-            ResultSet rs = ResultSetFactory.fromXML(url.openStream());
+            ResultSet rs = SparqlEndpoint.query(sServer, sQuery);
 
             // Second component
-            List lst = rs.getResultVars();
-            int iNumAtts = lst.size();
-
-            // Parse the information
-            String[] saAttName = new String[iNumAtts];
-            List<RDFNode> lsta[] = new List[iNumAtts];
-            for (int i = 0, iMax = lst.size(); i < iMax; i++) {
-                saAttName[i] = lst.get(i).toString();
-                lsta[i] = new LinkedList<RDFNode>();
-            }
-
-            int iNumIns = 0;
-            while (rs.hasNext()) {
-                QuerySolution qs = rs.nextSolution();
-                for (int i = 0, iMax = iNumAtts; i < iMax; i++) {
-                    RDFNode obj = qs.get(saAttName[i]);
-                    lsta[i].add(obj);
-                }
-                iNumIns++;
-            }
-
-            // Collect the differnent labels
-            HashSet<String> hs = new HashSet<String>();
-            for (RDFNode rdfn : lsta[iNumAtts - 1]) {
-                String s = rdfn.toString();
-                int iPos = s.indexOf("^");
-                if (iPos > 0)
-                    s = s.substring(0, iPos);
-                hs.add(s);
-            }
-
-            // Create the instance set
-            FastVector fvAtt = new FastVector(iNumAtts);
-
-            for (int i = 0, iMax = lst.size() - 1; i < iMax; i++)
-                fvAtt.addElement(new Attribute(saAttName[i]));
-
-            FastVector fvLab = new FastVector(hs.size());
-            for (String sLabel : hs)
-                fvLab.addElement(sLabel);
-
-            fvAtt.addElement(new Attribute(saAttName[saAttName.length - 1], fvLab));
-
-            Instances ins = new Instances(sQuery, fvAtt, 10);
-
-            for (int j = 0; j < iNumIns; j++) {
-                SparseInstance si = new SparseInstance(iNumAtts);
-                si.setDataset(ins);
-                for (int i = 0; i < iNumAtts - 1; i++) {
-                    // Hack for the data ingestion bug
-                    String s = lsta[i].get(j).toString();
-                    int iPos = s.indexOf("^");
-                    if (iPos > 0)
-                        s = s.substring(0, iPos);
-                    // Conversion to double
-                    si.setValue(i, Double.parseDouble(s));
-                }
-                String sClass = lsta[iNumAtts - 1].get(j).toString();
-                int iPos = sClass.indexOf("^");
-                if (iPos > 0)
-                    sClass = sClass.substring(0, iPos);
-                si.setValue(iNumAtts - 1, sClass);
-                ins.add(si);
-            }
-            ins.setClassIndex(iNumAtts - 1);
-
+            Instances ins = ResultsToInstances.toInstances(rs);
 
             System.out.println(ins);
 
-
+        }
+        catch (ComponentExecutionException e) {
+            e.printStackTrace();
         }
         catch (MalformedURLException e) {
             // TODO Auto-generated catch block
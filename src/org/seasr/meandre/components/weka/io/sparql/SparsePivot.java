@@ -0,0 +1,510 @@
+/**
+ *
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ *
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ *
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ *
+ */
+package org.seasr.meandre.components.weka.io.sparql;
+
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import org.seasr.meandre.components.weka.io.StringDictionary;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Pivots a result set of (row, column, value, label) solutions into a sparse
+ * instance set with one instance per row identifier and one numeric attribute
+ * per column name. The optional label becomes the last, nominal, attribute.
+ * The columns and values of each row are collected in primitive arrays, and
+ * every sparse instance is created once from them.
+ * <p>
+ * pivot streams solutions grouped by row identifier, as an ORDER BY on the
+ * row variable returns them; a row seen again later starts a new instance.
+ * pivotUnordered accepts the solutions in any order: rows are aggregated in
+ * hash tables partitioned by row identifier across threads, and the
+ * instances are sorted by row identifier at the end.
+ */
+public class SparsePivot {
+
+    /** The number of solutions handed to a partition at a time */
+    private final static int BATCH_SIZE = 4096;
+
+    /** The batches queued for each partition */
+    private final static int QUEUED_BATCHES = 4;
+
+    /** The variables holding the row identifier, column name, value and label */
+    private final String sRowVar, sColVar, sValVar, sLabelVar;
+
+    /** The column names, in the order they first appear */
+    private final List<String> lstColumns = new ArrayList<String>();
+
+    /** The index of each column name */
+    private final Map<String, Integer> mapColumns = new HashMap<String, Integer>();
+
+    /** The labels, in the order they first appear */
+    private final List<String> lstLabels = new ArrayList<String>();
+
+    /** The code of each label */
+    private final Map<String, Integer> mapLabels = new HashMap<String, Integer>();
+
+    /** The number of row identifiers that were not contiguous */
+    private int iSplitRows = 0;
+
+    /** The dictionary of the attribute names and labels, or null */
+    private final StringDictionary sdDictionary;
+
+    /**
+     * Creates a pivot.
+     *
+     * @param sRowVar The variable identifying the row
+     * @param sColVar The variable naming the column
+     * @param sValVar The variable holding the value
+     * @param sLabelVar The variable holding the label, or null for no label
+     */
+    public SparsePivot(String sRowVar, String sColVar, String sValVar, String sLabelVar) {
+        this(sRowVar, sColVar, sValVar, sLabelVar, null);
+    }
+
+    /**
+     * Creates a pivot taking the attribute names and labels of the instance
+     * sets from a dictionary.
+     *
+     * @param sRowVar The variable identifying the row
+     * @param sColVar The variable naming the column
+     * @param sValVar The variable holding the value
+     * @param sLabelVar The variable holding the label, or null for no label
+     * @param sdDictionary The dictionary of shared strings, or null
+     */
+    public SparsePivot(String sRowVar, String sColVar, String sValVar, String sLabelVar,
+                       StringDictionary sdDictionary) {
+        this.sdDictionary = sdDictionary;
+        this.sRowVar = sRowVar;
+        this.sColVar = sColVar;
+        this.sValVar = sValVar;
+        this.sLabelVar = (sLabelVar == null || sLabelVar.length() == 0) ? null : sLabelVar;
+    }
+
+    /**
+     * Pivots a result set whose solutions are grouped by row identifier.
+     *
+     * @param rs The result set
+     * @return The sparse instance set
+     * @throws NumberFormatException A value is not a number
+     */
+    public Instances pivot(ResultSet rs) {
+        List<Row> lstRows = new ArrayList<Row>();
+        Map<String, Boolean> mapSeen = new HashMap<String, Boolean>();
+        Row row = null;
+        while (rs.hasNext()) {
+            QuerySolution qs = rs.nextSolution();
+            String sRow = LiteralDecoder.toLabel(qs.get(sRowVar));
+            String sCol = LiteralDecoder.toLabel(qs.get(sColVar));
+            if (sRow == null || sCol == null)
+                continue;
+
+            if (row == null || !sRow.equals(row.sId)) {
+                if (row != null)
+                    lstRows.add(row.finish(sLabelVar != null));
+                if (mapSeen.put(sRow, Boolean.TRUE) != null)
+                    iSplitRows++;
+                row = new Row(sRow);
+            }
+            row.add(columnIndex(sCol), LiteralDecoder.toDouble(qs.get(sValVar)), label(qs));
+        }
+        if (row != null)
+            lstRows.add(row.finish(sLabelVar != null));
+        return buildInstances(lstRows);
+    }
+
+    /**
+     * Pivots a result set whose solutions come in any order. The solutions
+     * are read on the calling thread and handed to one partition per thread
+     * by row identifier hash; each partition aggregates its rows in a hash
+     * table and parses their values.
+     *
+     * @param rs The result set
+     * @param iThreads The number of partitions, 0 for one per processor
+     * @return The sparse instance set, sorted by row identifier
+     * @throws NumberFormatException A value is not a number
+     */
+    public Instances pivotUnordered(ResultSet rs, int iThreads) {
+        if (iThreads <= 0)
+            iThreads = Runtime.getRuntime().availableProcessors();
+
+        List<Row> lstRows = new ArrayList<Row>();
+        if (iThreads == 1) {
+            Partition part = new Partition(null);
+            while (rs.hasNext())
+                part.add(rs.nextSolution());
+            part.finish(lstRows);
+        }
+        else {
+            Partition[] parts = new Partition[iThreads];
+            ExecutorService pool = Executors.newFixedThreadPool(iThreads);
+            try {
+                Batch[] batches = new Batch[iThreads];
+                List<Future<Object>> lstFutures = new ArrayList<Future<Object>>(iThreads);
+                for (int p = 0; p < iThreads; p++) {
+                    final Partition part = parts[p] = new Partition(new ArrayBlockingQueue<Batch>(QUEUED_BATCHES));
+                    batches[p] = new Batch();
+                    lstFutures.add(pool.submit(new Callable<Object>() {
+                        public Object call() {
+                            part.run();
+                            return null;
+                        }
+                    }));
+                }
+
+                try {
+                    while (rs.hasNext()) {
+                        QuerySolution qs = rs.nextSolution();
+                        String sRow = LiteralDecoder.toLabel(qs.get(sRowVar));
+                        String sCol = LiteralDecoder.toLabel(qs.get(sColVar));
+                        if (sRow == null || sCol == null)
+                            continue;
+                        int p = (sRow.hashCode() & 0x7fffffff) % iThreads;
+                        Batch batch = batches[p];
+                        batch.add(sRow, columnIndex(sCol), qs.get(sValVar), label(qs));
+                        if (batch.iSize == BATCH_SIZE) {
+                            parts[p].put(batch);
+                            batches[p] = new Batch();
+                        }
+                    }
+                }
+                finally {
+                    // Flush and end every partition, even if reading failed
+                    for (int p = 0; p < iThreads; p++) {
+                        if (batches[p].iSize > 0)
+                            parts[p].put(batches[p]);
+                        parts[p].put(Batch.END);
+                    }
+                }
+
+                for (Future<Object> f : lstFutures)
+                    f.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while pivoting the results", e);
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new RuntimeException(e.getCause());
+            }
+            finally {
+                pool.shutdownNow();
+            }
+            for (Partition part : parts)
+                part.finish(lstRows);
+        }
+
+        Collections.sort(lstRows, new Comparator<Row>() {
+            public int compare(Row r1, Row r2) {
+                return r1.sId.compareTo(r2.sId);
+            }
+        });
+        return buildInstances(lstRows);
+    }
+
+    /**
+     * @return The number of row identifiers whose solutions were not
+     *         contiguous and so produced more than one instance
+     */
+    public int getSplitRows() {
+        return iSplitRows;
+    }
+
+    /**
+     * Returns the index of a column name, adding it if it is new.
+     */
+    private int columnIndex(String sCol) {
+        Integer iCol = mapColumns.get(sCol);
+        if (iCol == null) {
+            iCol = lstColumns.size();
+            lstColumns.add(sCol);
+            mapColumns.put(sCol, iCol);
+        }
+        return iCol;
+    }
+
+    /**
+     * Returns the code of the label of a solution, adding it if it is new.
+     *
+     * @return The label code, or -1 if there is no label
+     */
+    private int label(QuerySolution qs) {
+        if (sLabelVar == null)
+            return -1;
+        String sLabel = LiteralDecoder.toLabel(qs.get(sLabelVar));
+        if (sLabel == null)
+            return -1;
+        Integer iCode = mapLabels.get(sLabel);
+        if (iCode == null) {
+            iCode = lstLabels.size();
+            lstLabels.add(sLabel);
+            mapLabels.put(sLabel, iCode);
+        }
+        return iCode;
+    }
+
+    /**
+     * Creates the instance set out of the finished rows.
+     */
+    private Instances buildInstances(List<Row> lstRows) {
+        int iNumCols = lstColumns.size();
+        int iNumAtts = iNumCols + ((sLabelVar == null) ? 0 : 1);
+
+        FastVector fvAtt = new FastVector(iNumAtts);
+        for (String sCol : lstColumns)
+            fvAtt.addElement(new Attribute(StringDictionary.intern(sdDictionary, sCol)));
+        if (sLabelVar != null) {
+            FastVector fvLab = new FastVector(lstLabels.size());
+            for (String sLabel : lstLabels)
+                fvLab.addElement(StringDictionary.intern(sdDictionary, sLabel));
+            fvAtt.addElement(new Attribute(StringDictionary.intern(sdDictionary, sLabelVar), fvLab));
+        }
+
+        int iNumIns = lstRows.size();
+        Instances ins = new Instances(StringDictionary.intern(sdDictionary, "Transformed query results"),
+                                      fvAtt, iNumIns);
+        for (int j = 0; j < iNumIns; j++) {
+            Row row = lstRows.get(j);
+            int[] ia = row.iaIndices;
+            if (ia.length > 0 && ia[ia.length - 1] < 0)
+                ia[ia.length - 1] = iNumCols;
+            ins.add(new SparseInstance(1.0, row.daValues, ia, iNumAtts));
+            lstRows.set(j, null);
+        }
+        if (sLabelVar != null)
+            ins.setClassIndex(iNumCols);
+        return ins;
+    }
+
+    /**
+     * The columns and values of a row being collected.
+     */
+    private static class Row {
+
+        final String sId;
+        int[] iaIndices = new int[8];
+        double[] daValues = new double[8];
+        int iNNZ = 0;
+        int iLabel = -1;
+
+        Row(String sId) {
+            this.sId = sId;
+        }
+
+        void add(int iCol, double dValue, int iLabelCode) {
+            if (iNNZ == iaIndices.length) {
+                iaIndices = Arrays.copyOf(iaIndices, iNNZ * 2);
+                daValues = Arrays.copyOf(daValues, iNNZ * 2);
+            }
+            iaIndices[iNNZ] = iCol;
+            daValues[iNNZ++] = dValue;
+            if (iLabel < 0)
+                iLabel = iLabelCode;
+        }
+
+        /**
+         * Replaces the collected values by the sorted ones, with the label
+         * last. A column given more than once keeps its last value, and zeros
+         * are left out. The label index is only known once every column has
+         * been seen, so it is stored as -1 and fixed when the instances are
+         * built.
+         */
+        Row finish(boolean bLabel) {
+            boolean bSorted = true;
+            for (int k = 1; k < iNNZ && bSorted; k++)
+                bSorted = iaIndices[k - 1] < iaIndices[k];
+            if (!bSorted) {
+                // Sort by column, then by arrival, so the last value wins
+                long[] la = new long[iNNZ];
+                for (int k = 0; k < iNNZ; k++)
+                    la[k] = ((long) iaIndices[k] << 32) | k;
+                Arrays.sort(la);
+                double[] da = Arrays.copyOf(daValues, iNNZ);
+                int iOut = 0;
+                for (int k = 0; k < iNNZ; k++) {
+                    int iCol = (int) (la[k] >>> 32);
+                    if (iOut > 0 && iaIndices[iOut - 1] == iCol)
+                        iOut--;
+                    iaIndices[iOut] = iCol;
+                    daValues[iOut++] = da[(int) la[k]];
+                }
+                iNNZ = iOut;
+            }
+
+            bLabel = bLabel && iLabel != 0;
+            int iNonZero = bLabel ? 1 : 0;
+            for (int k = 0; k < iNNZ; k++)
+                if (daValues[k] != 0)
+                    iNonZero++;
+            int[] ia = new int[iNonZero];
+            double[] da = new double[iNonZero];
+            int iOut = 0;
+            for (int k = 0; k < iNNZ; k++)
+                if (daValues[k] != 0) {
+                    ia[iOut] = iaIndices[k];
+                    da[iOut++] = daValues[k];
+                }
+            if (bLabel) {
+                ia[iOut] = -1;
+                da[iOut] = (iLabel < 0) ? Instance.missingValue() : iLabel;
+            }
+            iaIndices = ia;
+            daValues = da;
+            iNNZ = iNonZero;
+            return this;
+        }
+    }
+
+    /**
+     * Solutions handed to a partition, with the column and label already
+     * coded and the value still to be parsed.
+     */
+    private static class Batch {
+
+        /** Marks the end of the solutions of a partition */
+        final static Batch END = new Batch();
+
+        final String[] saRows = new String[BATCH_SIZE];
+        final int[] iaCols = new int[BATCH_SIZE];
+        final RDFNode[] naValues = new RDFNode[BATCH_SIZE];
+        final int[] iaLabels = new int[BATCH_SIZE];
+        int iSize = 0;
+
+        void add(String sRow, int iCol, RDFNode nValue, int iLabel) {
+            saRows[iSize] = sRow;
+            iaCols[iSize] = iCol;
+            naValues[iSize] = nValue;
+            iaLabels[iSize++] = iLabel;
+        }
+    }
+
+    /**
+     * The rows of the identifiers hashed to one partition.
+     */
+    private class Partition {
+
+        private final Map<String, Row> mapRows = new HashMap<String, Row>();
+        private final BlockingQueue<Batch> queue;
+        private RuntimeException failure = null;
+
+        Partition(BlockingQueue<Batch> queue) {
+            this.queue = queue;
+        }
+
+        /**
+         * Adds a solution read on this thread.
+         */
+        void add(QuerySolution qs) {
+            String sRow = LiteralDecoder.toLabel(qs.get(sRowVar));
+            String sCol = LiteralDecoder.toLabel(qs.get(sColVar));
+            if (sRow != null && sCol != null)
+                add(sRow, columnIndex(sCol), qs.get(sValVar), label(qs));
+        }
+
+        void add(String sRow, int iCol, RDFNode nValue, int iLabel) {
+            Row row = mapRows.get(sRow);
+            if (row == null) {
+                row = new Row(sRow);
+                mapRows.put(sRow, row);
+            }
+            row.add(iCol, LiteralDecoder.toDouble(nValue), iLabel);
+        }
+
+        void put(Batch batch) throws InterruptedException {
+            queue.put(batch);
+        }
+
+        /**
+         * Aggregates the queued batches until the end mark. After a failure
+         * the remaining batches are drained, so the reader never blocks.
+         */
+        void run() {
+            try {
+                Batch batch;
+                while ((batch = queue.take()) != Batch.END) {
+                    if (failure != null)
+                        continue;
+                    try {
+                        for (int k = 0; k < batch.iSize; k++)
+                            add(batch.saRows[k], batch.iaCols[k], batch.naValues[k], batch.iaLabels[k]);
+                    }
+                    catch (RuntimeException e) {
+                        failure = e;
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (failure != null)
+                throw failure;
+        }
+
+        void finish(List<Row> lstRows) {
+            for (Row row : mapRows.values())
+                lstRows.add(row.finish(sLabelVar != null));
+            mapRows.clear();
+        }
+    }
+}
@@ -41,38 +41,32 @@
  */
 package org.seasr.meandre.components.weka.io.sparql;
 
-import com.hp.hpl.jena.query.QuerySolution;
 import com.hp.hpl.jena.query.ResultSet;
-import com.hp.hpl.jena.query.ResultSetFactory;
-import com.hp.hpl.jena.rdf.model.RDFNode;
 import org.meandre.core.*;
 import org.meandre.annotations.Component;
 import org.meandre.annotations.ComponentInput;
 import org.meandre.annotations.ComponentOutput;
-import weka.core.Attribute;
-import weka.core.FastVector;
+import org.meandre.annotations.ComponentProperty;
+import org.seasr.meandre.components.weka.io.StringDictionary;
 import weka.core.Instances;
-import weka.core.SparseInstance;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
-import java.net.URLEncoder;
-import java.util.HashSet;
-import java.util.Hashtable;
-import java.util.LinkedList;
-import java.util.List;
 
 /**
- * Converts a result sets into a sparse instance set where the last one is the label (nominal) and the attributes are doubles
+ * Pivots a result set of row, column, value and label variables into a sparse
+ * instance set with one instance per row and the label (nominal) last
  *
  * @author Xavier Llora
  */
 
 @Component(
         creator = "Xavier Llora",
-        description = "Converts a result sets into a sparse instance set where the last one " +
-                      "is the label (nominal) and the attributes are doubles",
+        description = "Pivots a result set into a sparse instance set with one instance per " +
+                      "distinct value of the row variable and one numeric attribute per distinct " +
+                      "value of the column variable, holding the value variable. The label " +
+                      "variable, if given, becomes the last (nominal) attribute. Ordered results " +
+                      "are pivoted as they stream; unordered ones are aggregated by row in " +
+                      "parallel, so the query needs no ORDER BY",
         name = "Sparse results to instances",
         tags = "instances transformation"
 )
@@ -84,21 +78,52 @@ public class SparseResultsToInstances implements ExecutableComponent {
     @ComponentOutput(description = "The resulting sparse instance set", name = "instances")
     final static String DATA_OUTPUT_INSTANCES = "instances";
 
-    private static int ROW_ID_COLUMN = 0;
-    private static int COL_NAME_COLUMN = 1;
-    private static int VALUE_COLUMN = 2;
-    private static int LABEL_COLUMN = 3;
+    @ComponentProperty(description = "The variable identifying the instance of each solution",
+                       name = "rowVariable", defaultValue = "docID")
+    final static String DATA_PROPERTY_ROW_VARIABLE = "rowVariable";
+
+    @ComponentProperty(description = "The variable naming the attribute of each solution",
+                       name = "columnVariable", defaultValue = "pos")
+    final static String DATA_PROPERTY_COLUMN_VARIABLE = "columnVariable";
+
+    @ComponentProperty(description = "The variable holding the numeric value of each solution",
+                       name = "valueVariable", defaultValue = "wpcount")
+    final static String DATA_PROPERTY_VALUE_VARIABLE = "valueVariable";
+
+    @ComponentProperty(description = "The variable holding the label of each instance. Empty for no label",
+                       name = "labelVariable", defaultValue = "sex")
+    final static String DATA_PROPERTY_LABEL_VARIABLE = "labelVariable";
+
+    @ComponentProperty(description = "Are the results ordered by the row variable? (Y/N) If not, the rows " +
+                                     "are aggregated in hash tables and the instances sorted by row",
+                       name = "ordered", defaultValue = "Y")
+    final static String DATA_PROPERTY_ORDERED = "ordered";
+
+    @ComponentProperty(description = "Number of threads aggregating unordered results, 0 for one per processor",
+                       name = "threads", defaultValue = "0")
+    final static String DATA_PROPERTY_THREADS = "threads";
+
+    @ComponentProperty(description = "Share the attribute names and labels of every pivoted " +
+                                     "result set through a dictionary, so each distinct string " +
+                                     "is kept in memory once? (Y/N)",
+                       name = "internStrings", defaultValue = "N")
+    final static String DATA_PROPERTY_INTERN_STRINGS = "internStrings";
+
+    /** The dictionary of shared strings, or null if it is disabled */
+    private StringDictionary sdDictionary = null;
 
     /**
      * This method is invoked when the Meandre Flow is being prepared for
      * getting run.
      */
     public void initialize(ComponentContextProperties ccp) {
-
+        String sIntern = ccp.getProperty(DATA_PROPERTY_INTERN_STRINGS);
+        if (sIntern != null && sIntern.trim().equalsIgnoreCase("Y"))
+            sdDictionary = new StringDictionary();
     }
 
     /**
-     * Converts a result sets into a sparse instance set where the last one is the label (nominal) and the attributes are doubles
+     * Pivots a result set into a sparse instance set where the last attribute is the label (nominal)
      *
      * @throws ComponentExecutionException If a fatal condition arises during
      *                                     the execution of a component, a ComponentExecutionException
@@ -106,135 +131,40 @@ public class SparseResultsToInstances implements ExecutableComponent {
      * @throws ComponentContextException   A violation of the component context
      *                                     access was detected
      */
-    @SuppressWarnings("unchecked")
     public void execute(ComponentContext cc)
             throws ComponentExecutionException, ComponentContextException {
-        //ResultSet rs = (ResultSet)cc.getDataComponentFromInput(DATA_INPUT_RESULT_SET);
-
-        String sServer = "http://mensa.ncsa.uiuc.edu:8890/sparql";
-        String sQuery = "SELECT ?docID ?pos ?wpcount ?sex " +
-                        "WHERE {" +
-                        "   GRAPH <TheModel2> {" +
-                        "       ?docref <http://2node.org/model#documentName> ?docID ." +
-                        "       ?docref <http://2node.org/model#authorSex> ?sex ." +
-                        "       ?docref <http://2node.org/model#words> ?wordsref ." +
-                        "       ?wordsref <http://2node.org/model/words/word_pos> ?wordref." +
-                        "       ?wordref <http://2node.org/model/words/word_pos#pos> ?pos." +
-                        "       ?wordref <http://2node.org/model/words/word_pos#count> ?wpcount ." +
-                        "   }" +
-                        "} " +
-                        "order by ?docID  ?pos ?wpcount ?sex ";
-
-        // First component
-        ResultSet rs = null;
+        ResultSet rs = (ResultSet) cc.getDataComponentFromInput(DATA_INPUT_RESULT_SET);
+
+        SparsePivot sp = new SparsePivot(cc.getProperty(DATA_PROPERTY_ROW_VARIABLE).trim(),
+                                         cc.getProperty(DATA_PROPERTY_COLUMN_VARIABLE).trim(),
+                                         cc.getProperty(DATA_PROPERTY_VALUE_VARIABLE).trim(),
+                                         cc.getProperty(DATA_PROPERTY_LABEL_VARIABLE).trim(), sdDictionary);
+        boolean bOrdered = !cc.getProperty(DATA_PROPERTY_ORDERED).trim().equalsIgnoreCase("N");
+        long lSaved = (sdDictionary == null) ? 0 : sdDictionary.getSavedBytes();
+        Instances ins;
         try {
-            URL url = new URL(sServer + "?query=" + URLEncoder.encode(sQuery, "UTF8") + "&format=xml");
-
-            StringBuffer sb = new StringBuffer("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-            InputStream is = url.openStream();
-            while (is.available() > 0)
-                sb.append((char) is.read());
-
-            rs = ResultSetFactory.fromXML(url.openStream());
-        }
-        catch (Exception e) {
-            throw new ComponentExecutionException(e);
-        }
-
-        List lst = rs.getResultVars();
-        int iNumColumns = lst.size();
-
-        // Parse the information
-        String[] saAttName = new String[iNumColumns];
-        List<RDFNode> lsta[] = new List[iNumColumns];
-        for (int i = 0, iMax = lst.size(); i < iMax; i++) {
-            saAttName[i] = lst.get(i).toString();
-            lsta[i] = new LinkedList<RDFNode>();
-        }
-
-        int iNumIns = 0;
-        while (rs.hasNext()) {
-            QuerySolution qs = rs.nextSolution();
-            for (int i = 0, iMax = iNumColumns; i < iMax; i++) {
-                RDFNode obj = qs.get(saAttName[i]);
-                lsta[i].add(obj);
-            }
-            iNumIns++;
-        }
-
-        // Collect the different labels
-        HashSet<String> hsLabels = new HashSet<String>();
-        for (RDFNode rdfn : lsta[LABEL_COLUMN]) {
-            String s = rdfn.toString();
-            s = typeTrimer(s);
-            hsLabels.add(s);
+            if (bOrdered)
+                ins = sp.pivot(rs);
+            else
+                ins = sp.pivotUnordered(rs, Integer.parseInt(cc.getProperty(DATA_PROPERTY_THREADS).trim()));
         }
-
-        // Collect the different column names
-        HashSet<String> hsColNames = new HashSet<String>();
-        for (RDFNode rdfn : lsta[COL_NAME_COLUMN]) {
-            String s = rdfn.toString();
-            s = typeTrimer(s);
-            hsColNames.add(s);
-        }
-
-        int iNumAtt = hsColNames.size() + 1;
-
-        // Create the attribute instance set
-        FastVector fvAtt = new FastVector(iNumAtt);
-        Hashtable<String, Integer> htNameToAtt = new Hashtable<String, Integer>();
-        int iCnt = 0;
-        for (String sColName : hsColNames) {
-            Attribute att = new Attribute(sColName);
-            fvAtt.addElement(att);
-            htNameToAtt.put(sColName, iCnt++);
+        catch (NumberFormatException e) {
+            throw new ComponentExecutionException("A value is not a number: " + e.getMessage());
         }
-
-        FastVector fvLab = new FastVector(hsLabels.size());
-        //for ( String sLabel:hsLabels )
-        //	fvLab.addElement(sLabel);
-        fvLab.addElement("m");
-        fvLab.addElement("f");
-
-        Attribute attClass = new Attribute(saAttName[LABEL_COLUMN], fvLab);
-        fvAtt.addElement(attClass);
-
-        System.out.println("" + iNumAtt + "," + iNumIns + "." + fvAtt.size());
-
-        Instances ins = new Instances("Transformed query results", fvAtt, iNumIns);
-
-        String sCurrentDocID = "";
-        SparseInstance si = null;
-        for (int j = 0; j < iNumIns; j++) {
-            String sDocID = typeTrimer(lsta[ROW_ID_COLUMN].get(j).toString());
-            String sColName = typeTrimer(lsta[COL_NAME_COLUMN].get(j).toString());
-            String sColVal = typeTrimer(lsta[VALUE_COLUMN].get(j).toString());
-            String sLabel = typeTrimer(lsta[LABEL_COLUMN].get(j).toString());
-
-            if (sDocID.equals(sCurrentDocID)) {
-                // Still the same instance
-                int iAtt = htNameToAtt.get(sColName);
-                si.setValue(iAtt, Double.parseDouble(sColVal));
-            }
-            else {
-                if (si != null) {
-                    si.setValue(fvAtt.size() - 1, sLabel);
-                    ins.add(si);
-                }
-                // New instance
-                sCurrentDocID = sDocID;
-                si = new SparseInstance(iNumAtt);
-                si.setDataset(ins);
-                int iAtt = htNameToAtt.get(sColName);
-                si.setValue(iAtt, Double.parseDouble(sColVal));
-                si.setValue(fvAtt.size() - 1, sLabel);
-
-            }
+        finally {
+            // Stops the queries behind the result set if the pivot failed
+            SolutionResultSet.close(rs);
         }
-        ins.add(si);
-        ins.setClassIndex(fvAtt.size() - 1);
 
-        System.out.println(ins.toSummaryString());
+        if (sdDictionary != null)
+            cc.getOutputConsole().println("Shared strings saved about " +
+                    (sdDictionary.getSavedBytes() - lSaved) / 1024 + " KB (" +
+                    sdDictionary.size() + " distinct strings)");
+        if (sp.getSplitRows() > 0)
+            cc.getOutputConsole().println("WARNING: the solutions of " + sp.getSplitRows() +
+                                          " rows were not contiguous and produced several instances; " +
+                                          "order the query by the row variable or set ordered to N");
+        cc.getOutputConsole().println(ins.toSummaryString());
 
         cc.pushDataComponentToOutput(DATA_OUTPUT_INSTANCES, ins);
     }
@@ -246,7 +176,6 @@ public class SparseResultsToInstances implements ExecutableComponent {
 
     }
 
-    @SuppressWarnings("unchecked")
     public static void main(String[] sa) throws IOException {
         String sServer = "http://mensa.ncsa.uiuc.edu:8890/sparql";
         String sQuery = "SELECT ?docID ?pos ?wpcount ?sex " +
@@ -263,124 +192,10 @@ public class SparseResultsToInstances implements ExecutableComponent {
                         "order by ?docID  ?pos ?wpcount ?sex " +
                         "limit 1000";
 
-        // First component
-        URL url = new URL(sServer + "?query=" + URLEncoder.encode(sQuery, "UTF8") + "&format=xml");
-
-        StringBuffer sb = new StringBuffer("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-        InputStream is = url.openStream();
-        while (is.available() > 0)
-            sb.append((char) is.read());
-
-        ResultSet rs = ResultSetFactory.fromXML(url.openStream());
-
-        List lst = rs.getResultVars();
-        int iNumColumns = lst.size();
-
-        // Parse the information
-        String[] saAttName = new String[iNumColumns];
-        List<RDFNode> lsta[] = new List[iNumColumns];
-        for (int i = 0, iMax = lst.size(); i < iMax; i++) {
-            saAttName[i] = lst.get(i).toString();
-            lsta[i] = new LinkedList<RDFNode>();
-        }
-
-        int iNumIns = 0;
-        while (rs.hasNext()) {
-            QuerySolution qs = rs.nextSolution();
-            for (int i = 0, iMax = iNumColumns; i < iMax; i++) {
-                RDFNode obj = qs.get(saAttName[i]);
-                lsta[i].add(obj);
-            }
-            iNumIns++;
-        }
-
-        // Collect the different labels
-        HashSet<String> hsLabels = new HashSet<String>();
-        for (RDFNode rdfn : lsta[LABEL_COLUMN]) {
-            String s = rdfn.toString();
-            s = typeTrimer(s);
-            hsLabels.add(s);
-        }
-
-        // Collect the different column names
-        HashSet<String> hsColNames = new HashSet<String>();
-        for (RDFNode rdfn : lsta[COL_NAME_COLUMN]) {
-            String s = rdfn.toString();
-            s = typeTrimer(s);
-            hsColNames.add(s);
-        }
-
-        int iNumAtt = hsColNames.size() + 1;
-
-        // Create the attribute instance set
-        FastVector fvAtt = new FastVector(iNumAtt);
-        Hashtable<String, Integer> htNameToAtt = new Hashtable<String, Integer>();
-        int iCnt = 0;
-        for (String sColName : hsColNames) {
-            Attribute att = new Attribute(sColName);
-            fvAtt.addElement(att);
-            htNameToAtt.put(sColName, iCnt++);
-        }
-
-        FastVector fvLab = new FastVector(hsLabels.size());
-        //for ( String sLabel:hsLabels )
-        //	fvLab.addElement(sLabel);
-        fvLab.addElement("m");
-        fvLab.addElement("f");
-
-        Attribute attClass = new Attribute(saAttName[LABEL_COLUMN], fvLab);
-        fvAtt.addElement(attClass);
-
-        System.out.println("" + iNumAtt + "," + iNumIns + "." + fvAtt.size());
-
-        Instances ins = new Instances("Transformed query results", fvAtt, iNumIns);
-
-        String sCurrentDocID = "";
-        SparseInstance si = null;
-        for (int j = 0; j < iNumIns; j++) {
-            String sDocID = typeTrimer(lsta[ROW_ID_COLUMN].get(j).toString());
-            String sColName = typeTrimer(lsta[COL_NAME_COLUMN].get(j).toString());
-            String sColVal = typeTrimer(lsta[VALUE_COLUMN].get(j).toString());
-            String sLabel = typeTrimer(lsta[LABEL_COLUMN].get(j).toString());
-
-            if (sDocID.equals(sCurrentDocID)) {
-                // Still the same instance
-                int iAtt = htNameToAtt.get(sColName);
-                si.setValue(iAtt, Double.parseDouble(sColVal));
-            }
-            else {
-                if (si != null) {
-                    si.setValue(fvAtt.size() - 1, sLabel);
-                    ins.add(si);
-                }
-                // New instance
-                sCurrentDocID = sDocID;
-                si = new SparseInstance(iNumAtt);
-                si.setDataset(ins);
-                int iAtt = htNameToAtt.get(sColName);
-                si.setValue(iAtt, Double.parseDouble(sColVal));
-                si.setValue(fvAtt.size() - 1, sLabel);
-
-            }
-        }
-        ins.add(si);
-        ins.setClassIndex(fvAtt.size() - 1);
+        ResultSet rs = SparqlEndpoint.query(sServer, sQuery);
+        Instances ins = new SparsePivot("docID", "pos", "wpcount", "sex").pivot(rs);
 
         System.out.println(ins);
         System.out.println(ins.toSummaryString());
-
-    }
-
-    /**
-     * Trime the XSD type out of the way
-     *
-     * @param s The string
-     * @return The processed string
-     */
-    private static String typeTrimer(String s) {
-        int iPos = s.indexOf("^");
-        if (iPos > 0)
-            s = s.substring(0, iPos);
-        return s;
     }
 }
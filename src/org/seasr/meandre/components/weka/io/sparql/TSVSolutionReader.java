@@ -0,0 +1,244 @@
+/**
+ *
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ *
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ *
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ *
+ */
+package org.seasr.meandre.components.weka.io.sparql;
+
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.QuerySolutionMap;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the SPARQL query results TSV format with a streaming tokenizer, one
+ * line at a time. Terms are written in Turtle syntax: IRIs between angle
+ * brackets, blank nodes, quoted literals with an optional language or
+ * datatype, and bare numbers and booleans, which become integer, decimal,
+ * double and boolean typed literals.
+ */
+public class TSVSolutionReader extends TextSolutionReader {
+
+    /** The XML schema namespace of the datatypes of bare literals */
+    private final static String XSD = "http://www.w3.org/2001/XMLSchema#";
+
+    /** The datatypes of bare literals */
+    private final static String XSD_INTEGER = XSD + "integer", XSD_DECIMAL = XSD + "decimal",
+                                XSD_DOUBLE = XSD + "double", XSD_BOOLEAN = XSD + "boolean";
+
+    /** The characters ending a field */
+    private final static String FIELD_END = "\t\r\n";
+
+    /** The variables of the header line */
+    private final List<String> lstVars = new ArrayList<String>();
+
+    /**
+     * Reads the header line.
+     *
+     * @param is The response stream
+     * @throws IOException The header cannot be read
+     */
+    public TSVSolutionReader(InputStream is) throws IOException {
+        super(is);
+        try {
+            int c;
+            do {
+                sbToken.setLength(0);
+                c = readUntil(FIELD_END);
+                if (sbToken.length() > 0) {
+                    char cFirst = sbToken.charAt(0);
+                    lstVars.add((cFirst == '?' || cFirst == '$') ? sbToken.substring(1) : sbToken.toString());
+                }
+                read();
+            } while (c == '\t');
+            if (c == '\r' && peek() == '\n')
+                read();
+        }
+        catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public List<String> getResultVars() {
+        return lstVars;
+    }
+
+    protected QuerySolution readSolution() throws IOException {
+        if (peek() < 0 || lstVars.isEmpty())
+            return null;
+
+        QuerySolutionMap qsm = new QuerySolutionMap();
+        boolean bEndOfLine = false;
+        for (int i = 0, iMax = lstVars.size(); i < iMax && !bEndOfLine; i++) {
+            RDFNode node = readTerm();
+            if (node != null)
+                qsm.add(lstVars.get(i), node);
+            int c = read();
+            if (c == '\r' && peek() == '\n')
+                read();
+            bEndOfLine = c != '\t';
+        }
+        if (!bEndOfLine) {
+            // More fields than variables
+            sbToken.setLength(0);
+            readUntil("\n");
+            read();
+        }
+        return qsm;
+    }
+
+    /**
+     * Reads the term of a field, leaving the field end unread.
+     *
+     * @return The node, or null for an unbound variable
+     */
+    private RDFNode readTerm() throws IOException {
+        int c = peek();
+        sbToken.setLength(0);
+        switch (c) {
+            case -1:
+            case '\t':
+            case '\r':
+            case '\n':
+                return null;
+            case '<':
+                read();
+                if (readUntil(">") < 0)
+                    throw error("Unterminated IRI");
+                read();
+                return createResource(sbToken.toString());
+            case '_':
+                read();
+                if (read() != ':')
+                    throw error("Malformed blank node");
+                readUntil(FIELD_END);
+                return createBlankNode(sbToken.toString());
+            case '"':
+            case '\'':
+                return readQuotedLiteral((char) read());
+            default:
+                readUntil(FIELD_END);
+                return createLiteral(sbToken.toString(), bareDatatype(), null);
+        }
+    }
+
+    /**
+     * Reads a quoted literal with its language or datatype.
+     */
+    private RDFNode readQuotedLiteral(char cQuote) throws IOException {
+        String sStop = cQuote + "\\";
+        while (true) {
+            int c = readUntil(sStop);
+            if (c < 0)
+                throw error("Unterminated literal");
+            read();
+            if (c == cQuote)
+                break;
+            int e = read();
+            switch (e) {
+                case 'n': sbToken.append('\n'); break;
+                case 't': sbToken.append('\t'); break;
+                case 'r': sbToken.append('\r'); break;
+                case 'b': sbToken.append('\b'); break;
+                case 'f': sbToken.append('\f'); break;
+                case 'u': sbToken.append(readUnicodeEscape()); break;
+                case 'U': sbToken.appendCodePoint((readUnicodeEscape() << 16) | readUnicodeEscape()); break;
+                case '"':
+                case '\'':
+                case '\\': sbToken.append((char) e); break;
+                default: throw error("Bad escape in literal");
+            }
+        }
+        String sLex = sbToken.toString();
+
+        int c = peek();
+        if (c == '@') {
+            read();
+            sbToken.setLength(0);
+            readUntil(FIELD_END);
+            return createLiteral(sLex, null, sbToken.toString());
+        }
+        if (c == '^') {
+            read();
+            if (read() != '^')
+                throw error("Malformed datatype");
+            sbToken.setLength(0);
+            readUntil(FIELD_END);
+            int iLen = sbToken.length();
+            String sDatatype = (iLen > 1 && sbToken.charAt(0) == '<' && sbToken.charAt(iLen - 1) == '>')
+                               ? sbToken.substring(1, iLen - 1) : sbToken.toString();
+            return createLiteral(sLex, sDatatype, null);
+        }
+        return createLiteral(sLex, null, null);
+    }
+
+    /**
+     * Returns the datatype of the bare literal in the token: a boolean, or a
+     * number whose form tells whether it is an integer, a decimal or a
+     * double. Anything else is kept as a plain literal.
+     */
+    private String bareDatatype() {
+        int iLen = sbToken.length();
+        if ((iLen == 4 || iLen == 5) && ("true".contentEquals(sbToken) || "false".contentEquals(sbToken)))
+            return XSD_BOOLEAN;
+
+        boolean bDigits = false, bDot = false, bExp = false;
+        for (int i = 0; i < iLen; i++) {
+            char c = sbToken.charAt(i);
+            if (c >= '0' && c <= '9')
+                bDigits = true;
+            else if (c == '.' && !bDot && !bExp)
+                bDot = true;
+            else if ((c == 'e' || c == 'E') && bDigits && !bExp)
+                bExp = true;
+            else if ((c == '+' || c == '-') && (i == 0 || Character.toLowerCase(sbToken.charAt(i - 1)) == 'e'))
+                continue;
+            else
+                return null;
+        }
+        if (!bDigits)
+            return null;
+        return bExp ? XSD_DOUBLE : bDot ? XSD_DECIMAL : XSD_INTEGER;
+    }
+}
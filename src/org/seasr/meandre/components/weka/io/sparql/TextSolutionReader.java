@@ -0,0 +1,164 @@
+/**
+ *
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ *
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ *
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ *
+ */
+package org.seasr.meandre.components.weka.io.sparql;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * Base of the readers of text SPARQL result formats. It decodes the response
+ * as UTF-8 into a reusable character buffer, so the tokenizers can look at
+ * one character at a time without going through a stream call, and collects
+ * tokens in a reusable builder.
+ */
+public abstract class TextSolutionReader extends SolutionReader {
+
+    /** The size of the character buffer */
+    private final static int BUFFER_SIZE = 16 * 1024;
+
+    /** The decoded response */
+    private final Reader r;
+
+    /** The character buffer */
+    private final char[] caBuffer = new char[BUFFER_SIZE];
+
+    /** The position of the next character and the end of the buffered ones */
+    private int iPos = 0, iLimit = 0;
+
+    /** The token being read */
+    protected final StringBuilder sbToken = new StringBuilder();
+
+    /**
+     * Creates a reader over a response.
+     *
+     * @param is The response stream
+     * @throws IOException UTF-8 is not supported
+     */
+    protected TextSolutionReader(InputStream is) throws IOException {
+        super(is);
+        this.r = new InputStreamReader(is, "UTF-8");
+    }
+
+    /**
+     * Returns the next character without consuming it.
+     *
+     * @return The character, or -1 at the end of the response
+     * @throws IOException The response cannot be read
+     */
+    protected final int peek() throws IOException {
+        if (iPos == iLimit && !fill())
+            return -1;
+        return caBuffer[iPos];
+    }
+
+    /**
+     * Consumes the next character.
+     *
+     * @return The character, or -1 at the end of the response
+     * @throws IOException The response cannot be read
+     */
+    protected final int read() throws IOException {
+        if (iPos == iLimit && !fill())
+            return -1;
+        return caBuffer[iPos++];
+    }
+
+    /**
+     * Appends to the token the characters up to, and not including, the
+     * first one of the stop characters or the end of the response.
+     *
+     * @param sStop The characters ending the run
+     * @return The stop character found, not consumed, or -1 at the end of
+     *         the response
+     * @throws IOException The response cannot be read
+     */
+    protected final int readUntil(String sStop) throws IOException {
+        while (true) {
+            if (iPos == iLimit && !fill())
+                return -1;
+            int iStart = iPos;
+            while (iPos < iLimit && sStop.indexOf(caBuffer[iPos]) < 0)
+                iPos++;
+            sbToken.append(caBuffer, iStart, iPos - iStart);
+            if (iPos < iLimit)
+                return caBuffer[iPos];
+        }
+    }
+
+    /**
+     * Reads the four hexadecimal digits of a \\u escape.
+     *
+     * @return The escaped character
+     * @throws IOException The digits are missing or malformed
+     */
+    protected final char readUnicodeEscape() throws IOException {
+        int iCode = 0;
+        for (int i = 0; i < 4; i++) {
+            int iDigit = Character.digit(read(), 16);
+            if (iDigit < 0)
+                throw error("Malformed unicode escape");
+            iCode = (iCode << 4) | iDigit;
+        }
+        return (char) iCode;
+    }
+
+    /**
+     * Builds the exception reporting a malformed response.
+     *
+     * @param sMsg The problem found
+     * @return The exception
+     */
+    protected IOException error(String sMsg) {
+        return new IOException("Malformed SPARQL results: " + sMsg);
+    }
+
+    private boolean fill() throws IOException {
+        int iRead = r.read(caBuffer, 0, caBuffer.length);
+        if (iRead <= 0)
+            return false;
+        iPos = 0;
+        iLimit = iRead;
+        return true;
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ *
+ * University of Illinois/NCSA
+ * Open Source License
+ *
+ * Copyright  2008, NCSA.  All rights reserved.
+ *
+ * Developed by:
+ * The Automated Learning Group
+ * University of Illinois at Urbana-Champaign
+ * http://www.seasr.org
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal with the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject
+ * to the following conditions:
+ *
+ * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimers.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimers in
+ * the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the names of The Automated Learning Group, University of
+ * Illinois at Urbana-Champaign, nor the names of its contributors may
+ * be used to endorse or promote products derived from this Software
+ * without specific prior written permission.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE CONTRIBUTORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS WITH THE SOFTWARE.
+ *
+ */
+package org.seasr.meandre.components.weka.io.sparql;
+
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.QuerySolutionMap;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Reads the SPARQL query results XML format with a StAX pull parser, one
+ * result element at a time.
+ */
+public class XMLSolutionReader extends SolutionReader {
+
+    /** The namespace of the xml:lang attribute */
+    private final static String XML_NS = "http://www.w3.org/XML/1998/namespace";
+
+    /** The pull parser */
+    private final XMLStreamReader xsr;
+
+    /** The variables declared in the head */
+    private final List<String> lstVars = new LinkedList<String>();
+
+    /**
+     * Reads the head of the response.
+     *
+     * @param is The response stream
+     * @throws IOException The head cannot be parsed
+     */
+    public XMLSolutionReader(InputStream is) throws IOException {
+        super(is);
+        try {
+            XMLInputFactory xif = XMLInputFactory.newInstance();
+            xif.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+            xsr = xif.createXMLStreamReader(is);
+
+            // Collect the variables up to the start of the results
+            while (xsr.hasNext()) {
+                int iEvent = xsr.next();
+                if (iEvent == XMLStreamConstants.START_ELEMENT) {
+                    String sName = xsr.getLocalName();
+                    if (sName.equals("variable"))
+                        lstVars.add(xsr.getAttributeValue(null, "name"));
+                    else if (sName.equals("results") || sName.equals("boolean"))
+                        break;
+                }
+            }
+        }
+        catch (XMLStreamException e) {
+            close();
+            throw toIOException(e);
+        }
+    }
+
+    public List<String> getResultVars() {
+        return lstVars;
+    }
+
+    protected QuerySolution readSolution() throws IOException {
+        try {
+            // Move to the next result, or stop at the end of the results
+            while (true) {
+                if (!xsr.hasNext())
+                    return null;
+                int iEvent = xsr.next();
+                if (iEvent == XMLStreamConstants.START_ELEMENT && xsr.getLocalName().equals("result"))
+                    break;
+                if (iEvent == XMLStreamConstants.END_ELEMENT && xsr.getLocalName().equals("results"))
+                    return null;
+            }
+
+            QuerySolutionMap qsm = new QuerySolutionMap();
+            String sVar = null;
+            while (xsr.hasNext()) {
+                int iEvent = xsr.next();
+                if (iEvent == XMLStreamConstants.START_ELEMENT) {
+                    String sName = xsr.getLocalName();
+                    if (sName.equals("binding"))
+                        sVar = xsr.getAttributeValue(null, "name");
+                    else
+                        qsm.add(sVar, readNode(sName));
+                }
+                else if (iEvent == XMLStreamConstants.END_ELEMENT && xsr.getLocalName().equals("result"))
+                    break;
+            }
+            return qsm;
+        }
+        catch (XMLStreamException e) {
+            throw toIOException(e);
+        }
+    }
+
+    /**
+     * Creates the node of the uri, bnode or literal element the parser is on.
+     */
+    private RDFNode readNode(String sName) throws XMLStreamException {
+        if (sName.equals("literal")) {
+            String sDatatype = xsr.getAttributeValue(null, "datatype");
+            String sLang = xsr.getAttributeValue(XML_NS, "lang");
+            return createLiteral(xsr.getElementText(), sDatatype, sLang);
+        }
+
+        String sText = xsr.getElementText().trim();
+        if (sName.equals("bnode"))
+            return createBlankNode(sText);
+        return createResource(sText);
+    }
+
+    private static IOException toIOException(XMLStreamException e) {
+        IOException ioe = new IOException("Malformed SPARQL XML results: " + e.getMessage());
+        ioe.initCause(e);
+        return ioe;
+    }
+}